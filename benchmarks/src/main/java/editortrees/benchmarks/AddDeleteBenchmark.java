@@ -0,0 +1,105 @@
+package editortrees.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.EditTree;
+
+/**
+ * add() and delete() at fixed kinds of positions. Adds and deletes change the
+ * size of the tree, so each measured iteration is a batch of BATCH operations
+ * on a fresh tree of the benchmarked size, and the reported time is per
+ * batch. The batch is small enough that the tree stays within a factor of two
+ * of its size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = AddDeleteBenchmark.BATCH)
+@Measurement(iterations = 50, batchSize = AddDeleteBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Xss16m" })
+public class AddDeleteBenchmark {
+
+	static final int BATCH = 500;
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	public int size;
+
+	private String text;
+	private EditTree tree;
+	private Random random;
+	private int cursor;
+
+	@Setup(Level.Trial)
+	public void setUpText() {
+		this.text = Texts.random(this.size);
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpTree() {
+		this.tree = new EditTree(this.text);
+		this.random = new Random(30);
+		this.cursor = this.size / 2;
+	}
+
+	@Benchmark
+	public void addStart() {
+		this.tree.add('x', 0);
+	}
+
+	@Benchmark
+	public void addEnd() {
+		this.tree.add('x');
+	}
+
+	@Benchmark
+	public void addMiddle() {
+		this.tree.add('x', this.tree.size() / 2);
+	}
+
+	@Benchmark
+	public void addRandom() {
+		this.tree.add('x', this.random.nextInt(this.tree.size() + 1));
+	}
+
+	@Benchmark
+	public char deleteStart() {
+		return this.tree.delete(0);
+	}
+
+	@Benchmark
+	public char deleteEnd() {
+		return this.tree.delete(this.tree.size() - 1);
+	}
+
+	@Benchmark
+	public char deleteMiddle() {
+		return this.tree.delete(this.tree.size() / 2);
+	}
+
+	@Benchmark
+	public char deleteRandom() {
+		return this.tree.delete(this.random.nextInt(this.tree.size()));
+	}
+
+	/**
+	 * Repeated backspace at a cursor in the middle of the document.
+	 */
+	@Benchmark
+	public char deleteBackspace() {
+		return this.tree.delete(--this.cursor);
+	}
+}
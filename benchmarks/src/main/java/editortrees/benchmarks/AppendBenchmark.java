@@ -0,0 +1,96 @@
+package editortrees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.EditTree;
+
+/**
+ * Streaming appends, the way a log tail grows: one char at a time through
+ * add(char), a line at a time and a block at a time through
+ * append(CharSequence), and StringBuilder.append(char) as the baseline. Each
+ * invocation appends BLOCK chars, and each measured iteration is a batch of
+ * BATCH invocations on a fresh tree of the benchmarked size, so the reported
+ * time is per BATCH * BLOCK chars.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = AppendBenchmark.BATCH)
+@Measurement(iterations = 50, batchSize = AppendBenchmark.BATCH)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Xss16m" })
+public class AppendBenchmark {
+
+	static final int BATCH = 256;
+	private static final int BLOCK = 4096;
+	private static final int LINE = 64;
+
+	@Param({ "1000", "1000000" })
+	public int size;
+
+	private String text;
+	private String block;
+	private String[] lines;
+	private EditTree tree;
+	private StringBuilder builder;
+
+	@Setup(Level.Trial)
+	public void setUpText() {
+		this.text = Texts.random(this.size);
+		this.block = Texts.random(BLOCK);
+		this.lines = new String[BLOCK / LINE];
+		for (int i = 0; i < this.lines.length; i++) {
+			this.lines[i] = this.block.substring(i * LINE, (i + 1) * LINE);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void setUpTree() {
+		this.tree = new EditTree(this.text);
+		this.builder = new StringBuilder(this.text);
+	}
+
+	@Benchmark
+	public int appendChars() {
+		String block = this.block;
+		for (int i = 0; i < BLOCK; i++) {
+			this.tree.add(block.charAt(i));
+		}
+		return this.tree.size();
+	}
+
+	@Benchmark
+	public int appendLines() {
+		for (String line : this.lines) {
+			this.tree.append(line);
+		}
+		return this.tree.size();
+	}
+
+	@Benchmark
+	public int appendBlock() {
+		this.tree.append(this.block);
+		return this.tree.size();
+	}
+
+	@Benchmark
+	public int stringBuilder() {
+		String block = this.block;
+		for (int i = 0; i < BLOCK; i++) {
+			this.builder.append(block.charAt(i));
+		}
+		return this.builder.length();
+	}
+}
@@ -0,0 +1,84 @@
+package editortrees.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.BalancingEngine;
+import editortrees.RankTree;
+
+/**
+ * Cursor-local editing: each step picks one of a number of cursors, moves it
+ * a few chars, and reads, types, reads the typed char and deletes it again at
+ * the cursor. With few cursors the splay tree keeps the touched nodes at the
+ * top and wins; as the cursors spread out, every step first splays a distant
+ * node and the advantage shrinks. The cursors value at which the two engines
+ * meet is the crossover point for a given size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Xss16m" })
+public class CursorBenchmark {
+
+	private static final int STEPS = 1 << 16;
+	private static final int DRIFT = 8;
+
+	@Param({ "AVL", "SPLAY" })
+	public BalancingEngine engine;
+
+	@Param({ "100000", "1000000", "10000000" })
+	public int size;
+
+	@Param({ "1", "4", "16", "256", "4096", "65536" })
+	public int cursors;
+
+	private RankTree tree;
+	private int[] positions;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.tree = this.engine.newTree(Texts.random(this.size));
+		Random random = new Random(33);
+		int[] cursor = new int[this.cursors];
+		for (int k = 0; k < this.cursors; k++) {
+			cursor[k] = (int) ((long) this.size * k / this.cursors);
+		}
+		this.positions = new int[STEPS];
+		for (int i = 0; i < STEPS; i++) {
+			int k = random.nextInt(this.cursors);
+			int pos = cursor[k] + random.nextInt(2 * DRIFT + 1) - DRIFT;
+			cursor[k] = Math.max(0, Math.min(this.size - 2, pos));
+			this.positions[i] = cursor[k];
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(4)
+	public char step() {
+		int i = this.next;
+		this.next = i + 1 == STEPS ? 0 : i + 1;
+		int pos = this.positions[i];
+		char c = this.tree.get(pos);
+		this.tree.add(c, pos);
+		c = this.tree.get(pos + 1);
+		this.tree.delete(pos);
+		return c;
+	}
+}
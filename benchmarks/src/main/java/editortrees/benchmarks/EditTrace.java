@@ -0,0 +1,165 @@
+package editortrees.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Shapes of edit workloads. Each trace is a list of adds and deletes that
+ * starts and ends at the same document size, so it can be replayed over and
+ * over against one tree while the tree stays at the benchmarked size.
+ */
+public enum EditTrace {
+
+	/**
+	 * Typing at a cursor with the odd backspace and jump, plus a cut of a
+	 * block elsewhere whenever the document has grown by CUT chars.
+	 */
+	TYPING {
+		@Override
+		void next(Builder b, Random random) {
+			int roll = random.nextInt(100);
+			if (b.size >= b.start + CUT) {
+				int from = random.nextInt(b.size - CUT + 1);
+				for (int i = 0; i < CUT; i++) {
+					b.delete(from);
+				}
+				b.cursor = Math.min(b.cursor, b.size);
+			} else if (roll < 2) {
+				b.cursor = random.nextInt(b.size + 1);
+			} else if (roll < 12 && b.cursor > 0) {
+				b.delete(--b.cursor);
+			} else {
+				b.add(b.cursor++);
+			}
+		}
+	},
+
+	/**
+	 * Adds and deletes at uniformly random positions.
+	 */
+	RANDOM {
+		@Override
+		void next(Builder b, Random random) {
+			boolean add = b.size <= b.start - CUT || (b.size < b.start + CUT && random.nextBoolean());
+			if (add) {
+				b.add(random.nextInt(b.size + 1));
+			} else {
+				b.delete(random.nextInt(b.size));
+			}
+		}
+	},
+
+	/**
+	 * A log buffer: append at the end, and trim from the front once the
+	 * document is over its size.
+	 */
+	LOG_TAIL {
+		@Override
+		void next(Builder b, Random random) {
+			if (b.size > b.start) {
+				b.delete(0);
+			} else {
+				b.add(b.size);
+			}
+		}
+	},
+
+	/**
+	 * Delete-heavy editing: bursts of backspaces at a cursor, each followed by
+	 * retyping as many chars.
+	 */
+	BACKSPACE {
+		@Override
+		void next(Builder b, Random random) {
+			if (b.cursor == 0) {
+				b.cursor = random.nextInt(b.size + 1);
+				return;
+			}
+			int burst = 1 + random.nextInt(Math.min(40, b.cursor));
+			for (int i = 0; i < burst; i++) {
+				b.delete(--b.cursor);
+			}
+			for (int i = 0; i < burst; i++) {
+				b.add(b.cursor++);
+			}
+			if (random.nextInt(10) == 0) {
+				b.cursor = random.nextInt(b.size + 1);
+			}
+		}
+	};
+
+	private static final int CUT = 256;
+
+	abstract void next(Builder b, Random random);
+
+	/**
+	 * Generates about length operations of this shape against a document of
+	 * size chars. Position i is an add at positions[i] if it is non-negative,
+	 * or a delete at ~positions[i] otherwise; chars[i] is the char to add.
+	 */
+	Ops generate(int size, int length, long seed) {
+		Random random = new Random(seed);
+		Builder b = new Builder(size, length);
+		while (b.count < length) {
+			this.next(b, random);
+		}
+		// Return to the starting size so the trace can be replayed in a loop.
+		while (b.size > size) {
+			b.delete(b.size - 1);
+		}
+		while (b.size < size) {
+			b.add(b.size);
+		}
+		return new Ops(Arrays.copyOf(b.positions, b.count), Arrays.copyOf(b.chars, b.count));
+	}
+
+	/**
+	 * A generated trace.
+	 */
+	static final class Ops {
+		final int[] positions;
+		final char[] chars;
+
+		Ops(int[] positions, char[] chars) {
+			this.positions = positions;
+			this.chars = chars;
+		}
+	}
+
+	static final class Builder {
+		final int start;
+		int size;
+		int cursor;
+		int count;
+		int[] positions;
+		char[] chars;
+
+		Builder(int size, int length) {
+			this.start = size;
+			this.size = size;
+			this.cursor = size / 2;
+			this.positions = new int[length + 2 * CUT];
+			this.chars = new char[this.positions.length];
+		}
+
+		void add(int pos) {
+			this.ensureCapacity();
+			this.chars[this.count] = (char) ('a' + this.count % 26);
+			this.positions[this.count++] = pos;
+			this.size++;
+		}
+
+		void delete(int pos) {
+			this.ensureCapacity();
+			this.positions[this.count++] = ~pos;
+			this.size--;
+		}
+
+		private void ensureCapacity() {
+			if (this.count == this.positions.length) {
+				this.positions = Arrays.copyOf(this.positions, 2 * this.count);
+				this.chars = Arrays.copyOf(this.chars, 2 * this.count);
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package editortrees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.EditTree;
+
+/**
+ * Replays an EditTrace against a tree, one add or delete per invocation. The
+ * traces keep the tree at its starting size, so this measures steady-state
+ * throughput and per-edit latency percentiles (SampleTime) for each workload
+ * shape. Run with -prof gc for the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Xss16m" })
+public class EditTraceBenchmark {
+
+	private static final int TRACE_LENGTH = 1 << 16;
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	public int size;
+
+	@Param({ "TYPING", "RANDOM", "LOG_TAIL", "BACKSPACE" })
+	public EditTrace trace;
+
+	private EditTree tree;
+	private int[] positions;
+	private char[] chars;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.tree = new EditTree(Texts.random(this.size));
+		EditTrace.Ops ops = this.trace.generate(this.size, TRACE_LENGTH, 30);
+		this.positions = ops.positions;
+		this.chars = ops.chars;
+	}
+
+	@Benchmark
+	public void replay() {
+		int i = this.next;
+		this.next = i + 1 == this.positions.length ? 0 : i + 1;
+		int pos = this.positions[i];
+		if (pos >= 0) {
+			this.tree.add(this.chars[i], pos);
+		} else {
+			this.tree.delete(~pos);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package editortrees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.BalancingEngine;
+import editortrees.RankTree;
+
+/**
+ * Replays each EditTrace against each BalancingEngine, like
+ * EditTraceBenchmark, and reads back a char after every edit. Besides
+ * throughput and latency, the Rotations counters report how many rotations
+ * each engine did over how many edits, and the final tree height is printed
+ * at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Xss16m" })
+public class EngineBenchmark {
+
+	private static final int TRACE_LENGTH = 1 << 16;
+
+	@Param({ "AVL", "RED_BLACK", "WAVL", "TREAP", "SPLAY", "ROPE" })
+	public BalancingEngine engine;
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	public int size;
+
+	@Param({ "TYPING", "RANDOM", "LOG_TAIL", "BACKSPACE" })
+	public EditTrace trace;
+
+	private RankTree tree;
+	private int[] positions;
+	private char[] chars;
+	private int next;
+
+	/**
+	 * Rotations done and edits made during one iteration.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Rotations {
+		public long rotations;
+		public long edits;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.rotations = 0;
+			this.edits = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.tree = this.engine.newTree(Texts.random(this.size));
+		EditTrace.Ops ops = this.trace.generate(this.size, TRACE_LENGTH, 32);
+		this.positions = ops.positions;
+		this.chars = ops.chars;
+	}
+
+	@Benchmark
+	public char replay(Rotations counters) {
+		int i = this.next;
+		this.next = i + 1 == this.positions.length ? 0 : i + 1;
+		int pos = this.positions[i];
+		int before = this.tree.totalRotationCount();
+		if (pos >= 0) {
+			this.tree.add(this.chars[i], pos);
+		} else {
+			pos = ~pos;
+			this.tree.delete(pos);
+		}
+		counters.rotations += this.tree.totalRotationCount() - before;
+		counters.edits++;
+		return this.tree.get(Math.min(pos, this.tree.size() - 1));
+	}
+
+	@TearDown(Level.Trial)
+	public void printHeight() {
+		System.out.println("\n" + this.engine + " height after trace: " + this.tree.slowHeight());
+	}
+}
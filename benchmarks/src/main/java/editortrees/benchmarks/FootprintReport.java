@@ -0,0 +1,54 @@
+package editortrees.benchmarks;
+
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+import editortrees.BalancingEngine;
+import editortrees.CompactEditTree;
+import editortrees.EditTree;
+import editortrees.RankTree;
+
+/**
+ * Prints, with JOL, the field layout of a Node and of the summary it allocates
+ * once a feature such as contentHash() needs one, and the bytes per char of
+ * each tree representation: EditTree's Node objects, with and without
+ * summaries, CompactEditTree's packed arrays, and the other BalancingEngines.
+ * Not a JMH benchmark; run it with
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar editortrees.benchmarks.FootprintReport [size]
+ * </pre>
+ */
+public class FootprintReport {
+
+	public static void main(String[] args) throws ClassNotFoundException {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String text = Texts.random(size);
+
+		// Node is package-private, so look it up by name.
+		System.out.println(ClassLayout.parseClass(Class.forName("editortrees.Node")).toPrintable());
+		System.out.println(ClassLayout.parseClass(Class.forName("editortrees.Node$Summary")).toPrintable());
+
+		EditTree tree = new EditTree(text);
+		report("EditTree (Node objects)", tree, size);
+		tree.contentHash();
+		report("EditTree, after contentHash()", tree, size);
+		report("CompactEditTree, built", new CompactEditTree(text), size);
+		CompactEditTree grown = new CompactEditTree();
+		for (int i = 0; i < size; i++) {
+			grown.add(text.charAt(i));
+		}
+		report("CompactEditTree, grown by adds", grown, size);
+		for (BalancingEngine engine : BalancingEngine.values()) {
+			if (engine != BalancingEngine.AVL) {
+				report(engine.name(), engine.newTree(text), size);
+			}
+		}
+	}
+
+	private static void report(String name, RankTree tree, int size) {
+		GraphLayout layout = GraphLayout.parseInstance(tree);
+		System.out.printf("%-32s %,14d bytes %8.2f bytes/char %,12d objects%n", name, layout.totalSize(),
+				(double) layout.totalSize() / size, layout.totalCount());
+	}
+}
@@ -0,0 +1,86 @@
+package editortrees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.EditTree;
+
+/**
+ * Node recycling (EditTree.enableNodePool()) against plain allocation, on the
+ * two workloads it is meant for: replaying edits that delete and re-add
+ * characters, and replacing the whole text the way a formatter does. Run with
+ * -prof gc and compare gc.alloc.rate.norm between pooled=false and
+ * pooled=true.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Xss16m" })
+public class PoolBenchmark {
+
+	private static final int TRACE_LENGTH = 1 << 16;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	@Param({ "false", "true" })
+	public boolean pooled;
+
+	private EditTree tree;
+	private String[] texts;
+	private int[] positions;
+	private char[] chars;
+	private int next;
+	private int text;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.texts = new String[] { Texts.random(this.size), Texts.random(this.size) };
+		this.tree = new EditTree(this.texts[0]);
+		if (this.pooled) {
+			this.tree.enableNodePool(this.size);
+		}
+		EditTrace.Ops ops = EditTrace.RANDOM.generate(this.size, TRACE_LENGTH, 30);
+		this.positions = ops.positions;
+		this.chars = ops.chars;
+	}
+
+	/**
+	 * One add or delete of a random edit trace, which keeps the size steady.
+	 */
+	@Benchmark
+	public void churn() {
+		int i = this.next;
+		this.next = i + 1 == this.positions.length ? 0 : i + 1;
+		int pos = this.positions[i];
+		if (pos >= 0) {
+			this.tree.add(this.chars[i], pos);
+		} else {
+			this.tree.delete(~pos);
+		}
+	}
+
+	/**
+	 * Replaces the whole text, alternating between two texts of the same size.
+	 */
+	@Benchmark
+	public int reformat() {
+		this.text ^= 1;
+		this.tree.setText(this.texts[this.text]);
+		return this.tree.size();
+	}
+}
@@ -0,0 +1,113 @@
+package editortrees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.EditTree;
+
+/**
+ * Operations that leave the tree unchanged: get(pos) at random and at
+ * consecutive positions, the latter also through a pending reverse(),
+ * get(pos, len), toString(), and building a tree from a String or from
+ * another tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Xss16m" })
+public class ReadBenchmark {
+
+	private static final int POSITIONS = 1 << 16;
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	public int size;
+
+	private String text;
+	private EditTree tree;
+	private EditTree reversed; // a copy of tree with a reverse() still pending
+	private int[] positions;
+	private int next;
+	private int cursor;
+
+	/**
+	 * Length of the ranges read by getRange().
+	 */
+	@State(Scope.Thread)
+	public static class Range {
+		@Param({ "80", "4096" })
+		public int length;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.text = Texts.random(this.size);
+		this.tree = new EditTree(this.text);
+		this.reversed = new EditTree(this.tree);
+		this.reversed.reverse(0, 2);
+		this.positions = Texts.positions(POSITIONS, this.size, 30);
+	}
+
+	private int nextPosition() {
+		this.next = (this.next + 1) & (POSITIONS - 1);
+		return this.positions[this.next];
+	}
+
+	@Benchmark
+	public char get() {
+		return this.tree.get(this.nextPosition());
+	}
+
+	/**
+	 * get(i) for consecutive i, as a plain for-loop over the text does.
+	 */
+	@Benchmark
+	public char getSequential() {
+		this.cursor = this.cursor + 1 == this.size ? 0 : this.cursor + 1;
+		return this.tree.get(this.cursor);
+	}
+
+	/**
+	 * getSequential() on a tree whose first two chars are reversed, with the
+	 * tags of the reverse not yet pushed.
+	 */
+	@Benchmark
+	public char getSequentialAfterReverse() {
+		this.cursor = this.cursor + 1 == this.size ? 0 : this.cursor + 1;
+		return this.reversed.get(this.cursor);
+	}
+
+	@Benchmark
+	public String getRange(Range range) {
+		int length = Math.min(range.length, this.size);
+		return this.tree.get(this.nextPosition() % (this.size - length + 1), length);
+	}
+
+	@Benchmark
+	public String wholeToString() {
+		return this.tree.toString();
+	}
+
+	@Benchmark
+	public EditTree fromString() {
+		return new EditTree(this.text);
+	}
+
+	@Benchmark
+	public EditTree copy() {
+		return new EditTree(this.tree);
+	}
+}
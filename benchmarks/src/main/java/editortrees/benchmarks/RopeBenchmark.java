@@ -0,0 +1,74 @@
+package editortrees.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import editortrees.BalancingEngine;
+import editortrees.RankTree;
+
+/**
+ * The reads of ReadBenchmark, AVL against the B+ tree rope: random get(pos),
+ * get(pos, len), and bulk loading from a String. Add -prof perfnorm to see
+ * the cache misses per get.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx6g", "-Xss16m" })
+public class RopeBenchmark {
+
+	private static final int POSITIONS = 1 << 16;
+
+	@Param({ "AVL", "ROPE" })
+	public BalancingEngine engine;
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	public int size;
+
+	private String text;
+	private RankTree tree;
+	private int[] positions;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.text = Texts.random(this.size);
+		this.tree = this.engine.newTree(this.text);
+		this.positions = Texts.positions(POSITIONS, this.size, 34);
+	}
+
+	private int nextPosition() {
+		this.next = (this.next + 1) & (POSITIONS - 1);
+		return this.positions[this.next];
+	}
+
+	@Benchmark
+	public char get() {
+		return this.tree.get(this.nextPosition());
+	}
+
+	@Benchmark
+	public String getRange() {
+		int length = Math.min(4096, this.size);
+		return this.tree.get(this.nextPosition() % (this.size - length + 1), length);
+	}
+
+	@Benchmark
+	public RankTree fromString() {
+		return this.engine.newTree(this.text);
+	}
+}
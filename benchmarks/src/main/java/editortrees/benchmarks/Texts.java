@@ -0,0 +1,39 @@
+package editortrees.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Deterministic test documents for the benchmarks.
+ */
+final class Texts {
+
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz    \n{}()";
+
+	private Texts() {
+	}
+
+	/**
+	 * @return a string of length random characters, the same for every call with
+	 *         the same length
+	 */
+	static String random(int length) {
+		Random random = new Random(length);
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return length positions in [0, bound), for cycling through with a mask
+	 */
+	static int[] positions(int length, int bound, long seed) {
+		Random random = new Random(seed);
+		int[] positions = new int[length];
+		for (int i = 0; i < length; i++) {
+			positions[i] = random.nextInt(bound);
+		}
+		return positions;
+	}
+}
@@ -0,0 +1,268 @@
+package editortrees;
+
+import java.util.ArrayList;
+import java.util.Stack;
+
+/**
+ * The parts of a RankTree that do not depend on how it is balanced: lookups,
+ * in-order output, and rotations that keep subtree sizes and the rotation
+ * count up to date. A subclass only supplies insert() and remove(), which are
+ * called with positions that were already checked.
+ */
+abstract class AbstractRankTree implements RankTree {
+
+	RankNode root = RankNode.NIL;
+	int rotationCount;
+
+	/**
+	 * Inserts ch so that it ends up at in-order position pos.
+	 *
+	 * @param pos from 0 to size() inclusive
+	 */
+	abstract void insert(char ch, int pos);
+
+	/**
+	 * Removes the node at in-order position pos.
+	 *
+	 * @param pos from 0 to size() - 1
+	 * @return the char it held
+	 */
+	abstract char remove(int pos);
+
+	@Override
+	public int size() {
+		return this.root.size;
+	}
+
+	@Override
+	public void add(char ch) {
+		this.insert(ch, this.root.size);
+	}
+
+	@Override
+	public void add(char ch, int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.root.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.insert(ch, pos);
+	}
+
+	@Override
+	public char delete(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.root.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.remove(pos);
+	}
+
+	@Override
+	public char get(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.root.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		RankNode n = this.root;
+		while (pos != n.left.size) {
+			if (pos < n.left.size) {
+				n = n.left;
+			} else {
+				pos -= n.left.size + 1;
+				n = n.right;
+			}
+		}
+		return n.data;
+	}
+
+	@Override
+	public String get(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos + length > this.root.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		StringBuilder sb = new StringBuilder(length);
+		appendRange(this.root, pos, length, sb);
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(this.root.size);
+		appendRange(this.root, 0, this.root.size, sb);
+		return sb.toString();
+	}
+
+	@Override
+	public int totalRotationCount() {
+		return this.rotationCount;
+	}
+
+	@Override
+	public int slowHeight() {
+		return slowHeight(this.root);
+	}
+
+	/**
+	 * @return true iff every node's size is the size of its subtree
+	 */
+	boolean sizesAreCorrect() {
+		return checkedSize(this.root) == this.root.size;
+	}
+
+	/**
+	 * Rotates n's right child up into n's place.
+	 *
+	 * @return the new root of the subtree
+	 */
+	RankNode rotateLeft(RankNode n) {
+		RankNode r = n.right;
+		n.right = r.left;
+		r.left = n;
+		r.size = n.size;
+		n.resize();
+		this.rotationCount++;
+		return r;
+	}
+
+	/**
+	 * Rotates n's left child up into n's place.
+	 *
+	 * @return the new root of the subtree
+	 */
+	RankNode rotateRight(RankNode n) {
+		RankNode l = n.left;
+		n.left = l.right;
+		l.right = n;
+		l.size = n.size;
+		n.resize();
+		this.rotationCount++;
+		return l;
+	}
+
+	/**
+	 * Hangs the new node x as a leaf at in-order position pos, counting it in
+	 * the sizes of its ancestors, and records those ancestors from the root
+	 * down in path.
+	 *
+	 * @return the number of ancestors recorded, 0 if x became the root
+	 */
+	int attach(RankNode x, int pos, RankNode[] path) {
+		if (this.root == RankNode.NIL) {
+			this.root = x;
+			return 0;
+		}
+		int depth = 0;
+		RankNode n = this.root;
+		while (true) {
+			n.size++;
+			path[depth++] = n;
+			if (pos <= n.left.size) {
+				if (n.left == RankNode.NIL) {
+					n.left = x;
+					return depth;
+				}
+				n = n.left;
+			} else {
+				pos -= n.left.size + 1;
+				if (n.right == RankNode.NIL) {
+					n.right = x;
+					return depth;
+				}
+				n = n.right;
+			}
+		}
+	}
+
+	/**
+	 * Links replacement into parent where old was, or makes it the root if
+	 * parent is null.
+	 */
+	void replaceChild(RankNode parent, RankNode old, RankNode replacement) {
+		if (parent == null) {
+			this.root = replacement;
+		} else if (parent.left == old) {
+			parent.left = replacement;
+		} else {
+			parent.right = replacement;
+		}
+	}
+
+	/**
+	 * Appends length chars of the subtree rooted at n, starting at pos, to sb.
+	 * Iterative, since a splay tree can be as deep as it is large.
+	 */
+	static void appendRange(RankNode n, int pos, int length, StringBuilder sb) {
+		if (length == 0) {
+			return;
+		}
+		Stack<RankNode> inOrder = new Stack<RankNode>();
+		while (pos != n.left.size) {
+			if (pos < n.left.size) {
+				inOrder.push(n);
+				n = n.left;
+			} else {
+				pos -= n.left.size + 1;
+				n = n.right;
+			}
+		}
+		inOrder.push(n);
+		while (length > 0) {
+			n = inOrder.pop();
+			sb.append(n.data);
+			length--;
+			if (length > 0) {
+				for (n = n.right; n != RankNode.NIL; n = n.left) {
+					inOrder.push(n);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the levels of the subtree rooted at n, one level at a time, so
+	 * that no depth of tree runs out of stack.
+	 */
+	private static int slowHeight(RankNode n) {
+		int height = -1;
+		ArrayList<RankNode> level = new ArrayList<RankNode>();
+		if (n != RankNode.NIL) {
+			level.add(n);
+		}
+		while (!level.isEmpty()) {
+			height++;
+			ArrayList<RankNode> next = new ArrayList<RankNode>();
+			for (RankNode m : level) {
+				if (m.left != RankNode.NIL) {
+					next.add(m.left);
+				}
+				if (m.right != RankNode.NIL) {
+					next.add(m.right);
+				}
+			}
+			level = next;
+		}
+		return height;
+	}
+
+	/**
+	 * Checks every size in the subtree rooted at n against those of its
+	 * children, walking it with an explicit stack.
+	 * @return n's size if all are right, or -1
+	 */
+	private static int checkedSize(RankNode n) {
+		Stack<RankNode> unchecked = new Stack<RankNode>();
+		unchecked.push(n);
+		while (!unchecked.isEmpty()) {
+			RankNode m = unchecked.pop();
+			if (m == RankNode.NIL) {
+				if (m.size != 0) {
+					return -1;
+				}
+				continue;
+			}
+			if (m.size != m.left.size + m.right.size + 1) {
+				return -1;
+			}
+			unchecked.push(m.left);
+			unchecked.push(m.right);
+		}
+		return n.size;
+	}
+}
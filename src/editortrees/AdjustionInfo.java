@@ -6,15 +6,60 @@ package editortrees;
  * The boolean denotes whether further tracing up the tree, 
  * or in other words, further modifications of balance codes, is needed. 
  * The int keeps the total number of rotations happened in the operation.
+ * The depth and the per-type rotation counts are only read by EditTreeMetrics.
+ * The pool, if the tree has one, is where add takes new nodes from, and removed
+ * is the node a deletion unlinked, for the tree to give back to the pool.
+ * The epoch is the tree's, which marks the nodes it may change in place.
  */
 public class AdjustionInfo {
+    // Indexes into rotations, one per rotation method in Node.
+    public static final int SINGLE_LEFT = 0;
+    public static final int SINGLE_RIGHT = 1;
+    public static final int DOUBLE_LEFT = 2;
+    public static final int DOUBLE_RIGHT = 3;
+
     public char ch;
     public boolean traceUp;
     public int rCount;
+    public int depth; // number of nodes visited on the way down
+    public final int[] rotations = new int[4];
+    public NodePool pool; // stays across operations, unlike the rest
+    public int epoch; // likewise
+    public Node removed;
+    // Results of Node.split() and Node.join(): the two halves of a split and
+    // the heights of the trees they return.
+    public Node low, high;
+    public int lowHeight, highHeight, height;
+
     public AdjustionInfo(char ch, boolean b, int i) {
         this.ch = ch;
         this.traceUp = b;
         this.rCount = i;
     }
 
+    /**
+     * Clears everything before the next operation.
+     */
+    public void reset() {
+        this.ch = '\0';
+        this.traceUp = true;
+        this.rCount = 0;
+        this.depth = 0;
+        this.removed = null;
+        this.low = null;
+        this.high = null;
+        this.rotations[SINGLE_LEFT] = 0;
+        this.rotations[SINGLE_RIGHT] = 0;
+        this.rotations[DOUBLE_LEFT] = 0;
+        this.rotations[DOUBLE_RIGHT] = 0;
+    }
+
+    /**
+     * Counts a rotation of the given type. A double rotation counts as two.
+     */
+    public void rotated(int type) {
+        this.rotations[type]++;
+        this.rCount += type == DOUBLE_LEFT || type == DOUBLE_RIGHT ? 2 : 1;
+    }
+
 }
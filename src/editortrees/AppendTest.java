@@ -0,0 +1,98 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AppendTest {
+
+	@Test
+	public void testAppendChars() {
+		EditTree t = new EditTree();
+		StringBuilder model = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			char c = (char) ('a' + i % 26);
+			t.add(c);
+			model.append(c);
+		}
+		assertEquals(model.toString(), t.toString());
+		assertTrue(t.isConsistent());
+		assertTrue(t.fastHeight() <= 1.45 * Math.log(100000) / Math.log(2));
+	}
+
+	@Test
+	public void testAppendSequence() {
+		EditTree t = new EditTree("abc");
+		t.append("");
+		t.append("d");
+		t.append(new StringBuilder("efghijklmnopqrstuvwxyz"));
+		assertEquals("abcdefghijklmnopqrstuvwxyz", t.toString());
+		EditTree empty = new EditTree();
+		empty.append("hello");
+		assertEquals("hello", empty.toString());
+		assertTrue(t.isConsistent() && empty.isConsistent());
+	}
+
+	@Test
+	public void testSummariesStayCurrent() {
+		EditTree t = new EditTree("(a");
+		t.trackCharacters("a");
+		assertEquals(1, t.countBefore('a', 2));
+		long before = t.contentHash();
+		t.add('a');
+		t.add(')');
+		assertEquals(2, t.countBefore('a', 4));
+		assertEquals(3, t.matchingBracket(0));
+		assertTrue(before != t.contentHash());
+		t.add('a');
+		assertEquals(3, t.countBefore('a', 5));
+		assertEquals(new EditTree("(aa)a").contentHash(), t.contentHash());
+	}
+
+	@Test
+	public void testAppendsMixedWithOtherEdits() {
+		Random random = new Random(49);
+		EditTree t = new EditTree();
+		t.enableSampledValidation(1);
+		StringBuilder model = new StringBuilder();
+		EditTree copy = null;
+		String copied = null;
+		for (int i = 0; i < 30000; i++) {
+			int op = random.nextInt(20);
+			if (op < 12 || model.length() == 0) {
+				char c = (char) ('a' + random.nextInt(26));
+				t.add(c);
+				model.append(c);
+			} else if (op < 14) {
+				String s = Integer.toString(random.nextInt(1 << 20), 36);
+				t.append(s);
+				model.append(s);
+			} else if (op < 16) {
+				int pos = random.nextInt(model.length());
+				assertEquals(model.charAt(pos), t.delete(pos));
+				model.deleteCharAt(pos);
+			} else if (op < 17) {
+				int pos = random.nextInt(model.length() + 1);
+				t.add('-', pos);
+				model.insert(pos, '-');
+			} else if (op < 18) {
+				int pos = random.nextInt(model.length() + 1);
+				int length = random.nextInt(model.length() - pos + 1);
+				t.reverse(pos, length);
+				model.replace(pos, pos + length, new StringBuilder(model.substring(pos, pos + length)).reverse()
+						.toString());
+			} else if (op < 19) {
+				copy = new EditTree(t);
+				copied = model.toString();
+			} else {
+				assertEquals(new EditTree(model.toString()).contentHash(), t.contentHash());
+			}
+		}
+		assertEquals(model.toString(), t.toString());
+		assertEquals(copied, copy.toString());
+		assertTrue(t.isConsistent() && copy.isConsistent());
+	}
+}
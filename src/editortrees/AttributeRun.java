@@ -0,0 +1,38 @@
+package editortrees;
+
+/**
+ * A stretch of an EditTree's text with one attribute value, as returned by
+ * EditTree.runs(). A null value means no attribute.
+ */
+public final class AttributeRun {
+
+	public final int start;
+	public final int length;
+	public final Object value;
+
+	public AttributeRun(int start, int length, Object value) {
+		this.start = start;
+		this.length = length;
+		this.value = value;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof AttributeRun)) {
+			return false;
+		}
+		AttributeRun r = (AttributeRun) o;
+		return this.start == r.start && this.length == r.length
+				&& (this.value == null ? r.value == null : this.value.equals(r.value));
+	}
+
+	@Override
+	public int hashCode() {
+		return (this.start * 31 + this.length) * 31 + (this.value == null ? 0 : this.value.hashCode());
+	}
+
+	@Override
+	public String toString() {
+		return this.start + "+" + this.length + "=" + this.value;
+	}
+}
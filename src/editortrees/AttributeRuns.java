@@ -0,0 +1,268 @@
+package editortrees;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The attribute runs of one EditTree: its text cut into maximal runs of equal
+ * value, kept in a treap ordered by position, where each node knows the total
+ * length of its subtree. The lengths always add up to the size of the tree.
+ *
+ * A char added to the text joins the run of the char before it (or of the
+ * first char, at the start), and a deleted char shrinks its run, so edits only
+ * touch one path. setAttribute() cuts the runs at both ends of its range and
+ * drops everything in between, whatever its number of runs. Adjacent runs
+ * with equal values are merged.
+ */
+class AttributeRuns {
+
+	private static final class RunNode {
+		int length;
+		Object value;
+		final int priority;
+		int total; // length of the whole subtree
+		RunNode left, right;
+
+		RunNode(int length, Object value, int priority) {
+			this.length = length;
+			this.value = value;
+			this.priority = priority;
+			this.total = length;
+		}
+	}
+
+	private RunNode root;
+	private long seed = 0x9E3779B97F4A7C15L;
+	// The two halves produced by the last split().
+	private RunNode low, high;
+
+	/**
+	 * @param size the size of the tree, which starts out without attributes
+	 */
+	AttributeRuns(int size) {
+		this.root = size == 0 ? null : this.newRun(size, null);
+	}
+
+	/**
+	 * Grows the run that count chars added at pos join.
+	 */
+	void added(int pos, int count) {
+		if (this.root == null) {
+			this.root = this.newRun(count, null);
+			return;
+		}
+		RunNode n = this.root;
+		int index = pos == 0 ? 0 : pos - 1;
+		while (true) {
+			n.total += count;
+			int left = total(n.left);
+			if (index < left) {
+				n = n.left;
+			} else if (index < left + n.length) {
+				n.length += count;
+				return;
+			} else {
+				index -= left + n.length;
+				n = n.right;
+			}
+		}
+	}
+
+	/**
+	 * Shrinks the run of the char at pos, dropping it if it empties.
+	 */
+	void deleted(int pos) {
+		this.split(this.root, pos);
+		RunNode before = this.low;
+		this.split(this.high, 1);
+		this.root = this.join(before, this.high);
+	}
+
+	void set(int pos, int length, Object value) {
+		this.split(this.root, pos);
+		RunNode before = this.low;
+		this.split(this.high, length);
+		RunNode after = this.high;
+		this.root = this.join(this.join(before, this.newRun(length, value)), after);
+	}
+
+	/**
+	 * Moves the runs of the text from pos to pos + length, exclusive, so that
+	 * they start at to, in the text without them.
+	 */
+	void moved(int pos, int length, int to) {
+		this.split(this.root, pos);
+		RunNode before = this.low;
+		this.split(this.high, length);
+		RunNode block = this.low;
+		RunNode rest = this.join(before, this.high);
+		this.split(rest, to);
+		RunNode after = this.high;
+		this.root = this.join(this.join(this.low, block), after);
+	}
+
+	/**
+	 * Adds a copy of the runs of the text from pos to pos + length, exclusive,
+	 * at to, in O(log r + k) time for k runs copied.
+	 */
+	void duplicated(int pos, int length, int to) {
+		this.split(this.root, pos);
+		RunNode before = this.low;
+		this.split(this.high, length);
+		RunNode copy = copy(this.low);
+		this.root = this.join(this.join(before, this.low), this.high);
+		this.split(this.root, to);
+		RunNode after = this.high;
+		this.root = this.join(this.join(this.low, copy), after);
+	}
+
+	Object get(int pos) {
+		RunNode n = this.root;
+		while (true) {
+			int left = total(n.left);
+			if (pos < left) {
+				n = n.left;
+			} else if (pos < left + n.length) {
+				return n.value;
+			} else {
+				pos -= left + n.length;
+				n = n.right;
+			}
+		}
+	}
+
+	/**
+	 * Adds to runs the parts of the runs within [pos, end).
+	 */
+	void collect(int pos, int end, List<AttributeRun> runs) {
+		collect(this.root, 0, pos, end, runs);
+	}
+
+	private static void collect(RunNode n, int offset, int pos, int end, List<AttributeRun> runs) {
+		if (n == null || offset >= end || offset + n.total <= pos) {
+			return;
+		}
+		collect(n.left, offset, pos, end, runs);
+		int start = offset + total(n.left);
+		int from = Math.max(start, pos);
+		int to = Math.min(start + n.length, end);
+		if (from < to) {
+			runs.add(new AttributeRun(from, to - from, n.value));
+		}
+		collect(n.right, start + n.length, pos, end, runs);
+	}
+
+	private RunNode newRun(int length, Object value) {
+		this.seed ^= this.seed << 13;
+		this.seed ^= this.seed >>> 7;
+		this.seed ^= this.seed << 17;
+		return new RunNode(length, value, (int) this.seed);
+	}
+
+	/**
+	 * Splits t into this.low, its first pos chars, and this.high, the rest,
+	 * cutting the run that straddles pos in two.
+	 */
+	private void split(RunNode t, int pos) {
+		if (t == null) {
+			this.low = this.high = null;
+			return;
+		}
+		int left = total(t.left);
+		if (pos <= left) {
+			this.split(t.left, pos);
+			t.left = this.high;
+			update(t);
+			this.high = t;
+		} else if (pos >= left + t.length) {
+			this.split(t.right, pos - left - t.length);
+			t.right = this.low;
+			update(t);
+			this.low = t;
+		} else {
+			RunNode tail = this.newRun(left + t.length - pos, t.value);
+			this.high = merge(tail, t.right);
+			t.length = pos - left;
+			t.right = null;
+			update(t);
+			this.low = t;
+		}
+	}
+
+	/**
+	 * @return the runs of a followed by those of b, with the last run of a and
+	 *         the first of b made one if their values are equal
+	 */
+	private RunNode join(RunNode a, RunNode b) {
+		if (a == null || b == null) {
+			return a == null ? b : a;
+		}
+		RunNode last = a;
+		while (last.right != null) {
+			last = last.right;
+		}
+		RunNode first = b;
+		while (first.left != null) {
+			first = first.left;
+		}
+		if (Objects.equals(last.value, first.value)) {
+			growLast(a, first.length);
+			b = removeFirst(b);
+		}
+		return merge(a, b);
+	}
+
+	private static void growLast(RunNode t, int length) {
+		for (RunNode n = t; n != null; n = n.right) {
+			n.total += length;
+			if (n.right == null) {
+				n.length += length;
+			}
+		}
+	}
+
+	private static RunNode removeFirst(RunNode t) {
+		if (t.left == null) {
+			return t.right;
+		}
+		t.left = removeFirst(t.left);
+		update(t);
+		return t;
+	}
+
+	private static RunNode copy(RunNode t) {
+		if (t == null) {
+			return null;
+		}
+		RunNode n = new RunNode(t.length, t.value, t.priority);
+		n.left = copy(t.left);
+		n.right = copy(t.right);
+		n.total = t.total;
+		return n;
+	}
+
+	private static RunNode merge(RunNode a, RunNode b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		}
+		b.left = merge(a, b.left);
+		update(b);
+		return b;
+	}
+
+	private static int total(RunNode n) {
+		return n == null ? 0 : n.total;
+	}
+
+	private static void update(RunNode n) {
+		n.total = total(n.left) + n.length + total(n.right);
+	}
+}
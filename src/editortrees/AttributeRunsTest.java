@@ -0,0 +1,112 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AttributeRunsTest {
+
+	@Test
+	public void testSetAndRuns() {
+		EditTree t = new EditTree("hello world");
+		assertNull(t.attributeAt(3));
+		assertEquals(1, t.runs(0, 11).size());
+		t.setAttribute(0, 5, "bold");
+		t.setAttribute(6, 5, "italic");
+		assertEquals("bold", t.attributeAt(4));
+		assertNull(t.attributeAt(5));
+		assertEquals("italic", t.attributeAt(6));
+		List<AttributeRun> runs = t.runs(2, 7);
+		assertEquals(3, runs.size());
+		assertEquals(new AttributeRun(2, 3, "bold"), runs.get(0));
+		assertEquals(new AttributeRun(5, 1, null), runs.get(1));
+		assertEquals(new AttributeRun(6, 3, "italic"), runs.get(2));
+		// Equal neighbors become one run.
+		t.setAttribute(5, 1, "bold");
+		t.setAttribute(6, 5, "bold");
+		assertEquals(1, t.runs(0, 11).size());
+		t.setAttribute(0, 11, null);
+		assertEquals(new AttributeRun(0, 11, null), t.runs(0, 11).get(0));
+	}
+
+	@Test
+	public void testRunsFollowEdits() {
+		EditTree t = new EditTree("abcdef");
+		t.setAttribute(2, 2, "x");
+		// Added chars take the value of the char before them.
+		t.add('1', 4);
+		t.add('2', 2);
+		assertEquals("x", t.attributeAt(5));
+		assertNull(t.attributeAt(2));
+		assertEquals(new AttributeRun(3, 3, "x"), t.runs(0, 8).get(1));
+		t.delete(3);
+		t.delete(3);
+		t.delete(3);
+		// The two null runs around the emptied one merged.
+		assertEquals(1, t.runs(0, 5).size());
+		t.setAttribute(0, 1, "y");
+		t.add('0', 0);
+		assertEquals("y", t.attributeAt(0));
+		t.setText("new");
+		assertNull(t.attributeAt(0));
+	}
+
+	@Test
+	public void testRandomEdits() {
+		Random random = new Random(46);
+		EditTree t = new EditTree();
+		List<Object> model = new ArrayList<Object>();
+		Object[] values = { null, "a", "b", "c" };
+		for (int i = 0; i < 20000; i++) {
+			int op = random.nextInt(10);
+			if (op < 4 || model.isEmpty()) {
+				int pos = random.nextInt(model.size() + 1);
+				t.add('x', pos);
+				model.add(pos, model.isEmpty() ? null : model.get(pos == 0 ? 0 : pos - 1));
+			} else if (op < 7) {
+				int pos = random.nextInt(model.size());
+				t.delete(pos);
+				model.remove(pos);
+			} else {
+				int pos = random.nextInt(model.size() + 1);
+				int length = random.nextInt(model.size() - pos + 1);
+				Object value = values[random.nextInt(values.length)];
+				t.setAttribute(pos, length, value);
+				for (int j = pos; j < pos + length; j++) {
+					model.set(j, value);
+				}
+			}
+			if (i % 100 == 0 && !model.isEmpty()) {
+				int pos = random.nextInt(model.size());
+				assertEquals(model.get(pos), t.attributeAt(pos));
+				checkRuns(model, t, pos, random.nextInt(model.size() - pos + 1));
+			}
+		}
+		checkRuns(model, t, 0, model.size());
+	}
+
+	private static void checkRuns(List<Object> model, EditTree t, int pos, int length) {
+		int at = pos;
+		Object last = null;
+		for (AttributeRun run : t.runs(pos, length)) {
+			assertEquals(at, run.start);
+			assertTrue(run.length > 0);
+			if (at > pos) {
+				// Runs are maximal.
+				assertTrue(last == null ? run.value != null : !last.equals(run.value));
+			}
+			for (int j = run.start; j < run.start + run.length; j++) {
+				assertEquals(model.get(j), run.value);
+			}
+			at += run.length;
+			last = run.value;
+		}
+		assertEquals(pos + length, at);
+	}
+}
@@ -0,0 +1,492 @@
+package editortrees;
+
+import java.util.Arrays;
+
+/**
+ * The AVL rank-tree logic of EditTree, without the payload, shared by
+ * IntEditTree, LongEditTree, ByteEditTree and ObjectEditTree. Nodes are int
+ * handles into parallel arrays (left, right, and rank and balance) rather
+ * than objects, so a subclass only has to keep one more array, indexed by
+ * handle, of whatever it stores. Primitive payloads are never boxed.
+ *
+ * Ranks and balance codes mean what they do in Node, but both live in one int
+ * per node: the rank in the upper 30 bits and the balance code in the lower 2,
+ * which caps a sequence at 2^30 - 1 elements. Handle 0 is NIL, playing the
+ * part of Node.NULL_NODE. Handles of deleted nodes are reused, and a
+ * handle stays with its value for as long as the value is in the sequence:
+ * rotations relink handles, and a delete of a node with two children moves
+ * the successor node into its place instead of copying values.
+ */
+abstract class AvlSequence {
+
+	static final int NIL = 0;
+	static final int SAME = 0;
+	static final int LEFT = 1; // left subtree is taller
+	static final int RIGHT = 2; // right subtree is taller
+
+	static final int MAX_SIZE = (1 << 30) - 1;
+	private static final int BALANCE_BITS = 2;
+	private static final int BALANCE_MASK = (1 << BALANCE_BITS) - 1;
+	private static final int ONE = 1 << BALANCE_BITS; // adds 1 to a rank
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	int[] left;
+	int[] right;
+	int[] rankBalance; // rank << BALANCE_BITS | balance code
+	int root = NIL;
+	private int size;
+	private int rotationCount;
+	private int nextHandle = 1;
+	private int freeList = NIL; // chained through left
+
+	// Results of the recursive helpers, AdjustionInfo style.
+	private boolean heightChanged;
+	private int detached;
+
+	// Stack of the in-order walk started by seek().
+	private final int[] walk = new int[64];
+	private int walkDepth;
+
+	AvlSequence() {
+		this.left = new int[INITIAL_CAPACITY];
+		this.right = new int[INITIAL_CAPACITY];
+		this.rankBalance = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Grows the payload array to hold handles below capacity.
+	 */
+	abstract void growValues(int capacity);
+
+	/**
+	 * @return the number of elements in the sequence
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the total number of rotations done since the sequence was
+	 *         created. A double rotation counts as two.
+	 */
+	public int totalRotationCount() {
+		return this.rotationCount;
+	}
+
+	/**
+	 * @return the height of the tree, computed without balance codes
+	 */
+	public int slowHeight() {
+		return this.slowHeight(this.root);
+	}
+
+	/**
+	 * @return true iff every rank is the size of the left subtree and every
+	 *         balance code matches the heights of the subtrees
+	 */
+	public boolean isConsistent() {
+		return this.checked(this.root) >= 0;
+	}
+
+	/**
+	 * Links a new node in at in-order position pos.
+	 *
+	 * @return its handle, for the caller to store the value under
+	 * @throws IndexOutOfBoundsException if pos is negative or greater than size
+	 */
+	int link(int pos) {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (this.size == MAX_SIZE) {
+			throw new IllegalStateException("Sequence is full");
+		}
+		int x = this.allocate();
+		this.root = this.insert(this.root, pos, x);
+		this.size++;
+		return x;
+	}
+
+	/**
+	 * Unlinks the node at in-order position pos. Its handle is released, but
+	 * its value may still be read until the next link().
+	 *
+	 * @return the handle of the unlinked node
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	int unlink(int pos) {
+		this.check(pos);
+		this.root = this.remove(this.root, pos);
+		int x = this.detached;
+		this.left[x] = this.freeList;
+		this.freeList = x;
+		this.size--;
+		return x;
+	}
+
+	/**
+	 * @return the handle of the node at in-order position pos
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	int locate(int pos) {
+		this.check(pos);
+		int n = this.root;
+		while (pos != this.rank(n)) {
+			if (pos < this.rank(n)) {
+				n = this.left[n];
+			} else {
+				pos -= this.rank(n) + 1;
+				n = this.right[n];
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Checks that the range of length elements starting at pos is in the
+	 * sequence, and starts an in-order walk at pos; each call of next() then
+	 * returns the handle of the next node of the range.
+	 *
+	 * @throws IndexOutOfBoundsException if the range is not in the sequence
+	 */
+	void seek(int pos, int length) {
+		if (pos < 0 || length < 0 || pos + length > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.walkDepth = 0;
+		int n = this.root;
+		while (n != NIL) {
+			if (pos <= this.rank(n)) {
+				this.walk[this.walkDepth++] = n;
+				if (pos == this.rank(n)) {
+					return;
+				}
+				n = this.left[n];
+			} else {
+				pos -= this.rank(n) + 1;
+				n = this.right[n];
+			}
+		}
+	}
+
+	/**
+	 * @return the handle of the next node of the walk started by seek()
+	 */
+	int next() {
+		int n = this.walk[--this.walkDepth];
+		for (int c = this.right[n]; c != NIL; c = this.left[c]) {
+			this.walk[this.walkDepth++] = c;
+		}
+		return n;
+	}
+
+	private void check(int pos) {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	private int allocate() {
+		int x = this.freeList;
+		if (x != NIL) {
+			this.freeList = this.left[x];
+		} else {
+			if (this.nextHandle == this.left.length) {
+				int capacity = this.left.length * 2;
+				this.left = Arrays.copyOf(this.left, capacity);
+				this.right = Arrays.copyOf(this.right, capacity);
+				this.rankBalance = Arrays.copyOf(this.rankBalance, capacity);
+				this.growValues(capacity);
+			}
+			x = this.nextHandle++;
+		}
+		this.left[x] = NIL;
+		this.right[x] = NIL;
+		this.rankBalance[x] = SAME;
+		return x;
+	}
+
+	/**
+	 * Replaces the contents with n new nodes whose handles are 1 to n in
+	 * order, in a tree of the shape EditTree(String) builds. The caller stores
+	 * the value at position i under handle i + 1. O(n).
+	 */
+	void build(int n) {
+		if (n > MAX_SIZE) {
+			throw new IllegalArgumentException("Too many elements: " + n);
+		}
+		int capacity = Math.max(INITIAL_CAPACITY, n + 1);
+		this.left = new int[capacity];
+		this.right = new int[capacity];
+		this.rankBalance = new int[capacity];
+		this.growValues(capacity);
+		this.nextHandle = n + 1;
+		this.freeList = NIL;
+		this.size = n;
+		this.root = this.build(1, n);
+	}
+
+	/**
+	 * Links handles first to first + count - 1 into a tree whose root is the
+	 * middle one, rounding up, like Node.buildFromString().
+	 */
+	private int build(int first, int count) {
+		if (count == 0) {
+			return NIL;
+		}
+		int leftCount = count / 2;
+		int rightCount = count - leftCount - 1;
+		int n = first + leftCount;
+		this.left[n] = this.build(first, leftCount);
+		this.right[n] = this.build(n + 1, rightCount);
+		// Left is never smaller than right, so it can only be taller.
+		int balance = heightOf(leftCount) > heightOf(rightCount) ? LEFT : SAME;
+		this.rankBalance[n] = leftCount << BALANCE_BITS | balance;
+		return n;
+	}
+
+	/**
+	 * @return the height of a complete tree of count nodes
+	 */
+	private static int heightOf(int count) {
+		return 31 - Integer.numberOfLeadingZeros(count);
+	}
+
+	int rank(int n) {
+		return this.rankBalance[n] >>> BALANCE_BITS;
+	}
+
+	int balance(int n) {
+		return this.rankBalance[n] & BALANCE_MASK;
+	}
+
+	private void setBalance(int n, int balance) {
+		this.rankBalance[n] = this.rankBalance[n] & ~BALANCE_MASK | balance;
+	}
+
+	/**
+	 * Inserts node x at position pos of the subtree rooted at n.
+	 *
+	 * @return the new root of the subtree; heightChanged tells whether it grew
+	 */
+	private int insert(int n, int pos, int x) {
+		if (n == NIL) {
+			this.heightChanged = true;
+			return x;
+		}
+		if (pos <= this.rank(n)) {
+			this.rankBalance[n] += ONE;
+			this.left[n] = this.insert(this.left[n], pos, x);
+			if (this.heightChanged) {
+				if (this.balance(n) == RIGHT) {
+					this.setBalance(n, SAME);
+					this.heightChanged = false;
+				} else if (this.balance(n) == SAME) {
+					this.setBalance(n, LEFT);
+				} else {
+					n = this.fixLeft(n);
+					this.heightChanged = false;
+				}
+			}
+		} else {
+			this.right[n] = this.insert(this.right[n], pos - this.rank(n) - 1, x);
+			if (this.heightChanged) {
+				if (this.balance(n) == LEFT) {
+					this.setBalance(n, SAME);
+					this.heightChanged = false;
+				} else if (this.balance(n) == SAME) {
+					this.setBalance(n, RIGHT);
+				} else {
+					n = this.fixRight(n);
+					this.heightChanged = false;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Removes the node at position pos of the subtree rooted at n, leaving its
+	 * handle in detached.
+	 *
+	 * @return the new root of the subtree; heightChanged tells whether it
+	 *         shrank
+	 */
+	private int remove(int n, int pos) {
+		if (pos < this.rank(n)) {
+			this.rankBalance[n] -= ONE;
+			this.left[n] = this.remove(this.left[n], pos);
+			return this.heightChanged ? this.leftShrank(n) : n;
+		}
+		if (pos > this.rank(n)) {
+			this.right[n] = this.remove(this.right[n], pos - this.rank(n) - 1);
+			return this.heightChanged ? this.rightShrank(n) : n;
+		}
+		this.heightChanged = true;
+		if (this.left[n] == NIL) {
+			this.detached = n;
+			return this.right[n];
+		}
+		if (this.right[n] == NIL) {
+			this.detached = n;
+			return this.left[n];
+		}
+		// Move the successor node into n's place.
+		int rest = this.removeFirst(this.right[n]);
+		int s = this.detached;
+		this.left[s] = this.left[n];
+		this.right[s] = rest;
+		this.rankBalance[s] = this.rankBalance[n];
+		this.detached = n;
+		return this.heightChanged ? this.rightShrank(s) : s;
+	}
+
+	/**
+	 * Removes the first node of the subtree rooted at n, leaving its handle in
+	 * detached.
+	 */
+	private int removeFirst(int n) {
+		if (this.left[n] == NIL) {
+			this.detached = n;
+			this.heightChanged = true;
+			return this.right[n];
+		}
+		this.rankBalance[n] -= ONE;
+		this.left[n] = this.removeFirst(this.left[n]);
+		return this.heightChanged ? this.leftShrank(n) : n;
+	}
+
+	private int leftShrank(int n) {
+		if (this.balance(n) == LEFT) {
+			this.setBalance(n, SAME);
+			return n;
+		}
+		if (this.balance(n) == SAME) {
+			this.setBalance(n, RIGHT);
+			this.heightChanged = false;
+			return n;
+		}
+		return this.fixRight(n);
+	}
+
+	private int rightShrank(int n) {
+		if (this.balance(n) == RIGHT) {
+			this.setBalance(n, SAME);
+			return n;
+		}
+		if (this.balance(n) == SAME) {
+			this.setBalance(n, LEFT);
+			this.heightChanged = false;
+			return n;
+		}
+		return this.fixLeft(n);
+	}
+
+	/**
+	 * Rebalances n, whose left subtree is two taller than its right.
+	 * heightChanged is left true iff the subtree ends up shorter than it was
+	 * before the imbalance, which matters only to deletes.
+	 */
+	private int fixLeft(int n) {
+		int l = this.left[n];
+		if (this.balance(l) == RIGHT) {
+			int lr = this.right[l];
+			this.left[n] = this.rotateLeft(l);
+			int top = this.rotateRight(n);
+			this.setBalance(n, this.balance(lr) == LEFT ? RIGHT : SAME);
+			this.setBalance(l, this.balance(lr) == RIGHT ? LEFT : SAME);
+			this.setBalance(lr, SAME);
+			this.heightChanged = true;
+			return top;
+		}
+		int top = this.rotateRight(n);
+		if (this.balance(l) == LEFT) {
+			this.setBalance(n, SAME);
+			this.setBalance(l, SAME);
+			this.heightChanged = true;
+		} else {
+			this.setBalance(n, LEFT);
+			this.setBalance(l, RIGHT);
+			this.heightChanged = false;
+		}
+		return top;
+	}
+
+	/**
+	 * Mirror image of fixLeft().
+	 */
+	private int fixRight(int n) {
+		int r = this.right[n];
+		if (this.balance(r) == LEFT) {
+			int rl = this.left[r];
+			this.right[n] = this.rotateRight(r);
+			int top = this.rotateLeft(n);
+			this.setBalance(n, this.balance(rl) == RIGHT ? LEFT : SAME);
+			this.setBalance(r, this.balance(rl) == LEFT ? RIGHT : SAME);
+			this.setBalance(rl, SAME);
+			this.heightChanged = true;
+			return top;
+		}
+		int top = this.rotateLeft(n);
+		if (this.balance(r) == RIGHT) {
+			this.setBalance(n, SAME);
+			this.setBalance(r, SAME);
+			this.heightChanged = true;
+		} else {
+			this.setBalance(n, RIGHT);
+			this.setBalance(r, LEFT);
+			this.heightChanged = false;
+		}
+		return top;
+	}
+
+	private int rotateLeft(int n) {
+		int r = this.right[n];
+		this.right[n] = this.left[r];
+		this.left[r] = n;
+		this.rankBalance[r] += (this.rank(n) + 1) << BALANCE_BITS;
+		this.rotationCount++;
+		return r;
+	}
+
+	private int rotateRight(int n) {
+		int l = this.left[n];
+		this.left[n] = this.right[l];
+		this.right[l] = n;
+		this.rankBalance[n] -= (this.rank(l) + 1) << BALANCE_BITS;
+		this.rotationCount++;
+		return l;
+	}
+
+	private int slowHeight(int n) {
+		if (n == NIL) {
+			return -1;
+		}
+		return Math.max(this.slowHeight(this.left[n]), this.slowHeight(this.right[n])) + 1;
+	}
+
+	/**
+	 * @return the size of the subtree rooted at n in the high half and its
+	 *         height + 1 in the low half, or -1 if a rank or balance code in
+	 *         it is wrong
+	 */
+	private long checked(int n) {
+		if (n == NIL) {
+			return 0;
+		}
+		long l = this.checked(this.left[n]);
+		long r = this.checked(this.right[n]);
+		if (l < 0 || r < 0 || this.rank(n) != (int) (l >>> 32)) {
+			return -1;
+		}
+		int lh = (int) l;
+		int rh = (int) r;
+		int expected = lh == rh ? SAME : lh == rh + 1 ? LEFT : rh == lh + 1 ? RIGHT : -1;
+		if (this.balance(n) != expected) {
+			return -1;
+		}
+		long size = (l >>> 32) + (r >>> 32) + 1;
+		return size << 32 | Math.max(lh, rh) + 1;
+	}
+}
@@ -0,0 +1,139 @@
+package editortrees;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for AvlSequence through its int, long, byte and object variants.
+ */
+public class AvlSequenceTest {
+
+	@Test
+	public void testIntEditTreeMatchesList() {
+		Random random = new Random(35);
+		IntEditTree t = new IntEditTree();
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 30000; i++) {
+			if (!expected.isEmpty() && random.nextInt(5) < 2) {
+				int pos = random.nextInt(expected.size());
+				assertEquals((int) expected.remove(pos), t.delete(pos));
+			} else {
+				int pos = random.nextInt(expected.size() + 1);
+				t.add(i, pos);
+				expected.add(pos, i);
+			}
+			if (i % 3000 == 0) {
+				assertTrue(t.isConsistent());
+			}
+		}
+		assertTrue(t.isConsistent());
+		assertEquals(expected.size(), t.size());
+		int[] all = t.toArray();
+		for (int i = 0; i < all.length; i++) {
+			assertEquals((int) expected.get(i), all[i]);
+			assertEquals(all[i], t.get(i));
+		}
+		assertArrayEquals(Arrays.copyOfRange(all, 100, 250), t.get(100, 150));
+		assertEquals(all[7], t.set(7, -1));
+		assertEquals(-1, t.get(7));
+		assertTrue(t.slowHeight() <= 1.44 * Math.log(t.size() + 2) / Math.log(2));
+		assertTrue(t.totalRotationCount() > 0);
+	}
+
+	@Test
+	public void testLongAndByteVariants() {
+		LongEditTree longs = new LongEditTree();
+		ByteEditTree bytes = new ByteEditTree();
+		for (int i = 0; i < 1000; i++) {
+			longs.add((long) i << 40, i / 2);
+			bytes.add((byte) i, i / 2);
+		}
+		assertTrue(longs.isConsistent());
+		assertTrue(bytes.isConsistent());
+		// Adding i at i / 2 gives 1, 3, 5, ..., 999, 998, ..., 2, 0.
+		assertEquals((long) 3 << 40, longs.get(1));
+		assertEquals((byte) 3, bytes.get(1));
+		assertEquals((long) 998 << 40, longs.get(500));
+		assertEquals((long) 1 << 40, longs.delete(0));
+		assertEquals((byte) 1, bytes.delete(0));
+		assertEquals((byte) 0, bytes.get(998));
+		assertEquals(999, longs.size());
+		assertEquals(999, bytes.toArray().length);
+		ByteEditTree small = new ByteEditTree();
+		small.add((byte) 3);
+		small.add((byte) 1, 0);
+		assertEquals("[1, 3]", small.toString());
+	}
+
+	@Test
+	public void testObjectEditTreeReusesHandles() {
+		ObjectEditTree<String> t = new ObjectEditTree<String>();
+		for (int i = 0; i < 100; i++) {
+			t.add("s" + i);
+		}
+		// Deleting nodes with two children moves nodes, not values.
+		for (int i = 0; i < 50; i++) {
+			assertEquals("s" + (2 * i), t.delete(i));
+		}
+		for (int i = 0; i < 50; i++) {
+			t.add("t" + i, 0);
+		}
+		assertTrue(t.isConsistent());
+		assertEquals(100, t.size());
+		assertEquals("t49", t.get(0));
+		assertEquals("s1", t.get(50));
+		assertEquals(Arrays.asList("s97", "s99"), t.get(98, 2));
+		assertEquals(100, t.toList().size());
+	}
+
+	@Test
+	public void testCompactEditTreeHasEditTreeShapes() {
+		StringBuilder sb = new StringBuilder();
+		for (int n = 1; n < 300; n++) {
+			sb.append((char) ('a' + n % 26));
+			String s = sb.toString();
+			CompactEditTree compact = new CompactEditTree(s);
+			EditTree t = new EditTree(s);
+			assertEquals(t.toDebugString(), compact.toDebugString());
+			assertTrue(compact.isConsistent());
+		}
+
+		Random random = new Random(36);
+		CompactEditTree compact = new CompactEditTree();
+		EditTree t = new EditTree();
+		assertEquals(t.toDebugString(), compact.toDebugString());
+		for (int i = 0; i < 5000; i++) {
+			if (t.size() > 0 && random.nextInt(5) < 2) {
+				int pos = random.nextInt(t.size());
+				assertEquals(t.delete(pos), compact.delete(pos));
+			} else {
+				int pos = random.nextInt(t.size() + 1);
+				char ch = (char) ('a' + random.nextInt(26));
+				t.add(ch, pos);
+				compact.add(ch, pos);
+			}
+			if (i % 50 == 0) {
+				assertEquals(t.toDebugString(), compact.toDebugString());
+			}
+		}
+		assertEquals(t.toRankString(), compact.toRankString());
+		assertEquals(t.toString(), compact.toString());
+		assertEquals(t.get(10, 30), compact.get(10, 30));
+		assertEquals(t.totalRotationCount(), compact.totalRotationCount());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testBadRangeThrows() {
+		IntEditTree t = new IntEditTree();
+		t.add(1);
+		t.get(0, 2);
+	}
+}
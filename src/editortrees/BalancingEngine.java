@@ -0,0 +1,78 @@
+package editortrees;
+
+/**
+ * The balancing schemes available for a rank tree of chars. AVL is EditTree
+ * itself; the others trade balance for fewer rotations in different ways:
+ * red-black trees do at most two rotations per add and three per delete, WAVL
+ * trees behave like AVL trees under adds but do at most two rotations per
+ * delete, and treaps rely on random priorities instead of balance
+ * information. Splay trees keep no balance at all and instead move every node
+ * they access to the root, which suits edits clustered around a few cursors.
+ * ROPE is not a binary tree at all but a B+ tree over runs of chars, which is
+ * far shallower and friendlier to the cache.
+ */
+public enum BalancingEngine {
+	AVL {
+		@Override
+		public RankTree newTree() {
+			return new EditTree();
+		}
+
+		@Override
+		public RankTree newTree(String s) {
+			return new EditTree(s);
+		}
+	},
+	RED_BLACK {
+		@Override
+		public RankTree newTree() {
+			return new RedBlackEditTree();
+		}
+	},
+	WAVL {
+		@Override
+		public RankTree newTree() {
+			return new WavlEditTree();
+		}
+	},
+	TREAP {
+		@Override
+		public RankTree newTree() {
+			return new TreapEditTree();
+		}
+	},
+	SPLAY {
+		@Override
+		public RankTree newTree() {
+			return new SplayEditTree();
+		}
+	},
+	ROPE {
+		@Override
+		public RankTree newTree() {
+			return new RopeEditTree();
+		}
+
+		@Override
+		public RankTree newTree(String s) {
+			return new RopeEditTree(s);
+		}
+	};
+
+	/**
+	 * @return a new, empty tree balanced by this engine
+	 */
+	public abstract RankTree newTree();
+
+	/**
+	 * @param s the contents of the new tree
+	 * @return a new tree balanced by this engine whose toString() is s
+	 */
+	public RankTree newTree(String s) {
+		RankTree tree = this.newTree();
+		for (int i = 0; i < s.length(); i++) {
+			tree.add(s.charAt(i));
+		}
+		return tree;
+	}
+}
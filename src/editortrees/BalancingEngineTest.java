@@ -0,0 +1,189 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the balancing engines behind RankTree.
+ */
+public class BalancingEngineTest {
+
+	@Test
+	public void testEnginesMatchStringBuilder() {
+		for (BalancingEngine engine : BalancingEngine.values()) {
+			Random random = new Random(32);
+			RankTree t = engine.newTree();
+			StringBuilder expected = new StringBuilder();
+			for (int i = 0; i < 20000; i++) {
+				if (expected.length() > 0 && random.nextInt(5) < 2) {
+					int pos = random.nextInt(expected.length());
+					assertEquals(expected.charAt(pos), t.delete(pos));
+					expected.deleteCharAt(pos);
+				} else {
+					int pos = random.nextInt(expected.length() + 1);
+					char ch = (char) ('a' + random.nextInt(26));
+					t.add(ch, pos);
+					expected.insert(pos, ch);
+				}
+				if (i % 1000 == 0) {
+					assertEquals(engine.name(), expected.toString(), t.toString());
+					assertTrue(engine.name(), isValid(t));
+				}
+			}
+			assertEquals(expected.length(), t.size());
+			assertEquals(expected.toString(), t.toString());
+			assertEquals(expected.substring(100, 300), t.get(100, 200));
+			assertEquals(expected.charAt(17), t.get(17));
+			assertTrue(engine.name(), isValid(t));
+			while (t.size() > 0) {
+				assertEquals(expected.charAt(0), t.delete(0));
+				expected.deleteCharAt(0);
+			}
+			assertTrue(engine.name(), isValid(t));
+		}
+	}
+
+	@Test
+	public void testHeightsStayLogarithmic() {
+		int n = 1 << 16;
+		for (BalancingEngine engine : BalancingEngine.values()) {
+			if (engine == BalancingEngine.SPLAY) {
+				continue;
+			}
+			RankTree t = engine.newTree();
+			for (int i = 0; i < n; i++) {
+				t.add((char) i);
+			}
+			for (int i = 0; i < n / 2; i++) {
+				t.delete(i);
+			}
+			// 2 log n bounds AVL, red-black and WAVL trees. A treap is as high
+			// as a random binary search tree, about 4.3 ln n, and over 3 log n
+			// with negligible probability.
+			int bound = engine == BalancingEngine.TREAP ? 3 * 16 : 2 * 16;
+			assertTrue(engine.name() + " " + t.slowHeight(), t.slowHeight() <= bound);
+		}
+	}
+
+	@Test
+	public void testRotationsPerEdit() {
+		Random random = new Random(33);
+		RedBlackEditTree rb = new RedBlackEditTree();
+		WavlEditTree wavl = new WavlEditTree();
+		for (int i = 0; i < 10000; i++) {
+			int pos = random.nextInt(rb.size() + 1);
+			int before = rb.totalRotationCount();
+			rb.add('x', pos);
+			assertTrue(rb.totalRotationCount() - before <= 2);
+			wavl.add('x', pos);
+		}
+		for (int i = 0; i < 5000; i++) {
+			int pos = random.nextInt(rb.size());
+			int before = rb.totalRotationCount();
+			rb.delete(pos);
+			assertTrue(rb.totalRotationCount() - before <= 3);
+			before = wavl.totalRotationCount();
+			wavl.delete(pos);
+			assertTrue(wavl.totalRotationCount() - before <= 2);
+		}
+		assertTrue(rb.totalRotationCount() > 0);
+		assertTrue(wavl.totalRotationCount() > 0);
+	}
+
+	@Test
+	public void testSplayMovesAccessedNodeToRoot() {
+		SplayEditTree t = new SplayEditTree();
+		int n = 100000;
+		for (int i = 0; i < n; i++) {
+			t.add((char) i);
+		}
+		// Appending leaves a path; the first access deep down halves it.
+		assertEquals(n - 1, t.root.left.size);
+		assertEquals((char) 0, t.get(0));
+		assertTrue(t.slowHeight() < n / 2 + 2);
+		assertEquals((char) 0, t.root.data);
+
+		// Repeated work at one cursor costs no rotations after the first.
+		t.get(n / 2);
+		int before = t.totalRotationCount();
+		for (int i = 0; i < 100; i++) {
+			assertEquals((char) (n / 2), t.get(n / 2));
+		}
+		assertEquals(before, t.totalRotationCount());
+		t.add('x', n / 2);
+		t.delete(n / 2);
+		assertTrue(t.totalRotationCount() - before <= 4);
+		assertEquals(n, t.size());
+		assertTrue(t.sizesAreCorrect());
+		assertEquals(String.valueOf((char) 7) + (char) 8, t.get(7, 2));
+		assertEquals((char) 7, t.root.data);
+	}
+
+	@Test
+	public void testNewTreeFromString() {
+		for (BalancingEngine engine : BalancingEngine.values()) {
+			RankTree t = engine.newTree("abcdefghijklmnop");
+			assertEquals("abcdefghijklmnop", t.toString());
+			assertEquals('c', t.get(2));
+			assertEquals("", t.get(16, 0));
+		}
+		assertTrue(BalancingEngine.AVL.newTree() instanceof EditTree);
+	}
+
+	@Test
+	public void testBadPositionsThrow() {
+		for (BalancingEngine engine : BalancingEngine.values()) {
+			RankTree t = engine.newTree("abc");
+			int thrown = 0;
+			try {
+				t.add('x', 4);
+			} catch (IndexOutOfBoundsException e) {
+				thrown++;
+			}
+			try {
+				t.delete(3);
+			} catch (IndexOutOfBoundsException e) {
+				thrown++;
+			}
+			try {
+				t.get(-1);
+			} catch (IndexOutOfBoundsException e) {
+				thrown++;
+			}
+			try {
+				t.get(2, 2);
+			} catch (IndexOutOfBoundsException e) {
+				thrown++;
+			}
+			assertEquals(engine.name(), 4, thrown);
+			assertEquals("abc", t.toString());
+		}
+	}
+
+	private static boolean isValid(RankTree t) {
+		if (t instanceof EditTree) {
+			EditTree avl = (EditTree) t;
+			return avl.ranksMatchLeftSubtreeSize() && avl.balanceCodesAreCorrect();
+		}
+		if (t instanceof RopeEditTree) {
+			return ((RopeEditTree) t).structureIsCorrect();
+		}
+		if (!((AbstractRankTree) t).sizesAreCorrect()) {
+			return false;
+		}
+		if (t instanceof RedBlackEditTree) {
+			return ((RedBlackEditTree) t).colorsAreCorrect();
+		}
+		if (t instanceof WavlEditTree) {
+			return ((WavlEditTree) t).ranksAreCorrect();
+		}
+		if (t instanceof TreapEditTree) {
+			return ((TreapEditTree) t).prioritiesAreHeapOrdered();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,139 @@
+package editortrees;
+
+/**
+ * Bracket matching for EditTree.matchingBracket() and depthAt(). Each node
+ * caches, in Node.Summary.brackets, two numbers per bracket family (), [] and
+ * {} for the text of its subtree: the net depth (opening minus closing
+ * brackets) and the minimum depth over its prefixes, counting the empty
+ * prefix. The maximum depth over its suffixes is then the net depth minus
+ * that minimum. A last slot is 1 while the data is current; Node.changed()
+ * sets it to 0, and Node.brackets() recomputes it from the children's data.
+ *
+ * Matching walks the text forwards from an opening bracket (or backwards
+ * from a closing one) to the first place where the depth of its family drops
+ * by one. Whole subtrees whose minimum prefix (or maximum suffix) shows the
+ * depth cannot get there are skipped, so a match takes O(log n) time. Each
+ * family is matched on its own, and brackets inside strings or comments
+ * count like any other.
+ */
+class BracketIndex {
+
+	static final String BRACKETS = "()[]{}";
+	static final int FAMILIES = BRACKETS.length() / 2;
+	static final int VALID = 2 * FAMILIES;
+	static final int[] EMPTY = new int[VALID + 1];
+
+	static {
+		EMPTY[VALID] = 1;
+	}
+
+	private int depth; // depth change over the text walked so far
+
+	/**
+	 * @return the family of c, or -1 if c is not a bracket
+	 */
+	static int family(char c) {
+		int i = BRACKETS.indexOf(c);
+		return i < 0 ? -1 : i / 2;
+	}
+
+	/**
+	 * @return 1 if c opens a bracket of family f, -1 if it closes one, else 0
+	 */
+	static int delta(char c, int f) {
+		if (c == BRACKETS.charAt(2 * f)) {
+			return 1;
+		}
+		return c == BRACKETS.charAt(2 * f + 1) ? -1 : 0;
+	}
+
+	/**
+	 * Computes into b the data of a subtree with left and right children whose
+	 * data are left and right, and c at its root.
+	 */
+	static void combine(int[] left, char c, int[] right, int[] b) {
+		for (int f = 0; f < FAMILIES; f++) {
+			int net = left[2 * f];
+			int min = left[2 * f + 1];
+			net += delta(c, f);
+			min = Math.min(min, net);
+			min = Math.min(min, net + right[2 * f + 1]);
+			b[2 * f] = net + right[2 * f];
+			b[2 * f + 1] = min;
+		}
+		b[VALID] = 1;
+	}
+
+	/**
+	 * @return the position of the bracket matching the one at pos in the tree
+	 *         rooted at root, or -1 if it has none
+	 */
+	static int match(Node root, int size, int pos, char c) {
+		int f = family(c);
+		BracketIndex search = new BracketIndex();
+		if (delta(c, f) > 0) {
+			return search.forward(root, 0, size, pos + 1, f);
+		}
+		return search.backward(root, 0, size, pos, f);
+	}
+
+	/**
+	 * Finds the first position at or after start in the subtree n, which
+	 * holds positions [offset, offset + size), where the depth of family f
+	 * counted from start reaches -1.
+	 */
+	private int forward(Node n, int offset, int size, int start, int f) {
+		if (n == Node.NULL_NODE || offset + size <= start) {
+			return -1;
+		}
+		if (start <= offset) {
+			int[] b = n.brackets();
+			if (this.depth + b[2 * f + 1] > -1) {
+				this.depth += b[2 * f];
+				return -1;
+			}
+		}
+		int found = this.forward(n.left, offset, n.rank, start, f);
+		if (found >= 0) {
+			return found;
+		}
+		int pos = offset + n.rank;
+		if (pos >= start) {
+			this.depth += delta(n.data, f);
+			if (this.depth == -1) {
+				return pos;
+			}
+		}
+		return this.forward(n.right, pos + 1, size - n.rank - 1, start, f);
+	}
+
+	/**
+	 * Finds the last position before end in the subtree n, which holds
+	 * positions [offset, offset + size), where the depth of family f counted
+	 * backwards from end reaches 1.
+	 */
+	private int backward(Node n, int offset, int size, int end, int f) {
+		if (n == Node.NULL_NODE || offset >= end) {
+			return -1;
+		}
+		if (offset + size <= end) {
+			int[] b = n.brackets();
+			if (this.depth + b[2 * f] - b[2 * f + 1] < 1) {
+				this.depth += b[2 * f];
+				return -1;
+			}
+		}
+		int pos = offset + n.rank;
+		int found = this.backward(n.right, pos + 1, size - n.rank - 1, end, f);
+		if (found >= 0) {
+			return found;
+		}
+		if (pos < end) {
+			this.depth += delta(n.data, f);
+			if (this.depth == 1) {
+				return pos;
+			}
+		}
+		return this.backward(n.left, offset, n.rank, end, f);
+	}
+}
@@ -0,0 +1,106 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Stack;
+
+import org.junit.Test;
+
+public class BracketIndexTest {
+
+	/**
+	 * Matches brackets with one stack per kind, the slow way.
+	 */
+	private static int[] matches(String text) {
+		int[] match = new int[text.length()];
+		Arrays.fill(match, -1);
+		for (int f = 0; f < BracketIndex.FAMILIES; f++) {
+			Stack<Integer> open = new Stack<Integer>();
+			for (int i = 0; i < text.length(); i++) {
+				int delta = BracketIndex.delta(text.charAt(i), f);
+				if (delta > 0) {
+					open.push(i);
+				} else if (delta < 0 && !open.isEmpty()) {
+					int j = open.pop();
+					match[i] = j;
+					match[j] = i;
+				}
+			}
+		}
+		return match;
+	}
+
+	private static void check(EditTree t, String text) {
+		int[] match = matches(text);
+		int depth = 0;
+		for (int i = 0; i < text.length(); i++) {
+			assertEquals("depth at " + i + " of " + text, depth, t.depthAt(i));
+			assertEquals("match of " + i + " in " + text, match[i], t.matchingBracket(i));
+			depth += "([{".indexOf(text.charAt(i)) >= 0 ? 1 : ")]}".indexOf(text.charAt(i)) >= 0 ? -1 : 0;
+		}
+		assertEquals(depth, t.depthAt(text.length()));
+	}
+
+	@Test
+	public void testSmallTexts() {
+		String text = "{\"a\": [1, (2)], \"b\": {}}";
+		check(new EditTree(text), text);
+		check(new EditTree("(()"), "(()");
+		check(new EditTree("())"), "())");
+		check(new EditTree(")("), ")(");
+		check(new EditTree("([)]"), "([)]");
+		assertEquals(-1, new EditTree("(x)").matchingBracket(1));
+	}
+
+	@Test
+	public void testBracketsFollowEdits() {
+		String alphabet = "()[]{}ab";
+		Random random = new Random(44);
+		EditTree t = new EditTree();
+		StringBuilder model = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			if (model.length() > 0 && random.nextInt(3) == 0) {
+				int pos = random.nextInt(model.length());
+				model.deleteCharAt(pos);
+				t.delete(pos);
+			} else {
+				int pos = random.nextInt(model.length() + 1);
+				char c = alphabet.charAt(random.nextInt(alphabet.length()));
+				model.insert(pos, c);
+				t.add(c, pos);
+			}
+			if (i % 250 == 0) {
+				check(t, model.toString());
+			}
+		}
+		check(t, model.toString());
+		EditTree copy = new EditTree(t);
+		copy.add('(', 0);
+		check(t, model.toString());
+		check(copy, "(" + model);
+	}
+
+	@Test
+	public void testDeepNesting() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			sb.append(i % 2 == 0 ? '[' : '{');
+		}
+		for (int i = 49999; i >= 0; i--) {
+			sb.append(i % 2 == 0 ? ']' : '}');
+		}
+		EditTree t = new EditTree(sb.toString());
+		assertEquals(99999, t.matchingBracket(0));
+		assertEquals(50000, t.matchingBracket(49999));
+		assertEquals(1, t.matchingBracket(99998));
+		assertEquals(50000, t.depthAt(50000));
+		// Each kind is matched on its own, so the { skips the ] after it.
+		t.delete(50000);
+		assertEquals(50001, t.matchingBracket(49999));
+		assertEquals(99998, t.matchingBracket(0));
+		assertEquals(-1, t.matchingBracket(1));
+		assertEquals(2, t.depthAt(99998));
+	}
+}
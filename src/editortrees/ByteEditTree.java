@@ -0,0 +1,101 @@
+package editortrees;
+
+import java.util.Arrays;
+
+/**
+ * A sequence of byte values with the O(log n) positional adds, deletes and
+ * lookups of EditTree, sharing its AVL logic through AvlSequence. Values are
+ * kept in a byte[] indexed by node handle, so they are never boxed.
+ */
+public class ByteEditTree extends AvlSequence {
+
+	private byte[] values;
+
+	/**
+	 * Constructs an empty sequence.
+	 */
+	public ByteEditTree() {
+		this.values = new byte[this.left.length];
+	}
+
+	@Override
+	void growValues(int capacity) {
+		this.values = Arrays.copyOf(this.values, capacity);
+	}
+
+	/**
+	 * @param value value to add to the end of the sequence
+	 */
+	public void add(byte value) {
+		this.add(value, this.size());
+	}
+
+	/**
+	 * @param value value to add
+	 * @param pos   position to add it at, from 0 to size() inclusive
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public void add(byte value, int pos) throws IndexOutOfBoundsException {
+		int n = this.link(pos); // may grow values, so look the array up after
+		this.values[n] = value;
+	}
+
+	/**
+	 * @param pos position of the value to delete
+	 * @return the deleted value
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public byte delete(int pos) throws IndexOutOfBoundsException {
+		return this.values[this.unlink(pos)];
+	}
+
+	/**
+	 * @param pos position in the sequence
+	 * @return the value at that position
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public byte get(int pos) throws IndexOutOfBoundsException {
+		return this.values[this.locate(pos)];
+	}
+
+	/**
+	 * @param pos   position of the value to replace
+	 * @param value its new value
+	 * @return the value that was there
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public byte set(int pos, byte value) throws IndexOutOfBoundsException {
+		int n = this.locate(pos);
+		byte old = this.values[n];
+		this.values[n] = value;
+		return old;
+	}
+
+	/**
+	 * @param pos    position of the first value to return
+	 * @param length number of values to return
+	 * @return the length values starting at pos
+	 * @throws IndexOutOfBoundsException unless the whole range is in the
+	 *                                   sequence
+	 */
+	public byte[] get(int pos, int length) throws IndexOutOfBoundsException {
+		this.seek(pos, length);
+		byte[] range = new byte[length];
+		for (int i = 0; i < length; i++) {
+			range[i] = this.values[this.next()];
+		}
+		return range;
+	}
+
+	/**
+	 * @return all the values, in order
+	 */
+	public byte[] toArray() {
+		return this.get(0, this.size());
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(this.toArray());
+	}
+}
@@ -0,0 +1,24 @@
+package editortrees;
+
+/**
+ * A change of case that EditTree.mapRange() applies to a range of text.
+ *
+ * Each map goes through the other case first, so that for every char c,
+ * UPPER.apply(LOWER.apply(c)) == UPPER.apply(c) and likewise the other way
+ * around: mapping a range twice leaves the same text as the second map alone.
+ * That is what lets a tree keep just the last map of a subtree pending.
+ */
+public enum CaseMap {
+	UPPER, LOWER;
+
+	/**
+	 * @param c a char
+	 * @return c in this case
+	 */
+	public char apply(char c) {
+		if (this == UPPER) {
+			return Character.toUpperCase(Character.toLowerCase(c));
+		}
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+}
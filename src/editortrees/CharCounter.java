@@ -0,0 +1,49 @@
+package editortrees;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The characters an EditTree counts occurrences of (see
+ * EditTree.trackCharacters()). Each node caches, in Node.Summary.counts, how
+ * often every tracked character occurs in its subtree, followed by the id of the
+ * counter the counts are for. The id goes to 0 whenever the subtree changes
+ * (see Node.changed()), so stale counts are recomputed on demand, from the
+ * children's counts.
+ *
+ * A tree and its copies share a counter and so the counts in their shared
+ * nodes. A tree given another counter overwrites the shared nodes' counts,
+ * and a tree with the first counter then finds them stale; the counts are
+ * only ever a cache of the subtree's text.
+ */
+class CharCounter {
+
+	private static final AtomicInteger IDS = new AtomicInteger();
+
+	final char[] chars; // sorted, no duplicates
+	final int id;
+	final int[] zeros; // the counts of an empty subtree
+
+	CharCounter(String chars) {
+		char[] sorted = chars.toCharArray();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		this.chars = Arrays.copyOf(sorted, distinct);
+		this.id = IDS.incrementAndGet();
+		this.zeros = new int[distinct + 1];
+		this.zeros[distinct] = this.id;
+	}
+
+	/**
+	 * @return the index of c in the counts, or a negative number if c is not
+	 *         tracked
+	 */
+	int indexOf(char c) {
+		return Arrays.binarySearch(this.chars, c);
+	}
+}
@@ -0,0 +1,94 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CharCounterTest {
+
+	private static final String TRACKED = "\n\t\"x";
+
+	private static void check(EditTree t, String text) {
+		for (char c : TRACKED.toCharArray()) {
+			int count = 0;
+			for (int pos = 0; pos <= text.length(); pos++) {
+				assertEquals(count, t.countBefore(c, pos));
+				if (pos < text.length() && text.charAt(pos) == c) {
+					assertEquals(pos, t.select(c, count));
+					count++;
+				}
+			}
+			assertEquals(-1, t.select(c, count));
+		}
+	}
+
+	@Test
+	public void testCountsFollowEdits() {
+		String alphabet = "ab\n\t\"x";
+		Random random = new Random(43);
+		EditTree t = new EditTree();
+		t.trackCharacters(TRACKED);
+		StringBuilder model = new StringBuilder();
+		EditTree copy = null;
+		String copied = null;
+		for (int i = 0; i < 3000; i++) {
+			if (model.length() > 0 && random.nextInt(3) == 0) {
+				int pos = random.nextInt(model.length());
+				model.deleteCharAt(pos);
+				t.delete(pos);
+			} else {
+				int pos = random.nextInt(model.length() + 1);
+				char c = alphabet.charAt(random.nextInt(alphabet.length()));
+				model.insert(pos, c);
+				t.add(c, pos);
+			}
+			if (i % 500 == 0) {
+				check(t, model.toString());
+			}
+			if (i == 1500) {
+				copy = new EditTree(t);
+				copied = model.toString();
+			}
+		}
+		check(t, model.toString());
+		check(copy, copied);
+	}
+
+	@Test
+	public void testBuiltTreesAndSetText() {
+		String text = "line one\n\tline \"two\"\nline x\n";
+		EditTree t = new EditTree(text);
+		t.trackCharacters("\nx\t\"");
+		check(t, text);
+		assertEquals(3, t.countBefore('\n', t.size()));
+		assertEquals(8, t.select('\n', 0));
+		t.setText("x\nx");
+		check(t, "x\nx");
+	}
+
+	@Test
+	public void testCopiesTrackingOtherChars() {
+		EditTree t = new EditTree("a\nb\nc\n");
+		t.trackCharacters("\n");
+		EditTree copy = new EditTree(t);
+		copy.trackCharacters("ab");
+		assertEquals(2, t.countBefore('\n', 4));
+		assertEquals(1, copy.countBefore('b', 4));
+		assertEquals(3, t.countBefore('\n', 6));
+		assertEquals(2, copy.select('b', 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUntrackedChar() {
+		EditTree t = new EditTree("abc");
+		t.trackCharacters("\n");
+		t.countBefore('a', 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNothingTracked() {
+		new EditTree("abc").select('a', 0);
+	}
+}
@@ -0,0 +1,763 @@
+package editortrees;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A log-structured sidecar store used by EditTree.saveIncremental(). The text
+ * is kept as chunks appended to a data file, plus an index listing, in order,
+ * the chunks and loose characters that make up the document.
+ *
+ * A chunk holds the text of one subtree of at most CHUNK_SIZE characters, and
+ * the subtree's root remembers where the chunk is in Node.Summary.chunk: a Chunk
+ * holding the offset and the data file it is in. Each data file a store
+ * opens gets a new identity, so a Chunk is only ever trusted by the store
+ * that wrote it, and only while it writes to the same file. Any change to a
+ * subtree clears that on every node whose subtree changed (the nodes on
+ * the path of an add or delete, and the nodes moved by a rotation), so a save
+ * only writes the chunks of changed subtrees and reuses the rest. Nodes above
+ * the chunk level are written into the index as loose characters.
+ *
+ * Nodes shared with copies of the tree are recorded like any other: a shared
+ * node never changes, so its chunk stays right for the store that wrote it,
+ * whichever tree saves it. Trees sharing a subtree may save it to different
+ * stores, so a node keeps a short list of Chunks, one per data file, and a
+ * store finds its own in it.
+ *
+ * Chunks that are no longer referenced stay in the data file as garbage. Once
+ * the garbage outgrows the live data, a save hands the list of live chunks to
+ * a background thread, which copies them into a fresh data file and notes
+ * where each one went. The save after the copy is done switches to the fresh
+ * file: it moves the saved offsets over to their copies and writes the chunks
+ * that changed since into the fresh file. The index names its data file by
+ * generation number, and the old file is deleted only after the new index is
+ * in place; if writing the index fails, the fresh file is deleted instead.
+ * A full save, which writes every chunk anyway, also starts a fresh file.
+ *
+ * Each index entry also records its depth in the tree, and each chunk the
+ * height of its subtree, so load() rebuilds the loose nodes in the shape they
+ * were saved in, over chunk subtrees of the same heights that carry their
+ * Chunks. A save after a
+ * load then appends only the chunks changed since to the same data file.
+ *
+ * Every save rewrites the whole index: one entry per chunk and per loose
+ * character, about 2n / CHUNK_SIZE entries of at most 15 bytes for n
+ * characters. That part of a save is O(n / CHUNK_SIZE) rather than
+ * proportional to the edits, which keeps the index a single file that is
+ * replaced atomically.
+ *
+ * The store keeps its data file open between saves; close() releases it.
+ */
+class ChunkStore implements Closeable {
+
+	static final int MAGIC = 0x45444348; // "EDCH"
+	static final int CHUNK_SIZE = 4096;
+
+	private static final byte CHUNK = 1;
+	// An AVL subtree of at most CHUNK_SIZE nodes is no taller than this.
+	private static final int MAX_CHUNK_HEIGHT = 18;
+	private static final byte CHAR = 2;
+	private static final int BUFFER_SIZE = 1 << 16;
+	// Compact when the data file is this many times larger than the live data.
+	private static final int COMPACT_RATIO = 2;
+
+	// Copies the live chunks of every store that is due for a compaction.
+	private static ExecutorService compactor;
+
+	private final Path index;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+	private final DataOutputStream entries = new DataOutputStream(this.entryBytes);
+	private FileChannel data;
+	private long generation;
+	private long dataLength;
+	private long liveBytes;
+	private int entryCount;
+	private boolean full; // start a new data file on the next save
+	private Object file; // identity of the data file, for Chunk.file
+	// The chunks the last walk referenced, gathered when a compaction is due.
+	private long[] liveOffsets;
+	private int[] liveLengths;
+	private int liveCount;
+	private Compaction compaction; // running in the background, if any
+	private Future<Void> compacted;
+	private Map<Long, Long> moved; // offsets of copied chunks, while switching
+	private Object movedFrom; // and the data file they were copied from
+
+	/**
+	 * Where a subtree was saved: its chunk is at offset in the data file whose
+	 * identity is file. Chunks form an immutable list, newest first, with at
+	 * most MAX_FILES entries, so that trees sharing nodes see either the old or
+	 * the new list, never half of each.
+	 */
+	static final class Chunk {
+		static final int MAX_FILES = 4;
+
+		final Object file;
+		final long offset;
+		final Chunk next; // saved to other files
+
+		Chunk(Object file, long offset, Chunk next) {
+			this.file = file;
+			this.offset = offset;
+			this.next = next;
+		}
+
+		/**
+		 * @return the offset of the chunk saved to file, or -1
+		 */
+		static long find(Chunk list, Object file) {
+			for (Chunk c = list; c != null; c = c.next) {
+				if (c.file == file) {
+					return c.offset;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return list with the chunk at offset in file added in front, in place
+		 *         of any older entry for file, and without its oldest entry if
+		 *         it would get too long
+		 */
+		static Chunk record(Chunk list, Object file, long offset) {
+			return new Chunk(file, offset, others(list, file, MAX_FILES - 1));
+		}
+
+		private static Chunk others(Chunk list, Object file, int room) {
+			if (list == null || room == 0) {
+				return null;
+			}
+			if (list.file == file) {
+				return others(list.next, file, room);
+			}
+			return new Chunk(list.file, list.offset, others(list.next, file, room - 1));
+		}
+	}
+
+	/**
+	 * Opens the store whose index is at index, creating it on the first save.
+	 * Unless load() is called first, the first save through a new ChunkStore
+	 * writes every chunk to a new data file, since no node has a Chunk in a
+	 * file this store opened.
+	 */
+	ChunkStore(Path index) throws IOException {
+		this.index = index;
+		this.full = true;
+		try (DataInputStream in = openIndex(index)) {
+			this.generation = in.readLong();
+		} catch (NoSuchFileException e) {
+			this.generation = 0;
+		}
+	}
+
+	/**
+	 * @return true iff this store saves to the given index file
+	 */
+	boolean isFor(Path index) {
+		return this.index.equals(index);
+	}
+
+	/**
+	 * Saves the tree rooted at root, writing only the chunks of subtrees that
+	 * changed since the last save, or every chunk if a full save is due.
+	 *
+	 * @return the number of chars written to the data file
+	 */
+	long save(Node root, int size) throws IOException {
+		if (this.data == null && !this.full) {
+			this.resume();
+		}
+		Compaction switchTo = this.finishedCompaction();
+		boolean compact = this.full;
+		if (compact) {
+			this.discardCompaction();
+			switchTo = null;
+		}
+		boolean compactLater = !compact && switchTo == null && this.compaction == null
+				&& this.dataLength > COMPACT_RATIO * this.liveBytes + BUFFER_SIZE;
+		FileChannel oldData = this.data;
+		Object oldFile = this.file;
+		long oldGeneration = this.generation;
+		long oldLength = this.dataLength;
+		long before = 0;
+		try {
+			if (compact) {
+				this.startDataFile(oldGeneration + 1, 0);
+			} else if (switchTo != null) {
+				this.startDataFile(switchTo.generation, switchTo.length);
+				this.moved = switchTo.moved;
+				this.movedFrom = oldFile;
+			}
+			before = this.dataLength;
+			this.entryBytes.reset();
+			this.entryCount = 0;
+			this.liveBytes = 0;
+			this.liveCount = compactLater ? 0 : -1;
+			this.writeSubtree(root, size, 0);
+			this.flushBuffer();
+			this.data.force(false);
+			this.writeIndex(size);
+		} catch (IOException e) {
+			if (this.data != oldData) {
+				// Nothing refers to the new data file, since the index was not
+				// replaced.
+				this.data.close();
+				Files.deleteIfExists(dataFile(this.index, this.generation));
+				this.data = oldData;
+				this.generation = oldGeneration;
+				this.dataLength = oldLength;
+			}
+			// Chunks recorded by this save may not have reached the file.
+			this.file = new Object();
+			this.full = true;
+			throw e;
+		} finally {
+			this.moved = null;
+			this.movedFrom = null;
+			this.buffer.clear();
+		}
+		this.full = false;
+		if (this.data != oldData) {
+			if (oldData != null) {
+				oldData.close();
+			}
+			Files.deleteIfExists(dataFile(this.index, oldGeneration));
+		}
+		if (compactLater) {
+			this.startCompaction();
+		}
+		return (this.dataLength - before) / Character.BYTES;
+	}
+
+	/**
+	 * Waits for a compaction that is still running and deletes what it wrote,
+	 * then closes the data file. A later save reopens the store and writes
+	 * every chunk.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			this.discardCompaction();
+		} finally {
+			if (this.data != null) {
+				this.data.close();
+				this.data = null;
+			}
+			this.full = true;
+		}
+	}
+
+	/**
+	 * Reads back the tree saved in this store. The loose nodes get the shape
+	 * they were saved in, each chunk's subtree is rebuilt with the height it
+	 * had, and its root records the Chunk, so the next save only writes the chunks
+	 * of subtrees changed since, appending to the same data file.
+	 *
+	 * @return the restored tree
+	 */
+	EditTree load() throws IOException {
+		try (DataInputStream in = openIndex(this.index)) {
+			this.generation = in.readLong();
+			this.file = new Object();
+			int size = in.readInt();
+			int entryCount = in.readInt();
+			if (size < 0 || entryCount < 0) {
+				throw new IOException("Corrupt chunk index: negative size");
+			}
+			SavedTree saved = new SavedTree(entryCount);
+			try (FileChannel data = FileChannel.open(dataFile(this.index, this.generation),
+					StandardOpenOption.READ)) {
+				ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE * Character.BYTES);
+				char[] text = new char[CHUNK_SIZE];
+				for (int i = 0; i < entryCount; i++) {
+					byte type = in.readByte();
+					if (type == CHAR) {
+						saved.pieces[i] = new Node(in.readChar());
+						saved.depths[i] = in.readUnsignedByte();
+					} else if (type == CHUNK) {
+						long offset = in.readLong();
+						int length = in.readInt();
+						saved.depths[i] = in.readUnsignedByte();
+						int height = in.readUnsignedByte();
+						if (length < 1 || length > CHUNK_SIZE || height > MAX_CHUNK_HEIGHT
+								|| length < minSize(height) || length > (1 << height) - 1) {
+							throw new IOException("Corrupt chunk index: bad chunk of " + length + " chars");
+						}
+						bytes.clear().limit(length * Character.BYTES);
+						while (bytes.hasRemaining()) {
+							if (data.read(bytes, offset + bytes.position()) < 0) {
+								throw new IOException("Chunk data file is truncated");
+							}
+						}
+						bytes.flip();
+						bytes.asCharBuffer().get(text, 0, length);
+						Node chunk = build(text, 0, length, height);
+						chunk.summary().chunk = Chunk.record(null, this.file, offset);
+						saved.pieces[i] = chunk;
+						saved.sizes[i] = length;
+						saved.heights[i] = height;
+						this.liveBytes += (long) length * Character.BYTES;
+					} else {
+						throw new IOException("Corrupt chunk index: unknown entry type " + type);
+					}
+				}
+			}
+			Node root = Node.NULL_NODE;
+			if (entryCount > 0) {
+				root = saved.link(0);
+			}
+			if (saved.next != entryCount || saved.size != size) {
+				throw new IOException("Corrupt chunk index: entries do not add up to its size");
+			}
+			this.full = false;
+			return new EditTree(root, size, 0);
+		}
+	}
+
+	/**
+	 * The entries of an index, in order, to be linked back up into the tree
+	 * they were saved from: a chunk's subtree, or a loose node, and its depth.
+	 */
+	private static final class SavedTree {
+		final Node[] pieces;
+		final int[] depths;
+		final int[] sizes; // of a chunk's subtree
+		final int[] heights; // of a chunk's subtree, or 0 for a loose node
+		int next; // entry to link next
+		int size, height; // of the subtree link() returned last
+
+		SavedTree(int entryCount) {
+			this.pieces = new Node[entryCount];
+			this.depths = new int[entryCount];
+			this.sizes = new int[entryCount];
+			this.heights = new int[entryCount];
+		}
+
+		/**
+		 * Links up the subtree whose root is the entry at depth after next. The
+		 * entries before that root and deeper than depth are its left subtree,
+		 * and those after it, up to the next one at depth or less, its right
+		 * subtree.
+		 */
+		Node link(int depth) throws IOException {
+			if (this.next == this.pieces.length) {
+				throw new IOException("Corrupt chunk index: an entry is missing");
+			}
+			if (this.depths[this.next] == depth && this.heights[this.next] > 0) {
+				this.size = this.sizes[this.next];
+				this.height = this.heights[this.next];
+				return this.pieces[this.next++];
+			}
+			Node left = Node.NULL_NODE;
+			int leftSize = 0;
+			int leftHeight = 0;
+			if (this.depths[this.next] > depth) {
+				left = this.link(depth + 1);
+				leftSize = this.size;
+				leftHeight = this.height;
+			}
+			if (this.next == this.pieces.length || this.depths[this.next] != depth
+					|| this.heights[this.next] > 0) {
+				throw new IOException("Corrupt chunk index: entries do not form a tree");
+			}
+			Node n = this.pieces[this.next++];
+			Node right = Node.NULL_NODE;
+			int rightSize = 0;
+			int rightHeight = 0;
+			if (this.next < this.pieces.length && this.depths[this.next] > depth) {
+				right = this.link(depth + 1);
+				rightSize = this.size;
+				rightHeight = this.height;
+			}
+			if (Math.abs(leftHeight - rightHeight) > 1) {
+				throw new IOException("Corrupt chunk index: entries do not form an AVL tree");
+			}
+			n.left = left;
+			n.right = right;
+			n.rank = leftSize;
+			n.balance = leftHeight > rightHeight ? Node.Code.LEFT
+					: leftHeight < rightHeight ? Node.Code.RIGHT : Node.Code.SAME;
+			this.size = leftSize + rightSize + 1;
+			this.height = Math.max(leftHeight, rightHeight) + 1;
+			return n;
+		}
+	}
+
+	/**
+	 * Builds an AVL tree of the given height holding text[from, from + size),
+	 * which minSize(height) <= size <= 2^height - 1 allows.
+	 */
+	private static Node build(char[] text, int from, int size, int height) {
+		if (size == 0) {
+			return Node.NULL_NODE;
+		}
+		// Try the children's heights from the most to the least balanced, and
+		// split the rest as evenly as those heights allow.
+		for (int shorter = 0; shorter < 3; shorter++) {
+			int leftHeight = height - (shorter == 2 ? 2 : 1);
+			int rightHeight = height - (shorter == 1 ? 2 : 1);
+			if (rightHeight < 0 || leftHeight < 0) {
+				continue;
+			}
+			int low = Math.max(minSize(leftHeight), size - 1 - ((1 << rightHeight) - 1));
+			int high = Math.min((1 << leftHeight) - 1, size - 1 - minSize(rightHeight));
+			if (low > high) {
+				continue;
+			}
+			int leftSize = Math.min(Math.max((size - 1) / 2, low), high);
+			Node left = build(text, from, leftSize, leftHeight);
+			Node right = build(text, from + leftSize + 1, size - 1 - leftSize, rightHeight);
+			return new Node(text[from + leftSize], left, right, leftSize,
+					leftHeight > rightHeight ? Node.Code.LEFT
+							: leftHeight < rightHeight ? Node.Code.RIGHT : Node.Code.SAME);
+		}
+		throw new IllegalArgumentException("no AVL tree of " + size + " nodes is " + height + " tall");
+	}
+
+	/**
+	 * @return the number of nodes in the smallest AVL tree of the given height
+	 */
+	private static int minSize(int height) {
+		int shorter = 0;
+		int size = height > 0 ? 1 : 0;
+		for (int h = 1; h < height; h++) {
+			int taller = size + shorter + 1;
+			shorter = size;
+			size = taller;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the height of the AVL subtree rooted at n, found by following
+	 *         its balance codes down the taller side
+	 */
+	private static int height(Node n) {
+		int height = 0;
+		while (n != Node.NULL_NODE) {
+			height++;
+			n = n.balance == Node.Code.RIGHT ? n.right : n.left;
+		}
+		return height;
+	}
+
+	/**
+	 * Emits the index entries for the subtree rooted at n, which has the given
+	 * size and is at the given depth, writing chunks for the parts that are
+	 * not already saved.
+	 */
+	private void writeSubtree(Node n, int size, int depth) throws IOException {
+		if (n == Node.NULL_NODE) {
+			return;
+		}
+		if (size <= CHUNK_SIZE) {
+			long offset = Chunk.find(n.chunk(), this.file);
+			if (offset < 0 && this.moved != null) {
+				long old = Chunk.find(n.chunk(), this.movedFrom);
+				Long copy = old < 0 ? null : this.moved.get(old);
+				if (copy != null) {
+					offset = copy;
+					n.summary().chunk = Chunk.record(n.chunk(), this.file, offset);
+				}
+			}
+			if (offset < 0) {
+				offset = this.dataLength;
+				this.writeChars(n);
+				n.summary().chunk = Chunk.record(n.chunk(), this.file, offset);
+			}
+			this.entries.writeByte(CHUNK);
+			this.entries.writeLong(offset);
+			this.entries.writeInt(size);
+			this.entries.writeByte(depth);
+			this.entries.writeByte(height(n));
+			this.entryCount++;
+			this.liveBytes += (long) size * Character.BYTES;
+			if (this.liveCount >= 0) {
+				this.live(offset, size);
+			}
+			return;
+		}
+		this.writeSubtree(n.left, n.rank, depth + 1);
+		this.entries.writeByte(CHAR);
+		this.entries.writeChar(n.data);
+		this.entries.writeByte(depth);
+		this.entryCount++;
+		this.writeSubtree(n.right, size - n.rank - 1, depth + 1);
+	}
+
+	/**
+	 * Appends the text of the subtree rooted at n to the data file.
+	 */
+	private void writeChars(Node n) throws IOException {
+		Stack<Node> inOrder = new Stack<Node>();
+		while (n != Node.NULL_NODE) {
+			inOrder.push(n);
+			n = n.left;
+		}
+		while (!inOrder.isEmpty()) {
+			Node curr = inOrder.pop();
+			if (this.buffer.remaining() < Character.BYTES) {
+				this.flushBuffer();
+			}
+			this.buffer.putChar(curr.data);
+			this.dataLength += Character.BYTES;
+			n = curr.right;
+			while (n != Node.NULL_NODE) {
+				inOrder.push(n);
+				n = n.left;
+			}
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.data.write(this.buffer);
+		}
+		this.buffer.clear();
+	}
+
+	/**
+	 * Reopens the data file that load() read the chunks from, to append to it.
+	 * If another store has replaced that file since, this save writes every
+	 * chunk instead.
+	 */
+	private void resume() throws IOException {
+		try {
+			this.data = FileChannel.open(dataFile(this.index, this.generation), StandardOpenOption.WRITE);
+		} catch (NoSuchFileException e) {
+			this.file = new Object();
+			this.full = true;
+			return;
+		}
+		try {
+			this.dataLength = this.data.size();
+			this.data.position(this.dataLength);
+		} catch (IOException e) {
+			this.data.close();
+			this.data = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Switches to the data file of generation, keeping its first length bytes.
+	 * The caller closes the previous file.
+	 */
+	private void startDataFile(long generation, long length) throws IOException {
+		FileChannel data = FileChannel.open(dataFile(this.index, generation), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		try {
+			data.truncate(length);
+			data.position(length);
+		} catch (IOException e) {
+			data.close();
+			throw e;
+		}
+		this.data = data;
+		this.file = new Object();
+		this.generation = generation;
+		this.dataLength = length;
+	}
+
+	/**
+	 * Adds a chunk to the list of live chunks for the next compaction.
+	 */
+	private void live(long offset, int length) {
+		if (this.liveOffsets == null) {
+			this.liveOffsets = new long[64];
+			this.liveLengths = new int[64];
+		} else if (this.liveCount == this.liveOffsets.length) {
+			this.liveOffsets = Arrays.copyOf(this.liveOffsets, 2 * this.liveCount);
+			this.liveLengths = Arrays.copyOf(this.liveLengths, 2 * this.liveCount);
+		}
+		this.liveOffsets[this.liveCount] = offset;
+		this.liveLengths[this.liveCount] = length;
+		this.liveCount++;
+	}
+
+	private void startCompaction() {
+		this.compaction = new Compaction(dataFile(this.index, this.generation),
+				dataFile(this.index, this.generation + 1), this.generation + 1,
+				Arrays.copyOf(this.liveOffsets, this.liveCount), Arrays.copyOf(this.liveLengths, this.liveCount));
+		this.compacted = compactor().submit(this.compaction);
+		this.liveOffsets = null;
+		this.liveLengths = null;
+	}
+
+	/**
+	 * @return the compaction if it is done, or null if there is none or it is
+	 *         still running. A failed compaction's file is deleted.
+	 */
+	private Compaction finishedCompaction() throws IOException {
+		if (this.compaction == null || !this.compacted.isDone()) {
+			return null;
+		}
+		Compaction done = this.compaction;
+		if (!this.awaitCompaction()) {
+			Files.deleteIfExists(done.target);
+			return null;
+		}
+		return done;
+	}
+
+	private void discardCompaction() throws IOException {
+		if (this.compaction != null) {
+			Path target = this.compaction.target;
+			this.awaitCompaction();
+			Files.deleteIfExists(target);
+		}
+	}
+
+	/**
+	 * Waits for the compaction and forgets it.
+	 *
+	 * @return true iff it succeeded
+	 */
+	private boolean awaitCompaction() {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					this.compacted.get();
+					return true;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					return false;
+				}
+			}
+		} finally {
+			this.compaction = null;
+			this.compacted = null;
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static synchronized ExecutorService compactor() {
+		if (compactor == null) {
+			compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ChunkStore compactor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return compactor;
+	}
+
+	/**
+	 * Copies the live chunks of one data file into the file of the next
+	 * generation, on the compactor thread, and records where each one went.
+	 * It only reads the part of the source that was written before it started,
+	 * which the store no longer changes.
+	 */
+	private static final class Compaction implements Callable<Void> {
+		final Path source;
+		final Path target;
+		final long generation;
+		final Map<Long, Long> moved = new HashMap<Long, Long>();
+		long length; // of the target, once done
+		private final long[] offsets;
+		private final int[] lengths;
+
+		Compaction(Path source, Path target, long generation, long[] offsets, int[] lengths) {
+			this.source = source;
+			this.target = target;
+			this.generation = generation;
+			this.offsets = offsets;
+			this.lengths = lengths;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			try (FileChannel from = FileChannel.open(this.source, StandardOpenOption.READ);
+					FileChannel to = FileChannel.open(this.target, StandardOpenOption.CREATE,
+							StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				for (int i = 0; i < this.offsets.length; i++) {
+					if (this.moved.containsKey(this.offsets[i])) {
+						continue; // a subtree saved in two places
+					}
+					long bytes = (long) this.lengths[i] * Character.BYTES;
+					long done = 0;
+					while (done < bytes) {
+						long n = from.transferTo(this.offsets[i] + done, bytes - done, to);
+						if (n <= 0) {
+							throw new IOException("Chunk data file is truncated");
+						}
+						done += n;
+					}
+					this.moved.put(this.offsets[i], this.length);
+					this.length += bytes;
+				}
+				to.force(false);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Atomically replaces the index with the entries gathered by the last walk.
+	 */
+	private void writeIndex(int size) throws IOException {
+		this.entries.flush();
+		Path dir = this.index.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, this.index.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.allocate(20);
+				header.putInt(MAGIC).putLong(this.generation).putInt(size).putInt(this.entryCount).flip();
+				channel.write(header);
+				ByteBuffer body = ByteBuffer.wrap(this.entryBytes.toByteArray());
+				while (body.hasRemaining()) {
+					channel.write(body);
+				}
+				channel.force(true);
+			}
+			Files.move(tmp, this.index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static DataInputStream openIndex(Path index) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(index), BUFFER_SIZE);
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) {
+			data.close();
+			throw new IOException("Not an EditTree chunk index: " + index);
+		}
+		return data;
+	}
+
+	private static Path dataFile(Path index, long generation) {
+		return index.resolveSibling(index.getFileName() + "." + generation);
+	}
+}
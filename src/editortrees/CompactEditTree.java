@@ -0,0 +1,121 @@
+package editortrees;
+
+import java.util.Arrays;
+
+import editortrees.Node.Code;
+
+/**
+ * The char tree of EditTree in the compact layout of AvlSequence: a node is
+ * an int handle, and its links, rank, balance code and char sit in four
+ * arrays, with the balance code folded into the spare low bits of the rank.
+ * That is 14 bytes of arrays per char (plus the slack of growing the arrays
+ * by doubling), against a 40 byte Node object with its Code reference.
+ *
+ * Adds, deletes and builds give exactly the shapes EditTree gives, so
+ * toDebugString() and toRankString() print what EditTree's print.
+ */
+public class CompactEditTree extends AvlSequence implements RankTree {
+
+	private static final Code[] CODES = Code.values();
+
+	private char[] values;
+
+	/**
+	 * Constructs an empty tree.
+	 */
+	public CompactEditTree() {
+		this.values = new char[this.left.length];
+	}
+
+	/**
+	 * Constructs a tree holding s, in O(n) time, with the shape
+	 * EditTree(String) gives.
+	 *
+	 * @param s the contents of the new tree
+	 */
+	public CompactEditTree(String s) {
+		this.build(s.length());
+		s.getChars(0, s.length(), this.values, 1);
+	}
+
+	@Override
+	void growValues(int capacity) {
+		this.values = this.values == null ? new char[capacity] : Arrays.copyOf(this.values, capacity);
+	}
+
+	@Override
+	public void add(char ch) {
+		this.add(ch, this.size());
+	}
+
+	@Override
+	public void add(char ch, int pos) throws IndexOutOfBoundsException {
+		int n = this.link(pos); // may grow values, so look the array up after
+		this.values[n] = ch;
+	}
+
+	@Override
+	public char delete(int pos) throws IndexOutOfBoundsException {
+		return this.values[this.unlink(pos)];
+	}
+
+	@Override
+	public char get(int pos) throws IndexOutOfBoundsException {
+		return this.values[this.locate(pos)];
+	}
+
+	@Override
+	public String get(int pos, int length) throws IndexOutOfBoundsException {
+		this.seek(pos, length);
+		char[] range = new char[length];
+		for (int i = 0; i < length; i++) {
+			range[i] = this.values[this.next()];
+		}
+		return new String(range);
+	}
+
+	@Override
+	public String toString() {
+		return this.get(0, this.size());
+	}
+
+	/**
+	 * @return the same string as EditTree.toRankString() for a tree of the
+	 *         same shape: each char and its rank, in pre-order
+	 */
+	public String toRankString() {
+		return this.preOrderString(false);
+	}
+
+	/**
+	 * @return the same string as EditTree.toDebugString() for a tree of the
+	 *         same shape: each char, its rank and its balance code, in
+	 *         pre-order
+	 */
+	public String toDebugString() {
+		return this.preOrderString(true);
+	}
+
+	private String preOrderString(boolean withBalance) {
+		StringBuilder sb = new StringBuilder("[");
+		int[] preOrder = new int[2 * 64];
+		int depth = 0;
+		preOrder[depth++] = this.root;
+		while (depth > 0) {
+			int n = preOrder[--depth];
+			if (n == NIL) {
+				continue;
+			}
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(this.values[n]).append(this.rank(n));
+			if (withBalance) {
+				sb.append(CODES[this.balance(n)]);
+			}
+			preOrder[depth++] = this.right[n];
+			preOrder[depth++] = this.left[n];
+		}
+		return sb.append(']').toString();
+	}
+}
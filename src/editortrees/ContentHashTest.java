@@ -0,0 +1,90 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ContentHashTest {
+
+	private static long hashOf(String s) {
+		long hash = 0;
+		for (int i = 0; i < s.length(); i++) {
+			hash = RollingHash.append(hash, RollingHash.BASE, s.charAt(i) + 1);
+		}
+		return hash;
+	}
+
+	@Test
+	public void testHashFollowsEdits() {
+		EditTree t = new EditTree();
+		StringBuilder model = new StringBuilder();
+		Random random = new Random(40);
+		for (int i = 0; i < 5000; i++) {
+			if (model.length() > 0 && random.nextInt(3) == 0) {
+				int pos = random.nextInt(model.length());
+				model.deleteCharAt(pos);
+				t.delete(pos);
+			} else {
+				int pos = random.nextInt(model.length() + 1);
+				char c = (char) ('a' + random.nextInt(3));
+				model.insert(pos, c);
+				t.add(c, pos);
+			}
+			if (i % 97 == 0) {
+				assertEquals(hashOf(model.toString()), t.contentHash());
+			}
+		}
+		assertEquals(hashOf(model.toString()), t.contentHash());
+		assertEquals(new EditTree(model.toString()).contentHash(), t.contentHash());
+	}
+
+	@Test
+	public void testRangeHash() {
+		String s = "the quick brown fox jumps over the lazy dog";
+		EditTree t = new EditTree(s);
+		for (int pos = 0; pos <= s.length(); pos++) {
+			for (int length = 0; pos + length <= s.length(); length++) {
+				assertEquals(hashOf(s.substring(pos, pos + length)), t.rangeHash(pos, length));
+			}
+		}
+		assertEquals(t.rangeHash(4, 3), new EditTree("qui").contentHash());
+		assertEquals(t.rangeHash(0, 4), t.rangeHash(31, 4)); // "the "
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testRangeHashOutOfBounds() {
+		new EditTree("abc").rangeHash(2, 2);
+	}
+
+	@Test
+	public void testNulHashesDifferently() {
+		assertFalse(new EditTree().contentHash() == new EditTree('\0').contentHash());
+		assertFalse(new EditTree("\0a").contentHash() == new EditTree("a").contentHash());
+	}
+
+	@Test
+	public void testContentEquals() {
+		EditTree a = new EditTree("abcdefghij");
+		EditTree b = new EditTree();
+		for (char c = 'a'; c <= 'j'; c++) {
+			b.add(c);
+		}
+		assertTrue(a.contentEquals(b));
+		assertEquals(a.contentHash(), b.contentHash());
+		b.delete(4);
+		assertFalse(a.contentEquals(b));
+		b.add('x', 4);
+		assertFalse(a.contentEquals(b));
+		b.delete(4);
+		b.add('e', 4);
+		assertTrue(a.contentEquals(b));
+		EditTree copy = new EditTree(a);
+		assertTrue(copy.contentEquals(a));
+		copy.setText("abcdefghij");
+		assertTrue(copy.contentEquals(a));
+	}
+}
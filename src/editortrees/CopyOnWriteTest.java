@@ -0,0 +1,177 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+
+import org.junit.Test;
+
+public class CopyOnWriteTest {
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(chars);
+	}
+
+	private static void edit(EditTree t, StringBuilder model, Random random) {
+		if (model.length() > 0 && random.nextInt(2) == 0) {
+			int pos = random.nextInt(model.length());
+			assertEquals(model.charAt(pos), t.delete(pos));
+			model.deleteCharAt(pos);
+		} else {
+			int pos = random.nextInt(model.length() + 1);
+			char c = (char) ('A' + random.nextInt(26));
+			t.add(c, pos);
+			model.insert(pos, c);
+		}
+	}
+
+	@Test
+	public void testCopiesEvolveIndependently() {
+		Random random = new Random(42);
+		List<EditTree> trees = new ArrayList<EditTree>();
+		List<StringBuilder> models = new ArrayList<StringBuilder>();
+		String s = text(2000, 42);
+		trees.add(new EditTree(s));
+		models.add(new StringBuilder(s));
+		for (int round = 0; round < 2000; round++) {
+			int i = random.nextInt(trees.size());
+			if (round % 50 == 0) {
+				trees.add(new EditTree(trees.get(i)));
+				models.add(new StringBuilder(models.get(i)));
+			} else {
+				edit(trees.get(i), models.get(i), random);
+			}
+		}
+		for (int i = 0; i < trees.size(); i++) {
+			EditTree t = trees.get(i);
+			assertEquals(models.get(i).toString(), t.toString());
+			assertTrue(t.isConsistent());
+		}
+	}
+
+	@Test
+	public void testCopyKeepsRotationCount() {
+		EditTree t = new EditTree();
+		for (char c = 'a'; c <= 'z'; c++) {
+			t.add(c);
+		}
+		EditTree copy = new EditTree(t);
+		assertEquals(t.totalRotationCount(), copy.totalRotationCount());
+		assertTrue(copy.totalRotationCount() > 0);
+	}
+
+	@Test
+	public void testEditAfterCopyCopiesOnlyAPath() {
+		EditTree t = new EditTree(text(1 << 16, 42));
+		EditTree copy = new EditTree(t);
+		copy.add('x', 1000);
+		copy.delete(40000);
+		// Everything off the two paths, and the few nodes the rotations
+		// touched, is still shared.
+		int[] shared = new int[1];
+		countShared(t.root, copy.root, shared);
+		assertTrue(shared[0] > (1 << 16) - 100);
+	}
+
+	private static void countShared(Node a, Node b, int[] shared) {
+		IdentityHashMap<Node, Boolean> seen = new IdentityHashMap<Node, Boolean>();
+		Stack<Node> stack = new Stack<Node>();
+		stack.push(a);
+		while (!stack.isEmpty()) {
+			Node n = stack.pop();
+			if (n != Node.NULL_NODE) {
+				seen.put(n, true);
+				stack.push(n.left);
+				stack.push(n.right);
+			}
+		}
+		stack.push(b);
+		while (!stack.isEmpty()) {
+			Node n = stack.pop();
+			if (n != Node.NULL_NODE) {
+				if (seen.containsKey(n)) {
+					shared[0]++;
+				}
+				stack.push(n.left);
+				stack.push(n.right);
+			}
+		}
+	}
+
+	@Test
+	public void testPoolOnlyRecyclesUnsharedNodes() {
+		String s = text(5000, 43);
+		EditTree t = new EditTree(s);
+		t.enableNodePool(10000);
+		EditTree copy = new EditTree(t);
+		StringBuilder model = new StringBuilder(s);
+		Random random = new Random(43);
+		for (int i = 0; i < 5000; i++) {
+			edit(t, model, random);
+		}
+		t.setText(text(3000, 44));
+		t.setText(text(5000, 45));
+		assertEquals(s, copy.toString());
+		assertTrue(copy.isConsistent());
+		assertEquals(text(5000, 45), t.toString());
+	}
+
+	@Test
+	public void testCopiesSaveToSeparateChunkStores() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		String s = text(100000, 46);
+		EditTree t = new EditTree(s);
+		t.saveIncremental(dir.resolve("t.chunks"));
+		EditTree copy = new EditTree(t);
+		copy.add('!', 0);
+		copy.saveIncremental(dir.resolve("copy.chunks"));
+		t.add('?', 50000);
+		t.saveIncremental(dir.resolve("t.chunks"));
+		copy.add('!', 99000);
+		copy.saveIncremental(dir.resolve("copy.chunks"));
+		assertEquals(t.toString(), EditTree.loadIncremental(dir.resolve("t.chunks")).toString());
+		assertEquals(copy.toString(), EditTree.loadIncremental(dir.resolve("copy.chunks")).toString());
+	}
+
+	@Test
+	public void testIncrementalSavesStayIncrementalAfterCopy() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path index = dir.resolve("t.chunks");
+		Path copyIndex = dir.resolve("copy.chunks");
+		EditTree t = new EditTree(text(1000000, 47));
+		t.saveIncremental(index);
+		EditTree copy = new EditTree(t);
+		t.add('!', 500000);
+		long written = t.saveIncremental(index);
+		assertTrue("wrote " + written + " chars after a copy and one edit", written <= 2 * ChunkStore.CHUNK_SIZE);
+
+		// The copy's first save to its own store writes everything, and then
+		// both trees keep saving only what they changed.
+		assertTrue(copy.saveIncremental(copyIndex) > 990000);
+		for (int i = 0; i < 3; i++) {
+			t.delete(1000 + i * 300000);
+			copy.add('?', 2000 + i * 300000);
+			written = t.saveIncremental(index);
+			assertTrue("wrote " + written + " chars for one delete", written <= 2 * ChunkStore.CHUNK_SIZE);
+			written = copy.saveIncremental(copyIndex);
+			assertTrue("wrote " + written + " chars for one add", written <= 2 * ChunkStore.CHUNK_SIZE);
+		}
+		assertEquals(t.get(0, t.size()), EditTree.loadIncremental(index).get(0, t.size()));
+		assertEquals(copy.get(0, copy.size()), EditTree.loadIncremental(copyIndex).get(0, copy.size()));
+		t.closeIncremental();
+		copy.closeIncremental();
+	}
+}
@@ -0,0 +1,39 @@
+package editortrees;
+
+/**
+ * One step of the edit script returned by EditTree.diff(): at pos, delete
+ * deleted characters, then insert inserted. Positions refer to the text the
+ * script starts from. A script is sorted by position, and its edits never
+ * touch, so applying them from last to first leaves every position valid.
+ */
+public final class DiffEdit {
+
+	public final int pos;
+	public final int deleted;
+	public final String inserted;
+
+	public DiffEdit(int pos, int deleted, String inserted) {
+		this.pos = pos;
+		this.deleted = deleted;
+		this.inserted = inserted;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof DiffEdit)) {
+			return false;
+		}
+		DiffEdit e = (DiffEdit) o;
+		return this.pos == e.pos && this.deleted == e.deleted && this.inserted.equals(e.inserted);
+	}
+
+	@Override
+	public int hashCode() {
+		return (this.pos * 31 + this.deleted) * 31 + this.inserted.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return this.pos + ":-" + this.deleted + "+\"" + this.inserted + "\"";
+	}
+}
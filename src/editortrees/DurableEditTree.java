@@ -0,0 +1,492 @@
+package editortrees;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An EditTree whose edits survive a crash. The state lives in a directory
+ * holding a checkpoint (a snapshot of the tree, see EditTree.writeSnapshot())
+ * and an EditLog of the edits made since that checkpoint. Opening the
+ * directory restores the checkpoint and replays the log on top of it.
+ *
+ * Every checkpointInterval edits a new checkpoint is written, so the log and
+ * the replay time stay bounded. Checkpoints and logs carry a generation
+ * number, and there are two log files, one for even and one for odd
+ * generations. Starting checkpoint g + 1 takes an O(1) copy of the tree (see
+ * EditTree(EditTree)), switches logging to the log of generation g + 1, and
+ * writes the copy out on a background thread while editing goes on. An edit
+ * that finds the next checkpoint due while the last is still being written
+ * waits for it, so there are never two checkpoints in progress. Until the
+ * checkpoint is in place, recovery replays the log of g and then the log of
+ * g + 1 on top of checkpoint g; afterwards the log of g is ignored. A log whose
+ * generation matches neither was already folded into the checkpoint.
+ *
+ * Each edit is checked and logged before it is applied to the tree, so an edit
+ * whose logging fails leaves the tree as it was. Whether such an edit reached
+ * the disk is not known, though, since the failure may come from forcing a
+ * batch it was part of. So after an IOException from logging, this object
+ * refuses further edits: close it and open the directory again to go on from
+ * what is stored. A checkpoint that fails in the background is retried in
+ * the foreground by the next edit; if that fails too, its IOException carries
+ * the background failure as a suppressed exception.
+ *
+ * Edits go through this class so they can be logged. Read through tree(), but
+ * do not modify that tree directly. setAttribute() may be called on it, since
+ * attributes are not part of the stored state.
+ */
+public class DurableEditTree implements Closeable {
+
+	static final String CHECKPOINT_FILE = "checkpoint.snap";
+	static final String LOG_FILE = "edits.log"; // for even generations
+	static final String ODD_LOG_FILE = "edits.odd.log";
+
+	// Writes the checkpoints of every DurableEditTree, one at a time.
+	private static ExecutorService checkpointer;
+
+	private final Path checkpoint;
+	private final EditLog[] logs = new EditLog[2]; // indexed by generation % 2
+	private EditLog log; // the log of the newest generation
+	private final int checkpointInterval;
+	private final EditTree tree;
+	private int editsSinceCheckpoint;
+	private Future<Void> writing; // the checkpoint being written, if any
+	private boolean landed = true; // the checkpoint of log's generation is on disk
+	private IOException checkpointFailure; // why the last background checkpoint failed
+	private IOException logFailure; // set once logging failed; see class comment
+
+	/**
+	 * Opens the tree stored in directory with default settings: commit every
+	 * 256 edits or 50 ms, and checkpoint every 100000 edits.
+	 *
+	 * @param directory an existing directory, empty for a new tree
+	 * @throws IOException if the stored state cannot be read
+	 */
+	public DurableEditTree(Path directory) throws IOException {
+		this(directory, 256, 50, 100000);
+	}
+
+	/**
+	 * Opens the tree stored in directory, replaying the edits logged since its
+	 * last checkpoint.
+	 *
+	 * @param directory          an existing directory, empty for a new tree
+	 * @param batchSize          see EditLog
+	 * @param syncIntervalMillis see EditLog
+	 * @param checkpointInterval number of edits between checkpoints
+	 * @throws IOException if the stored state cannot be read
+	 */
+	public DurableEditTree(Path directory, int batchSize, long syncIntervalMillis, int checkpointInterval)
+			throws IOException {
+		if (checkpointInterval < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.checkpoint = directory.resolve(CHECKPOINT_FILE);
+		this.checkpointInterval = checkpointInterval;
+
+		long generation = 0;
+		EditTree restored = new EditTree();
+		try (FileChannel channel = FileChannel.open(this.checkpoint, StandardOpenOption.READ)) {
+			ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			generation = data.getLong();
+			restored = EditTree.readSnapshot(data);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Checkpoint is truncated: " + this.checkpoint, e);
+		} catch (NoSuchFileException e) {
+			// A new tree: start from generation 0.
+		}
+		this.tree = restored;
+		this.logs[0] = new EditLog(directory.resolve(LOG_FILE), batchSize, syncIntervalMillis);
+		this.logs[1] = new EditLog(directory.resolve(ODD_LOG_FILE), batchSize, syncIntervalMillis);
+		this.log = this.logs[(int) (generation & 1)];
+		this.editsSinceCheckpoint = this.log.replayInto(this.tree, generation);
+		// Edits logged while the next checkpoint was being written.
+		if (this.logs[(int) (generation + 1 & 1)].replayInto(this.tree, generation + 1) > 0) {
+			this.log = this.logs[(int) (generation + 1 & 1)];
+			this.landed = false;
+			this.checkpoint();
+		}
+	}
+
+	/**
+	 * @return the tree holding the current contents. Do not modify it directly.
+	 */
+	public EditTree tree() {
+		return this.tree;
+	}
+
+	/**
+	 * Appends ch to the end of the tree and logs the edit.
+	 *
+	 * @param ch character to add
+	 * @throws IOException if the edit could not be logged
+	 */
+	public void add(char ch) throws IOException {
+		this.add(ch, this.tree.size());
+	}
+
+	/**
+	 * Adds ch at pos and logs the edit.
+	 *
+	 * @param ch  character to add
+	 * @param pos position as in EditTree.add(char, int)
+	 * @throws IndexOutOfBoundsException if pos is negative or too large, in
+	 *                                   which case nothing is logged
+	 * @throws IOException               if the edit could not be logged
+	 */
+	public void add(char ch, int pos) throws IOException {
+		if (pos < 0 || pos > this.tree.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		try {
+			this.log().logAdd(ch, pos);
+		} catch (IOException e) {
+			throw this.logFailed(e);
+		}
+		this.tree.add(ch, pos);
+		this.edited(1);
+	}
+
+	/**
+	 * Deletes the character at pos and logs the edit.
+	 *
+	 * @param pos position as in EditTree.delete(int)
+	 * @return the deleted character
+	 * @throws IndexOutOfBoundsException if pos is negative or too large, in
+	 *                                   which case nothing is logged
+	 * @throws IOException               if the edit could not be logged
+	 */
+	public char delete(int pos) throws IOException {
+		if (pos < 0 || pos >= this.tree.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		try {
+			this.log().logDelete(pos);
+		} catch (IOException e) {
+			throw this.logFailed(e);
+		}
+		char deleted = this.tree.delete(pos);
+		this.edited(1);
+		return deleted;
+	}
+
+	/**
+	 * Appends s to the end of the tree and logs it. Each char counts as one
+	 * edit towards the next checkpoint, since each takes up room in the log.
+	 *
+	 * @param s the chars to append
+	 * @throws IOException if the edit could not be logged
+	 */
+	public void append(CharSequence s) throws IOException {
+		try {
+			this.log().logAppend(s);
+		} catch (IOException e) {
+			throw this.logFailed(e);
+		}
+		this.tree.append(s);
+		this.edited(s.length());
+	}
+
+	/**
+	 * Moves a range of chars and logs the edit.
+	 *
+	 * @see EditTree#move(int, int, int)
+	 * @throws IndexOutOfBoundsException if the range or target is out of
+	 *                                   bounds, in which case nothing is logged
+	 * @throws IOException               if the edit could not be logged
+	 */
+	public void move(int from, int length, int to) throws IOException {
+		int size = this.tree.size();
+		if (from < 0 || length < 0 || from > size - length || to < 0 || to > size - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		try {
+			this.log().logMove(from, length, to);
+		} catch (IOException e) {
+			throw this.logFailed(e);
+		}
+		this.tree.move(from, length, to);
+		this.edited(1);
+	}
+
+	/**
+	 * Copies a range of chars and logs the edit.
+	 *
+	 * @see EditTree#duplicate(int, int, int)
+	 * @throws IndexOutOfBoundsException if the range or target is out of
+	 *                                   bounds, in which case nothing is logged
+	 * @throws IOException               if the edit could not be logged
+	 */
+	public void duplicate(int from, int length, int to) throws IOException {
+		int size = this.tree.size();
+		if (from < 0 || length < 0 || from > size - length || to < 0 || to > size) {
+			throw new IndexOutOfBoundsException();
+		}
+		try {
+			this.log().logDuplicate(from, length, to);
+		} catch (IOException e) {
+			throw this.logFailed(e);
+		}
+		this.tree.duplicate(from, length, to);
+		this.edited(1);
+	}
+
+	/**
+	 * Reverses a range of chars and logs the edit.
+	 *
+	 * @see EditTree#reverse(int, int)
+	 * @throws IndexOutOfBoundsException if the range is out of bounds, in
+	 *                                   which case nothing is logged
+	 * @throws IOException               if the edit could not be logged
+	 */
+	public void reverse(int pos, int length) throws IOException {
+		this.checkRange(pos, length);
+		try {
+			this.log().logReverse(pos, length);
+		} catch (IOException e) {
+			throw this.logFailed(e);
+		}
+		this.tree.reverse(pos, length);
+		this.edited(1);
+	}
+
+	/**
+	 * Maps the case of a range of chars and logs the edit.
+	 *
+	 * @see EditTree#mapRange(int, int, CaseMap)
+	 * @throws IndexOutOfBoundsException if the range is out of bounds, in
+	 *                                   which case nothing is logged
+	 * @throws IOException               if the edit could not be logged
+	 */
+	public void mapRange(int pos, int length, CaseMap map) throws IOException {
+		this.checkRange(pos, length);
+		if (map == null) {
+			return; // changes nothing, as in EditTree
+		}
+		try {
+			this.log().logMapRange(pos, length, map);
+		} catch (IOException e) {
+			throw this.logFailed(e);
+		}
+		this.tree.mapRange(pos, length, map);
+		this.edited(1);
+	}
+
+	/**
+	 * Forces every edit made so far to disk, without waiting for the next group
+	 * commit. Useful from an idle timer, since commits are otherwise only
+	 * triggered by new edits.
+	 *
+	 * @throws IOException if the log cannot be written
+	 */
+	public void sync() throws IOException {
+		this.log.commit();
+	}
+
+	/**
+	 * Writes a new checkpoint of the current tree and empties the log, waiting
+	 * until it is done. A checkpoint that is being written in the background is
+	 * waited for first. The checkpoint is written to a temporary file and
+	 * atomically moved into place before the log is touched.
+	 *
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	public void checkpoint() throws IOException {
+		this.awaitCheckpoint();
+		IOException earlier = this.checkpointFailure;
+		this.checkpointFailure = null;
+		// If a background checkpoint failed, its generation is skipped; the log
+		// of the generation before it is only emptied once this one is in place.
+		long generation = this.log.generation() + 1;
+		try {
+			writeCheckpoint(this.checkpoint, this.tree, generation);
+		} catch (IOException e) {
+			if (earlier != null) {
+				e.addSuppressed(earlier);
+			}
+			throw e;
+		}
+		this.startLog(generation);
+		this.landed = true;
+	}
+
+	/**
+	 * Waits for a checkpoint that is being written in the background, commits
+	 * any pending edits and closes the logs.
+	 *
+	 * @throws IOException if the logs cannot be committed, or the background
+	 *                     checkpoint failed; its edits are still in the logs
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			this.awaitCheckpoint();
+		} finally {
+			try {
+				this.logs[0].close();
+			} finally {
+				this.logs[1].close();
+			}
+		}
+		if (this.checkpointFailure != null) {
+			IOException e = this.checkpointFailure;
+			this.checkpointFailure = null;
+			throw e;
+		}
+	}
+
+	private void edited(int count) throws IOException {
+		this.editsSinceCheckpoint += count;
+		if (this.writing != null && this.writing.isDone()) {
+			this.awaitCheckpoint();
+			if (!this.landed) {
+				// It failed: retry it now, which surfaces the failure if it
+				// persists.
+				this.checkpoint();
+				return;
+			}
+		}
+		if (this.editsSinceCheckpoint >= this.checkpointInterval) {
+			// If the last checkpoint is still being written, wait for it, which
+			// bounds the logs to the edits since it started.
+			this.awaitCheckpoint();
+			if (this.landed) {
+				this.startCheckpoint();
+			} else {
+				this.checkpoint();
+			}
+		}
+	}
+
+	/**
+	 * Starts writing a checkpoint of a copy of the tree in the background.
+	 * Edits from here on go to the log of the new generation; the log of the
+	 * current one is committed, since recovery needs all of it until the
+	 * checkpoint is in place.
+	 */
+	private void startCheckpoint() throws IOException {
+		final long generation = this.log.generation() + 1;
+		final EditTree copy = new EditTree(this.tree);
+		final Path file = this.checkpoint;
+		this.log.commit();
+		this.startLog(generation);
+		this.landed = false;
+		this.writing = checkpointer().submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				writeCheckpoint(file, copy, generation);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Waits for the background checkpoint, if any. Once it is in place, the log
+	 * it made obsolete is emptied. If it failed, landed stays false, so the
+	 * next checkpoint is written in the foreground, and checkpointFailure keeps
+	 * the cause.
+	 */
+	private void awaitCheckpoint() throws IOException {
+		if (this.writing == null) {
+			return;
+		}
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					this.writing.get();
+					this.landed = true;
+					long obsolete = this.log.generation() - 1;
+					this.logs[(int) (obsolete & 1)].reset(obsolete);
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					this.checkpointFailure = cause instanceof IOException ? (IOException) cause
+							: new IOException("Background checkpoint failed", cause);
+					break;
+				}
+			}
+		} finally {
+			this.writing = null;
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return the log to record the next edit in
+	 * @throws IOException if logging failed before; see the class comment
+	 */
+	private EditLog log() throws IOException {
+		if (this.logFailure != null) {
+			throw new IOException("An earlier edit could not be logged; reopen the tree", this.logFailure);
+		}
+		return this.log;
+	}
+
+	private IOException logFailed(IOException e) {
+		if (this.logFailure == null) {
+			this.logFailure = e;
+		}
+		return e;
+	}
+
+	private void checkRange(int pos, int length) {
+		if (pos < 0 || length < 0 || pos > this.tree.size() - length) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	private void startLog(long generation) throws IOException {
+		this.log = this.logs[(int) (generation & 1)];
+		this.log.reset(generation);
+		this.editsSinceCheckpoint = 0;
+	}
+
+	private static void writeCheckpoint(Path checkpoint, EditTree tree, long generation) throws IOException {
+		Path tmp = Files.createTempFile(checkpoint.getParent(), CHECKPOINT_FILE, ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+				header.putLong(generation).flip();
+				channel.write(header);
+				tree.writeSnapshot(Channels.newOutputStream(channel));
+				channel.force(true);
+			}
+			Files.move(tmp, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static synchronized ExecutorService checkpointer() {
+		if (checkpointer == null) {
+			checkpointer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "DurableEditTree checkpointer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return checkpointer;
+	}
+}
@@ -0,0 +1,426 @@
+package editortrees;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only binary log of the edits made to an EditTree. Records are
+ * staged in memory and written out in frames, and a frame is forced to disk
+ * (group commit) once batchSize records are pending or syncIntervalMillis has
+ * passed since the last commit, whichever comes first. Appending a record is
+ * just a few buffer writes, so the per-keystroke cost stays tiny; the price is
+ * that records which have not been committed yet are lost in a crash.
+ *
+ * Only the batchSize trigger commits on the thread that appends. The interval
+ * is kept by a background thread shared by all logs, which commits whatever
+ * is pending every syncIntervalMillis, so a typing thread never waits on an
+ * fsync it did not fill a batch for. If such a commit fails, the next call
+ * that appends or commits throws its exception. A syncIntervalMillis of 0
+ * commits every record as it is appended.
+ *
+ * The file starts with a header holding MAGIC and a generation number, which
+ * ties the log to the checkpoint it applies to. Each frame is an int payload
+ * length, the CRC32 of the payload, and the payload itself: a run of records,
+ * each an op byte followed by its operands:
+ *
+ * <pre>
+ * ADD       int pos, char ch
+ * DELETE    int pos
+ * APPEND    int length, then length chars
+ * MOVE      int from, int length, int to
+ * DUPLICATE int from, int length, int to
+ * REVERSE   int pos, int length
+ * MAP_CASE  int pos, int length, byte CaseMap ordinal
+ * </pre>
+ *
+ * An append too long for one frame is logged as several APPEND records.
+ * Replay stops at the first frame that is cut short or fails its checksum,
+ * which is where a crash interrupted the last write.
+ */
+public class EditLog implements Closeable {
+
+	static final int MAGIC = 0x45444C47; // "EDLG"
+	static final byte ADD = 'A';
+	static final byte DELETE = 'D';
+	static final byte APPEND = 'P';
+	static final byte MOVE = 'M';
+	static final byte DUPLICATE = 'C';
+	static final byte REVERSE = 'R';
+	static final byte MAP_CASE = 'U';
+
+	private static final int HEADER_SIZE = 12;
+	private static final int FRAME_HEADER_SIZE = 8;
+	private static final int ADD_SIZE = 7;
+	private static final int DELETE_SIZE = 5;
+	private static final int RANGE_SIZE = 9;
+	private static final int MAP_CASE_SIZE = 10;
+	private static final int MOVE_SIZE = 13;
+	private static final int APPEND_HEADER_SIZE = 5;
+	private static final int BUFFER_SIZE = 1 << 16;
+	// The most chars one APPEND record can hold and still fit in a frame.
+	private static final int MAX_APPEND = (BUFFER_SIZE - FRAME_HEADER_SIZE - APPEND_HEADER_SIZE) / Character.BYTES;
+	private static final CaseMap[] CASE_MAPS = CaseMap.values();
+
+	// Runs the interval commits of every open log.
+	private static ScheduledExecutorService syncer;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final CRC32 crc = new CRC32();
+	private final int batchSize;
+	private final ScheduledFuture<?> intervalCommits; // null if every record commits
+	private long generation;
+	private int pending; // records appended since the last commit
+	private IOException failure; // thrown by the last interval commit
+
+	/**
+	 * Opens or creates the log at path. Call replayInto() before appending, so
+	 * that edits from a previous run are recovered and any torn tail is cut
+	 * off.
+	 *
+	 * @param path               the log file
+	 * @param batchSize          commit after this many records are pending
+	 * @param syncIntervalMillis commit pending records this often, in the
+	 *                           background, or every record if 0
+	 * @throws IOException if the file cannot be opened
+	 */
+	public EditLog(Path path, int batchSize, long syncIntervalMillis) throws IOException {
+		if (batchSize < 1 || syncIntervalMillis < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.batchSize = syncIntervalMillis == 0 ? 1 : batchSize;
+		this.buffer.position(FRAME_HEADER_SIZE);
+		if (syncIntervalMillis == 0) {
+			this.intervalCommits = null;
+		} else {
+			this.intervalCommits = syncer().scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					EditLog.this.intervalCommit();
+				}
+			}, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Applies the edits stored in this log to tree, provided the log belongs to
+	 * generation; a log left over from another generation is discarded.
+	 * Anything after the last intact frame is truncated, and new records are
+	 * appended after the replayed ones.
+	 *
+	 * @param tree       the tree restored from the checkpoint of generation
+	 * @param generation the generation of that checkpoint
+	 * @return the number of edits replayed
+	 * @throws IOException if the log cannot be read or truncated
+	 */
+	public synchronized int replayInto(EditTree tree, long generation) throws IOException {
+		this.discardPending();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (this.readFully(header, 0) && header.getInt(0) == MAGIC && header.getLong(4) == generation) {
+			this.generation = generation;
+		} else {
+			this.reset(generation);
+			return 0;
+		}
+
+		int replayed = 0;
+		long position = HEADER_SIZE;
+		ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+		while (this.readFully(frameHeader, position)) {
+			int length = frameHeader.getInt(0);
+			if (length < 0 || length > BUFFER_SIZE - FRAME_HEADER_SIZE) break;
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			if (!this.readFully(payload, position + FRAME_HEADER_SIZE)) break;
+			this.crc.reset();
+			this.crc.update(payload.array(), 0, length);
+			if ((int) this.crc.getValue() != frameHeader.getInt(4)) break;
+			replayed += applyRecords(payload, tree);
+			position += FRAME_HEADER_SIZE + length;
+		}
+		this.channel.truncate(position);
+		this.channel.position(position);
+		return replayed;
+	}
+
+	/**
+	 * Records that ch was added at pos.
+	 *
+	 * @throws IOException if a commit was due and failed
+	 */
+	public synchronized void logAdd(char ch, int pos) throws IOException {
+		this.reserve(ADD_SIZE);
+		this.buffer.put(ADD).putInt(pos).putChar(ch);
+		this.recorded();
+	}
+
+	/**
+	 * Records that the char at pos was deleted.
+	 *
+	 * @throws IOException if a commit was due and failed
+	 */
+	public synchronized void logDelete(int pos) throws IOException {
+		this.reserve(DELETE_SIZE);
+		this.buffer.put(DELETE).putInt(pos);
+		this.recorded();
+	}
+
+	/**
+	 * Records that s was appended to the end of the tree.
+	 *
+	 * @throws IOException if a commit was due and failed
+	 */
+	public synchronized void logAppend(CharSequence s) throws IOException {
+		for (int start = 0; start < s.length(); start += MAX_APPEND) {
+			int length = Math.min(MAX_APPEND, s.length() - start);
+			this.reserve(APPEND_HEADER_SIZE + length * Character.BYTES);
+			this.buffer.put(APPEND).putInt(length);
+			for (int i = start; i < start + length; i++) {
+				this.buffer.putChar(s.charAt(i));
+			}
+			this.recorded();
+		}
+	}
+
+	/**
+	 * Records that the length chars at from were moved to to, as in
+	 * EditTree.move().
+	 *
+	 * @throws IOException if a commit was due and failed
+	 */
+	public synchronized void logMove(int from, int length, int to) throws IOException {
+		this.reserve(MOVE_SIZE);
+		this.buffer.put(MOVE).putInt(from).putInt(length).putInt(to);
+		this.recorded();
+	}
+
+	/**
+	 * Records that the length chars at from were copied to to, as in
+	 * EditTree.duplicate().
+	 *
+	 * @throws IOException if a commit was due and failed
+	 */
+	public synchronized void logDuplicate(int from, int length, int to) throws IOException {
+		this.reserve(MOVE_SIZE);
+		this.buffer.put(DUPLICATE).putInt(from).putInt(length).putInt(to);
+		this.recorded();
+	}
+
+	/**
+	 * Records that the length chars at pos were reversed.
+	 *
+	 * @throws IOException if a commit was due and failed
+	 */
+	public synchronized void logReverse(int pos, int length) throws IOException {
+		this.reserve(RANGE_SIZE);
+		this.buffer.put(REVERSE).putInt(pos).putInt(length);
+		this.recorded();
+	}
+
+	/**
+	 * Records that map was applied to the length chars at pos.
+	 *
+	 * @throws IOException if a commit was due and failed
+	 */
+	public synchronized void logMapRange(int pos, int length, CaseMap map) throws IOException {
+		this.reserve(MAP_CASE_SIZE);
+		this.buffer.put(MAP_CASE).putInt(pos).putInt(length).put((byte) map.ordinal());
+		this.recorded();
+	}
+
+	/**
+	 * Writes out all pending records and forces them to disk.
+	 *
+	 * @throws IOException if the log cannot be written, or an interval commit
+	 *                     failed since the last call
+	 */
+	public synchronized void commit() throws IOException {
+		this.checkFailure();
+		this.writeFrame();
+		this.channel.force(false);
+		this.pending = 0;
+	}
+
+	/**
+	 * Empties the log and starts a new generation. Called once a checkpoint of
+	 * that generation holds every edit logged so far.
+	 *
+	 * @param generation the generation of the new checkpoint
+	 * @throws IOException if the log cannot be truncated
+	 */
+	public synchronized void reset(long generation) throws IOException {
+		this.discardPending();
+		this.generation = generation;
+		this.channel.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putLong(generation).flip();
+		this.channel.write(header, 0);
+		this.channel.force(false);
+		this.channel.position(HEADER_SIZE);
+	}
+
+	/**
+	 * @return the generation of the checkpoint this log applies to
+	 */
+	public synchronized long generation() {
+		return this.generation;
+	}
+
+	/**
+	 * Stops the interval commits, commits any pending records and closes the
+	 * file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.intervalCommits != null) {
+			this.intervalCommits.cancel(false);
+		}
+		try {
+			this.commit();
+		} finally {
+			this.channel.close();
+		}
+	}
+
+	private void recorded() throws IOException {
+		this.pending++;
+		if (this.pending >= this.batchSize) {
+			this.commit();
+		}
+	}
+
+	/**
+	 * Makes room for a record of the given size in the staged frame.
+	 */
+	private void reserve(int recordSize) throws IOException {
+		this.checkFailure();
+		if (this.buffer.remaining() < recordSize) {
+			this.writeFrame();
+		}
+	}
+
+	/**
+	 * Run by the syncer every syncIntervalMillis. A failure is kept for the
+	 * appending thread, since there is no one to report it to here.
+	 */
+	private synchronized void intervalCommit() {
+		if (this.pending == 0 || this.failure != null || !this.channel.isOpen()) {
+			return;
+		}
+		try {
+			this.commit();
+		} catch (IOException e) {
+			this.failure = e;
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException e = this.failure;
+		if (e != null) {
+			this.failure = null;
+			throw e;
+		}
+	}
+
+	private static synchronized ScheduledExecutorService syncer() {
+		if (syncer == null) {
+			syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "EditLog syncer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return syncer;
+	}
+
+	/**
+	 * Writes the staged records as one frame, without forcing it.
+	 */
+	private void writeFrame() throws IOException {
+		int length = this.buffer.position() - FRAME_HEADER_SIZE;
+		if (length == 0) {
+			return;
+		}
+		this.crc.reset();
+		ByteBuffer payload = this.buffer.duplicate();
+		payload.position(FRAME_HEADER_SIZE).limit(FRAME_HEADER_SIZE + length);
+		this.crc.update(payload);
+		this.buffer.putInt(0, length);
+		this.buffer.putInt(4, (int) this.crc.getValue());
+		this.buffer.flip();
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+		this.buffer.position(FRAME_HEADER_SIZE);
+	}
+
+	private void discardPending() {
+		this.buffer.clear();
+		this.buffer.position(FRAME_HEADER_SIZE);
+		this.pending = 0;
+		this.failure = null;
+	}
+
+	private boolean readFully(ByteBuffer dst, long position) throws IOException {
+		dst.clear();
+		while (dst.hasRemaining()) {
+			if (this.channel.read(dst, position + dst.position()) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int applyRecords(ByteBuffer payload, EditTree tree) throws IOException {
+		int applied = 0;
+		payload.rewind();
+		while (payload.hasRemaining()) {
+			byte op = payload.get();
+			if (op == ADD) {
+				int pos = payload.getInt();
+				tree.add(payload.getChar(), pos);
+			} else if (op == DELETE) {
+				tree.delete(payload.getInt());
+			} else if (op == APPEND) {
+				char[] chars = new char[payload.getInt()];
+				payload.asCharBuffer().get(chars);
+				payload.position(payload.position() + chars.length * Character.BYTES);
+				tree.append(CharBuffer.wrap(chars));
+			} else if (op == MOVE) {
+				tree.move(payload.getInt(), payload.getInt(), payload.getInt());
+			} else if (op == DUPLICATE) {
+				tree.duplicate(payload.getInt(), payload.getInt(), payload.getInt());
+			} else if (op == REVERSE) {
+				tree.reverse(payload.getInt(), payload.getInt());
+			} else if (op == MAP_CASE) {
+				int pos = payload.getInt();
+				int length = payload.getInt();
+				int ordinal = payload.get();
+				if (ordinal < 0 || ordinal >= CASE_MAPS.length) {
+					throw new IOException("Corrupt edit log: unknown case map " + ordinal);
+				}
+				tree.mapRange(pos, length, CASE_MAPS[ordinal]);
+			} else {
+				throw new IOException("Corrupt edit log: unknown record type " + op);
+			}
+			applied++;
+		}
+		return applied;
+	}
+}
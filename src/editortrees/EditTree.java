@@ -1,6 +1,28 @@
 package editortrees;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A height-balanced binary tree with rank that could be the basis for a text
@@ -9,12 +31,40 @@ import java.util.Stack;
  * @author Qingyuan Jiao
  * @author Yao Xiong
  */
-public class EditTree {
+public class EditTree implements RankTree {
 
 	Node root;
 	private int size;
 	private int rotationCount;
 	private AdjustionInfo info = new AdjustionInfo('\0', true, 0);
+	private ByteBuffer saveBuffer; // allocated on the first save, then reused
+	private ChunkStore chunkStore; // where saveIncremental() last saved to
+	TreeValidator sampler; // checks a random path every few edits, if set
+	private CharCounter counter; // the chars countBefore() and select() work for
+	private MarkerTree markers; // created by the first addMarker()
+	private AttributeRuns attributes; // created by the first setAttribute()
+	private int modCount; // bumped by every change to the text or the nodes
+	// The right spine, root first, kept by appends while spineMod == modCount.
+	private Node[] spine;
+	private int spineDepth;
+	private int spineMod = -1;
+	// The path of the last get(pos), root first, with the positions each
+	// node's subtree starts and ends at and, above lastTagDepth, the tags that
+	// apply to it (see Node.under()), kept while lastMod == modCount. No tags
+	// apply to the nodes from lastTagDepth down.
+	private Node[] lastPath;
+	private int[] lastStart, lastEnd;
+	private byte[] lastTags;
+	private int lastTagDepth;
+	private int lastDepth;
+	private int lastMod = -1;
+
+	// Size in bytes of the direct buffer used by saveTo(), which bounds the
+	// extra memory a save needs regardless of the document size.
+	private static final int SAVE_BUFFER_SIZE = 1 << 16;
+
+	// Source of the epochs copied trees take; see EditTree(EditTree).
+	private static final AtomicInteger EPOCHS = new AtomicInteger();
 
 	/**
 	 * MILESTONE 1 Construct an empty tree
@@ -37,22 +87,54 @@ public class EditTree {
 	}
 
 	/**
-	 * MILESTONE 2 Make this tree be a copy of e, with all new nodes, but the same
-	 * shape and contents. You can write this one recursively, but you may not want
-	 * your helper to be in the Node class.
+	 * MILESTONE 2 Make this tree be a copy of e, with the same shape, contents
+	 * and rotation count, in O(1) time. The two trees share all their nodes;
+	 * each gets a new epoch, so neither changes a shared node in place, but
+	 * copies it on its first change (see Node.own()). An edit after a copy thus
+	 * copies the O(log n) nodes it touches, and the trees only drift apart as
+	 * far as they are edited. The copy does not inherit e's node pool.
 	 * 
 	 * @param e
 	 */
 	public EditTree(EditTree e) {
-		this.root = e.copyNode(e.root);
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		this.root = e.root;
 		this.size = e.size;
+		this.rotationCount = e.rotationCount;
+		this.counter = e.counter;
+		e.modCount++;
+		e.info.epoch = EPOCHS.incrementAndGet();
+		this.info.epoch = EPOCHS.incrementAndGet();
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.COPY, 0, this.size, start);
+		}
 	}
 
+	/**
+	 * Wraps an already built tree, such as one read back from a snapshot.
+	 * 
+	 * @param root          root of the tree
+	 * @param size          number of nodes reachable from root
+	 * @param rotationCount rotations already done on the tree
+	 */
+	EditTree(Node root, int size, int rotationCount) {
+		this.root = root;
+		this.size = size;
+		this.rotationCount = rotationCount;
+	}
+
+	/**
+	 * Makes a deep copy of the subtree rooted at n, recursively.
+	 */
 	public Node copyNode(Node n) {
 		if (n == Node.NULL_NODE) {
 			return Node.NULL_NODE;
 		}
 		Node newNode = new Node(n.data, n.left, n.right, n.rank, n.balance);
+		if (n.summary != null) {
+			newNode.summary = n.summary.copy();
+		}
+		newNode.tags = n.tags;
 		newNode.left = copyNode(n.left);
 		newNode.right = copyNode(n.right);
 		return newNode;
@@ -66,9 +148,717 @@ public class EditTree {
 	 * @param s
 	 */
 	public EditTree(String s) {
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
 		this.root = Node.NULL_NODE;
 		this.root = this.root.buildFromString(s);
 		this.size = s.length();
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.BUILD, 0, this.size, start);
+		}
+	}
+
+	/**
+	 * Returns a hash of this tree's text, the same for any two trees with the
+	 * same text (see RollingHash). Each subtree's hash is kept in its root and
+	 * only recomputed after an edit below it, so this takes O(k log n) time
+	 * after k edits and O(1) time if nothing changed.
+	 * 
+	 * @return the hash of toString()
+	 */
+	public long contentHash() {
+		this.settle();
+		this.root.updateHash();
+		return this.root.summary.hash;
+	}
+
+	/**
+	 * Returns the hash of the text get(pos, length) returns, in O(log n) time
+	 * on top of updating stale subtree hashes. Equal ranges have equal hashes,
+	 * in this tree or any other.
+	 * 
+	 * @param pos    start of the range
+	 * @param length length of the range
+	 * @return the hash of get(pos, length), which equals contentHash() of a
+	 *         tree holding just that text
+	 * @throws IndexOutOfBoundsException unless the range is within the tree
+	 */
+	public long rangeHash(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos > this.size - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.settle();
+		return this.root.hashRange(pos, length, this.size, 0);
+	}
+
+	/**
+	 * Compares the text of this tree with other's. Trees whose sizes or
+	 * contentHash() differ are told apart without reading their text; equal
+	 * hashes are confirmed by comparing the text.
+	 * 
+	 * @param other tree to compare with
+	 * @return true iff this.toString() equals other.toString()
+	 */
+	public boolean contentEquals(EditTree other) {
+		if (this.size != other.size || this.contentHash() != other.contentHash()) {
+			return false;
+		}
+		return this == other || this.toString().equals(other.toString());
+	}
+
+	/**
+	 * Returns an edit script that turns this tree's text into other's. Only the
+	 * regions where the texts differ are read; the rest is skipped by
+	 * comparing range hashes (see TreeDiff), so after a few edits this takes
+	 * O(log^2 n) time per changed region, plus hashing any subtrees either tree
+	 * has not hashed yet.
+	 * 
+	 * @param other the tree to diff against
+	 * @return the edits, in order of position; see DiffEdit
+	 */
+	public List<DiffEdit> diff(EditTree other) {
+		return TreeDiff.diff(this, other);
+	}
+
+	/**
+	 * Makes countBefore() and select() work for the given chars, by keeping
+	 * per-subtree counts of each of them (see CharCounter). The counts are
+	 * brought up to date by the next query, which takes O(n) time the first
+	 * time and O(k log n) time after k edits.
+	 * 
+	 * @param chars the chars to count, or "" to stop counting
+	 */
+	public void trackCharacters(String chars) {
+		this.counter = chars.isEmpty() ? null : new CharCounter(chars);
+	}
+
+	/**
+	 * @param c   a char passed to trackCharacters()
+	 * @param pos a position from 0 to size(), inclusive
+	 * @return the number of occurrences of c before pos
+	 * @throws IllegalArgumentException  if c is not tracked
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public int countBefore(char c, int pos) {
+		int i = this.trackedIndex(c);
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.settle();
+		int count = 0;
+		Node n = this.root;
+		while (n != Node.NULL_NODE) {
+			if (pos <= n.rank) {
+				n = n.left;
+			} else {
+				count += n.left.counts(this.counter)[i];
+				if (n.data == c) {
+					count++;
+				}
+				pos -= n.rank + 1;
+				n = n.right;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param c a char passed to trackCharacters()
+	 * @param k which occurrence to find, counting from 0
+	 * @return the position of the k-th occurrence of c, or -1 if c occurs k
+	 *         times or fewer
+	 * @throws IllegalArgumentException  if c is not tracked
+	 * @throws IndexOutOfBoundsException if k is negative
+	 */
+	public int select(char c, int k) {
+		int i = this.trackedIndex(c);
+		if (k < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.settle();
+		if (k >= this.root.counts(this.counter)[i]) {
+			return -1;
+		}
+		int pos = 0;
+		Node n = this.root;
+		while (true) {
+			int inLeft = n.left.counts(this.counter)[i];
+			if (k < inLeft) {
+				n = n.left;
+			} else {
+				k -= inLeft;
+				if (n.data == c && k-- == 0) {
+					return pos + n.rank;
+				}
+				pos += n.rank + 1;
+				n = n.right;
+			}
+		}
+	}
+
+	/**
+	 * Finds the bracket matching the one at pos: for an opening (, [ or {, the
+	 * first closing bracket of its kind after pos that is not closed by
+	 * another; for a closing one, likewise backwards. Runs in O(log n) time,
+	 * once the per-subtree bracket depths are current (see BracketIndex),
+	 * which takes O(n) time the first time and O(k log n) after k edits.
+	 * 
+	 * @param pos position of a bracket
+	 * @return the position of the matching bracket, or -1 if the char at pos
+	 *         is not a bracket or has no match
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public int matchingBracket(int pos) throws IndexOutOfBoundsException {
+		char c = this.get(pos);
+		if (BracketIndex.family(c) < 0) {
+			return -1;
+		}
+		this.settle();
+		return BracketIndex.match(this.root, this.size, pos, c);
+	}
+
+	/**
+	 * Returns the nesting depth at pos: the number of opening brackets before
+	 * pos minus the number of closing ones, all three kinds together. Runs in
+	 * O(log n) time like matchingBracket().
+	 * 
+	 * @param pos a position from 0 to size(), inclusive
+	 * @return the depth, which is negative where closing brackets outnumber
+	 *         opening ones
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public int depthAt(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.settle();
+		int depth = 0;
+		Node n = this.root;
+		while (n != Node.NULL_NODE) {
+			if (pos <= n.rank) {
+				n = n.left;
+			} else {
+				int[] b = n.left.brackets();
+				for (int f = 0; f < BracketIndex.FAMILIES; f++) {
+					depth += b[2 * f] + BracketIndex.delta(n.data, f);
+				}
+				pos -= n.rank + 1;
+				n = n.right;
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Adds a marker at pos that moves with the text around it; see Marker.
+	 * Every add and delete then moves all of this tree's markers in O(log m)
+	 * time, where m is the number of markers. setText() moves the markers past
+	 * the end of the new text to its end. A copy of this tree has no markers.
+	 * 
+	 * @param pos     a position from 0 to size(), inclusive
+	 * @param gravity the side of text added at pos that the marker ends up on
+	 * @return the new marker
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public Marker addMarker(int pos, Marker.Gravity gravity) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (this.markers == null) {
+			this.markers = new MarkerTree();
+		}
+		return this.markers.add(pos, gravity);
+	}
+
+	/**
+	 * Removes a marker from this tree. It keeps the offset it had.
+	 * 
+	 * @param marker a marker added to this tree and not removed yet
+	 * @throws IllegalArgumentException if it is not
+	 */
+	public void removeMarker(Marker marker) {
+		if (marker.owner == null || marker.owner != this.markers) {
+			throw new IllegalArgumentException();
+		}
+		this.markers.remove(marker);
+	}
+
+	/**
+	 * @return the number of markers on this tree
+	 */
+	public int markerCount() {
+		return this.markers == null ? 0 : this.markers.count();
+	}
+
+	/**
+	 * Finds the markers in a range, in O(log m + k) time for k markers found.
+	 * 
+	 * @param pos    start of the range
+	 * @param length length of the range
+	 * @return the markers whose offsets are from pos to pos + length,
+	 *         exclusive, in order of offset
+	 */
+	public List<Marker> markersInRange(int pos, int length) {
+		if (this.markers == null) {
+			return new ArrayList<Marker>();
+		}
+		return this.markers.inRange(pos, length);
+	}
+
+	/**
+	 * Gives the characters from pos to pos + length, exclusive, an attribute
+	 * value, such as a style, in O(log r) time for r runs of equal value,
+	 * however many runs the range covered. A char added to the text takes the
+	 * value of the char before it (or of the first char, at the start), and
+	 * edits keep every run in place in O(log r) time. setText() clears all
+	 * values. A copy of this tree has no values.
+	 * 
+	 * @param pos    start of the range
+	 * @param length length of the range
+	 * @param value  the new value, or null to clear it
+	 * @throws IndexOutOfBoundsException if the range is not within the tree
+	 */
+	public void setAttribute(int pos, int length, Object value) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos > this.size - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (length == 0) {
+			return;
+		}
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		if (this.attributes == null) {
+			this.attributes = new AttributeRuns(this.size);
+		}
+		this.attributes.set(pos, length, value);
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.ATTRIBUTE, pos, length, start);
+		}
+	}
+
+	/**
+	 * @param pos a position in this tree
+	 * @return the attribute value of the char at pos, or null if it has none
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public Object attributeAt(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return this.attributes == null ? null : this.attributes.get(pos);
+	}
+
+	/**
+	 * Lists the runs of equal attribute value in a range, in O(log r + k) time
+	 * for k runs found. The first and last runs are cut to the range.
+	 * 
+	 * @param pos    start of the range
+	 * @param length length of the range
+	 * @return the runs, in order, covering the range exactly
+	 * @throws IndexOutOfBoundsException if the range is not within the tree
+	 */
+	public List<AttributeRun> runs(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos > this.size - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		List<AttributeRun> runs = new ArrayList<AttributeRun>();
+		if (length == 0) {
+			return runs;
+		}
+		if (this.attributes == null) {
+			runs.add(new AttributeRun(pos, length, null));
+		} else {
+			this.attributes.collect(pos, pos + length, runs);
+		}
+		return runs;
+	}
+
+	/**
+	 * Reverses the text from pos to pos + length, exclusive, in O(log n) time
+	 * whatever the length: the range is split off, tagged as reversed and
+	 * joined back (see Node.push()). The tags are applied lazily, by the edits
+	 * and reads that later pass through the range: add() and delete() push
+	 * the tags on their paths, and get() and toString() read through them. A
+	 * query that needs per-subtree summaries, such as contentHash(),
+	 * countBefore() or a save, pushes the tags that are left, which takes
+	 * time in the size of the tagged ranges rather than of the tree (see
+	 * Node.pushPending()). Attribute runs in the
+	 * range are reversed along with the text, in O(k log r) time for k runs;
+	 * markers stay where they are.
+	 * 
+	 * @param pos    start of the range
+	 * @param length length of the range
+	 * @throws IndexOutOfBoundsException if the range is not within the tree
+	 */
+	public void reverse(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos > this.size - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (length < 2) {
+			return;
+		}
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		this.transform(pos, length, true, null);
+		if (this.attributes != null) {
+			int end = pos + length;
+			for (AttributeRun run : this.runs(pos, length)) {
+				end -= run.length;
+				this.attributes.set(end, run.length, run.value);
+			}
+		}
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.REVERSE, pos, length, start);
+		}
+	}
+
+	/**
+	 * Changes the case of the text from pos to pos + length, exclusive, in
+	 * O(log n) time whatever the length, lazily like reverse().
+	 * 
+	 * @param pos    start of the range
+	 * @param length length of the range
+	 * @param map    the case to change to
+	 * @throws IndexOutOfBoundsException if the range is not within the tree
+	 */
+	public void mapRange(int pos, int length, CaseMap map) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos > this.size - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (length == 0) {
+			return;
+		}
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		this.transform(pos, length, false, map);
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.MAP, pos, length, start);
+		}
+	}
+
+	private void transform(int pos, int length, boolean reverse, CaseMap map) {
+		info.reset();
+		this.root.split(this.size, this.root.fastHeight(), pos, info);
+		Node before = info.low;
+		info.high.split(this.size - pos, info.highHeight, length, info);
+		Node range = info.low.tag(reverse, map, info);
+		Node after = info.high;
+		Node joined = this.concat(before, pos, range, length);
+		this.root = this.concat(joined, pos + length, after, this.size - pos - length);
+		this.rotationCount += info.rCount;
+		this.modCount++;
+		if (this.sampler != null) {
+			this.sampler.edited(this.root, this.size);
+		}
+	}
+
+	/**
+	 * Moves the text from `from` to from + length, exclusive, so that it
+	 * starts at to, by splitting it off and joining it back in elsewhere. This
+	 * takes O(log n) time however long the text is. Markers strictly inside
+	 * the text move with it; the others move as they would if the text were
+	 * deleted and added again. Attribute runs move with the text.
+	 * 
+	 * @param from   start of the text to move
+	 * @param length length of the text to move
+	 * @param to     where the text starts afterwards, from 0 to size() -
+	 *               length, inclusive
+	 * @throws IndexOutOfBoundsException if the text is not within the tree or
+	 *                                   to is out of range
+	 */
+	public void move(int from, int length, int to) throws IndexOutOfBoundsException {
+		if (from < 0 || length < 0 || from > this.size - length || to < 0 || to > this.size - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (length == 0 || from == to) {
+			return;
+		}
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		info.reset();
+		this.root.split(this.size, this.root.fastHeight(), from, info);
+		Node before = info.low;
+		info.high.split(this.size - from, info.highHeight, length, info);
+		Node block = info.low;
+		int restSize = this.size - length;
+		Node rest = this.concat(before, from, info.high, restSize - from);
+		rest.split(restSize, rest.fastHeight(), to, info);
+		Node after = info.high;
+		Node joined = this.concat(info.low, to, block, length);
+		this.root = this.concat(joined, to + length, after, restSize - to);
+		this.rotationCount += info.rCount;
+		this.modCount++;
+		if (this.markers != null) {
+			this.markers.moved(from, from + length, to);
+		}
+		if (this.attributes != null) {
+			this.attributes.moved(from, length, to);
+		}
+		if (this.sampler != null) {
+			this.sampler.edited(this.root, this.size);
+		}
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.MOVE, from, length, start);
+		}
+	}
+
+	/**
+	 * Adds a copy of the text from `from` to from + length, exclusive, at to,
+	 * in O(log n) time however long the text is. The copy is not a copy of
+	 * the nodes: the subtree holding the text is split off and joined in at
+	 * both places. Its root is marked SHARED (see Node.share()), so its nodes
+	 * are copied before either place changes them, while the rest of the tree
+	 * is still changed in place. Markers move as they would for text added at
+	 * to; the attribute runs of the text are copied along with it.
+	 * 
+	 * @param from   start of the text to copy
+	 * @param length length of the text to copy
+	 * @param to     where to add the copy, from 0 to size(), inclusive
+	 * @throws IndexOutOfBoundsException if the text is not within the tree or
+	 *                                   to is out of range
+	 */
+	public void duplicate(int from, int length, int to) throws IndexOutOfBoundsException {
+		if (from < 0 || length < 0 || from > this.size - length || to < 0 || to > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (length == 0) {
+			return;
+		}
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		info.reset();
+		this.root.split(this.size, this.root.fastHeight(), from, info);
+		Node before = info.low;
+		info.high.split(this.size - from, info.highHeight, length, info);
+		Node block = info.low;
+		Node after = info.high;
+		// From here on the block is reachable twice, so neither place may
+		// change its nodes in place.
+		block.share();
+		Node whole = this.concat(this.concat(before, from, block, length), from + length, after,
+				this.size - from - length);
+		whole.split(this.size, whole.fastHeight(), to, info);
+		after = info.high;
+		Node joined = this.concat(info.low, to, block, length);
+		this.root = this.concat(joined, to + length, after, this.size - to);
+		this.size += length;
+		this.rotationCount += info.rCount;
+		this.modCount++;
+		if (this.markers != null) {
+			this.markers.added(to, length);
+		}
+		if (this.attributes != null) {
+			this.attributes.duplicated(from, length, to);
+		}
+		if (this.sampler != null) {
+			this.sampler.edited(this.root, this.size);
+		}
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.DUPLICATE, from, length, start);
+		}
+	}
+
+	/**
+	 * @return the root of a tree holding the chars of a followed by those of
+	 *         b, joined around the first node of b
+	 */
+	private Node concat(Node a, int aSize, Node b, int bSize) {
+		if (bSize == 0) {
+			return a;
+		}
+		b.split(bSize, b.fastHeight(), 1, info);
+		Node first = info.low;
+		Node rest = info.high;
+		return Node.join(a, aSize, a.fastHeight(), first, rest, bSize - 1, info.highHeight, info);
+	}
+
+	/**
+	 * Readies the nodes for the methods that read them directly: pushes the
+	 * tags that are left down, and drops the right spine kept by appends,
+	 * since those methods may bring its summaries up to date again (see
+	 * appendToSpine()).
+	 */
+	private void settle() {
+		if (this.root.tags != 0) {
+			this.root = this.root.pushPending(this.size, this.info);
+			this.modCount++;
+		}
+		this.spineMod = -1;
+	}
+
+	/**
+	 * Adds the chars of s at the end of this tree, in O(k + log n) time for k
+	 * chars: they are built into a tree of their own, as by EditTree(String),
+	 * which is then joined on.
+	 * 
+	 * @param s the chars to add
+	 */
+	public void append(CharSequence s) {
+		int length = s.length();
+		if (length == 0) {
+			return;
+		}
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		info.reset();
+		Node tail = Node.build(s, 0, length, info);
+		int pos = this.size;
+		this.root = this.concat(this.root, pos, tail, length);
+		this.size += length;
+		this.rotationCount += info.rCount;
+		this.modCount++;
+		if (this.markers != null) {
+			this.markers.added(pos, length);
+		}
+		if (this.attributes != null) {
+			this.attributes.added(pos, length);
+		}
+		if (this.sampler != null) {
+			this.sampler.edited(this.root, this.size);
+		}
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.APPEND, pos, length, start);
+		}
+	}
+
+	/**
+	 * Adds ch at the end of this tree through the cached right spine, in
+	 * amortized O(1) time over a run of appends. The new node hangs from the
+	 * last node of the spine, and the balance codes are fixed from there up,
+	 * as in Node.add(), which stops after O(1) nodes on average; the only
+	 * rotation an append can need is a single left rotation, which takes one
+	 * node off the spine.
+	 * 
+	 * Building the spine costs O(log n): it copies the nodes shared with other
+	 * trees, pushes their tags and marks them all changed. After that, the nodes an append links
+	 * or rotates are marked changed by Node itself, and the spine stays marked
+	 * until something else changes the tree or reads the summaries of its
+	 * nodes, which is what spineMod is checked for.
+	 */
+	private void appendToSpine(char ch) {
+		if (this.spineMod != this.modCount) {
+			this.buildSpine();
+		}
+		Node n = info.pool == null ? new Node(ch) : info.pool.take(ch);
+		n.epoch = info.epoch;
+		int depth = this.spineDepth;
+		if (depth == this.spine.length) {
+			this.spine = Arrays.copyOf(this.spine, 2 * depth);
+		}
+		this.spine[depth] = n;
+		this.spineDepth = depth + 1;
+		if (depth == 0) {
+			this.root = n;
+		} else {
+			this.spine[depth - 1].right = n;
+			for (int i = depth - 1; i >= 0; i--) {
+				Node p = this.spine[i];
+				info.depth++;
+				if (p.balance == Node.Code.LEFT) {
+					p.balance = Node.Code.SAME;
+					break;
+				} else if (p.balance == Node.Code.SAME) {
+					p.balance = Node.Code.RIGHT;
+				} else { // p.right grew and leans right too
+					info.rotated(AdjustionInfo.SINGLE_LEFT);
+					Node r = p.SLRotate();
+					if (i == 0) {
+						this.root = r;
+					} else {
+						this.spine[i - 1].right = r;
+					}
+					System.arraycopy(this.spine, i + 1, this.spine, i, this.spineDepth - i - 1);
+					this.spineDepth--;
+					break;
+				}
+			}
+		}
+		this.modCount++;
+		this.spineMod = this.modCount;
+	}
+
+	private void buildSpine() {
+		if (this.spine == null) {
+			this.spine = new Node[64];
+		}
+		int depth = 0;
+		int size = this.size;
+		Node parent = null;
+		for (Node n = this.root; n != Node.NULL_NODE; n = n.right) {
+			n = n.push(size, info);
+			size -= n.rank + 1;
+			n.changed();
+			if (parent == null) {
+				this.root = n;
+			} else {
+				parent.right = n;
+			}
+			if (depth == this.spine.length) {
+				this.spine = Arrays.copyOf(this.spine, 2 * depth);
+			}
+			this.spine[depth++] = n;
+			parent = n;
+		}
+		this.spineDepth = depth;
+		this.spineMod = this.modCount;
+	}
+
+	private int trackedIndex(char c) {
+		int i = this.counter == null ? -1 : this.counter.indexOf(c);
+		if (i < 0) {
+			throw new IllegalArgumentException("'" + c + "' is not tracked");
+		}
+		return i;
+	}
+
+	/**
+	 * Makes this tree recycle the nodes its deletes unlink, keeping up to
+	 * capacity of them for later adds; see NodePool. A copy of this tree does
+	 * not inherit the pool.
+	 * 
+	 * @param capacity most nodes to keep, or 0 to stop recycling
+	 */
+	public void enableNodePool(int capacity) {
+		this.info.pool = capacity == 0 ? null : new NodePool(capacity);
+	}
+
+	/**
+	 * @return this tree's node pool, or null if it does not recycle nodes
+	 */
+	public NodePool nodePool() {
+		return this.info.pool;
+	}
+
+	/**
+	 * Replaces the contents of this tree with s, in O(N) time like
+	 * EditTree(String). If this tree recycles nodes, the old nodes go to its
+	 * pool and the new tree is built from it.
+	 * 
+	 * @param s the new contents
+	 */
+	public void setText(String s) {
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		NodePool pool = this.info.pool;
+		if (pool != null) {
+			Stack<Node> unlinked = new Stack<Node>();
+			unlinked.push(this.root);
+			while (!unlinked.isEmpty() && pool.size() < pool.capacity()) {
+				Node n = unlinked.pop();
+				// Nodes of other epochs are shared with a copy of this tree,
+				// and so are their subtrees.
+				if (n != Node.NULL_NODE && n.epoch == this.info.epoch) {
+					unlinked.push(n.left);
+					unlinked.push(n.right);
+					pool.give(n);
+				}
+			}
+		}
+		this.root = Node.NULL_NODE;
+		if (!s.isEmpty()) {
+			this.root = this.root.buildFromString(s, this.info);
+		}
+		this.size = s.length();
+		this.modCount++;
+		if (this.markers != null) {
+			this.markers.clamp(this.size);
+		}
+		this.attributes = null;
+		if (start != 0) {
+			EditTreeMetrics.bulk(EditTreeMetrics.BUILD, 0, this.size, start);
+		}
 	}
 
 	/**
@@ -76,7 +866,10 @@ public class EditTree {
 	 */
 	@Override
 	public String toString() {
-		String str = "";
+		if (this.root.tags != 0) {
+			return this.get(0, this.size);
+		}
+		StringBuilder str = new StringBuilder(this.size);
 		Stack<Node> inOrder = new Stack<Node>();
 		Node n = this.root;
 		while(n != Node.NULL_NODE) {
@@ -85,7 +878,7 @@ public class EditTree {
 		}
 		while(!inOrder.isEmpty()) {
 			Node curr = inOrder.pop();
-			str += curr.data;
+			str.append(curr.data);
 			if (curr.right != Node.NULL_NODE) {
 				inOrder.push(curr.right);
 				Node leftSub = curr.right.left;
@@ -96,7 +889,7 @@ public class EditTree {
 			}
 		}
 
-		return str; 
+		return str.toString(); 
 	}
 
 	/**
@@ -134,11 +927,29 @@ public class EditTree {
 		if (pos > this.size || pos < 0) {
 			throw new IndexOutOfBoundsException();
 		} 
-		info.traceUp = true;
-		info.rCount = 0;
-		this.root = this.root.add(ch, pos, info);
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		info.reset();
+		if (pos == this.size) {
+			this.appendToSpine(ch);
+		} else {
+			this.root = this.root.pushPath(pos, this.size, true, info);
+			this.root = this.root.add(ch, pos, info);
+			this.modCount++;
+		}
 		this.size++; 
 		this.rotationCount += info.rCount;
+		if (this.markers != null) {
+			this.markers.added(pos, 1);
+		}
+		if (this.attributes != null) {
+			this.attributes.added(pos, 1);
+		}
+		if (this.sampler != null) {
+			this.sampler.edited(this.root, this.size);
+		}
+		if (start != 0) {
+			EditTreeMetrics.edited(EditTreeMetrics.ADD, pos, info, start);
+		}
 	}
 
 	/**
@@ -155,6 +966,7 @@ public class EditTree {
 	 *         the tree.
 	 */
 	public String toRankString() {
+		this.settle();
 		Stack<Node> preOrder = new Stack<Node>();
 		String str = "[";
 		preOrder.push(this.root);
@@ -185,7 +997,97 @@ public class EditTree {
 		if (pos >= this.size || pos < 0) {
 			throw new IndexOutOfBoundsException();
 		}
-		return this.root.get(pos);
+		return this.getNear(pos);
+	}
+
+	/**
+	 * Finds the char at pos starting from the path of the last call, which
+	 * stays valid until the next change to the tree: it climbs to the lowest
+	 * node whose subtree holds pos, and goes down from there. A loop of
+	 * get(i) for consecutive i thus walks the tree in order, in amortized O(1)
+	 * time per char, and a get near the last one only climbs as far as they
+	 * are apart. Tags are read through on the way, not pushed, so the path
+	 * stays valid after a reverse() or mapRange().
+	 */
+	private char getNear(int pos) {
+		int depth;
+		if (this.lastMod == this.modCount) {
+			depth = this.lastDepth;
+			while (pos < this.lastStart[depth - 1] || pos >= this.lastEnd[depth - 1]) {
+				depth--;
+			}
+		} else {
+			if (this.lastPath == null) {
+				// AVL trees of fewer than 2^31 nodes are less than 46 high.
+				this.lastPath = new Node[64];
+				this.lastStart = new int[64];
+				this.lastEnd = new int[64];
+				this.lastTags = new byte[64];
+			}
+			this.lastPath[0] = this.root;
+			this.lastStart[0] = 0;
+			this.lastEnd[0] = this.size;
+			this.lastTags[0] = (byte) Node.under(0, this.root.tags);
+			this.lastTagDepth = 1;
+			this.lastMod = this.modCount;
+			depth = 1;
+		}
+		Node n = this.lastPath[depth - 1];
+		int start = this.lastStart[depth - 1];
+		int end = this.lastEnd[depth - 1];
+		if (n.tags != 0 || (depth <= this.lastTagDepth && this.lastTags[depth - 1] != 0)) {
+			return this.getThroughTags(pos, depth, n, start, end);
+		}
+		this.lastTagDepth = Math.min(this.lastTagDepth, depth);
+		while (pos != start + n.rank) {
+			if (pos < start + n.rank) {
+				end = start + n.rank;
+				n = n.left;
+			} else {
+				start += n.rank + 1;
+				n = n.right;
+			}
+			this.lastPath[depth] = n;
+			this.lastStart[depth] = start;
+			this.lastEnd[depth] = end;
+			depth++;
+		}
+		this.lastDepth = depth;
+		return n.data;
+	}
+
+	/**
+	 * Goes on with getNear() below a node that may have tags applying to it
+	 * or below it, reading through the tags without pushing them.
+	 */
+	private char getThroughTags(int pos, int depth, Node n, int start, int end) {
+		for (int i = this.lastTagDepth; i < depth; i++) {
+			this.lastTags[i] = 0;
+		}
+		int tags = this.lastTags[depth - 1];
+		while (true) {
+			boolean reversed = (tags & Node.REVERSED) != 0;
+			int at = start + (reversed ? end - start - n.rank - 1 : n.rank);
+			if (pos == at) {
+				break;
+			} else if (pos < at) {
+				end = at;
+				n = reversed ? n.right : n.left;
+			} else {
+				start = at + 1;
+				n = reversed ? n.left : n.right;
+			}
+			tags = Node.under(tags, n.tags);
+			this.lastPath[depth] = n;
+			this.lastStart[depth] = start;
+			this.lastEnd[depth] = end;
+			this.lastTags[depth] = (byte) tags;
+			depth++;
+		}
+		this.lastDepth = depth;
+		this.lastTagDepth = depth;
+		CaseMap map = Node.map(tags);
+		return map == null ? n.data : map.apply(n.data);
 	}
 
 	// MILESTONE 1: They next two "slow" methods are useful for testing, debugging 
@@ -246,6 +1148,7 @@ public class EditTree {
 	 *         the tree.
 	 */
 	public String toDebugString() {
+		this.settle();
 		Stack<Node> preOrder = new Stack<Node>();
 		String str = "[";
 		preOrder.push(this.root);
@@ -293,6 +1196,30 @@ public class EditTree {
 		return res.bool; // replace by a real calculation.
 	}
 
+	/**
+	 * Checks every rank, every balance code and the size of this tree in one
+	 * pass, split over the common fork/join pool. Meant for health checks on
+	 * documents too large for ranksMatchLeftSubtreeSize() and
+	 * balanceCodesAreCorrect(). Do not edit the tree while this runs.
+	 * 
+	 * @return true iff all of this tree's invariants hold
+	 */
+	public boolean isConsistent() {
+		return TreeValidator.isConsistent(this.root, this.size);
+	}
+
+	/**
+	 * Makes every interval-th add, delete, append, reverse, mapRange, move or
+	 * duplicate check one random root-to-leaf path of this tree, in O(log n)
+	 * time; see TreeValidator. The edit whose check finds the tree corrupt throws an
+	 * IllegalStateException.
+	 * 
+	 * @param interval number of edits between checks, or 0 to stop checking
+	 */
+	public void enableSampledValidation(int interval) {
+		this.sampler = interval == 0 ? null : new TreeValidator(interval);
+	}
+
 	/**
 	 * MILESTONE 2 Only write this one once your balance codes are correct. It will
 	 * rely on correct balance codes to find the height of the tree in O(log n)
@@ -315,12 +1242,28 @@ public class EditTree {
 		if (pos >= this.size || pos < 0) {
 			throw new IndexOutOfBoundsException();
 		}
-		info.ch = '\0';
-		info.traceUp = true;
-		info.rCount = 0;
+		long start = EditTreeMetrics.on() ? System.nanoTime() : 0;
+		info.reset();
+		this.root = this.root.pushPath(pos, this.size, false, info);
 		this.root = this.root.delete(pos, info);
+		this.modCount++;
 		this.rotationCount += info.rCount;
 		this.size--;
+		if (this.markers != null) {
+			this.markers.deleted(pos);
+		}
+		if (this.attributes != null) {
+			this.attributes.deleted(pos);
+		}
+		if (info.pool != null) {
+			info.pool.give(info.removed);
+		}
+		if (this.sampler != null) {
+			this.sampler.edited(this.root, this.size);
+		}
+		if (start != 0) {
+			EditTreeMetrics.edited(EditTreeMetrics.DELETE, pos, info, start);
+		}
 		return info.ch; // replace by a real calculation.
 	}
 
@@ -343,8 +1286,208 @@ public class EditTree {
 		if (pos < 0 || length < 0) {
 			throw new IndexOutOfBoundsException();
 		}
+		if (this.root.tags != 0) {
+			StringBuilder sb = new StringBuilder(length);
+			this.root.appendRange(sb, pos, length, this.size, false, null);
+			return sb.toString();
+		}
 		return this.root.subString(pos, length);
 
 	}
 
+	/**
+	 * Writes the contents of this tree to path, encoded with charset. The
+	 * characters are streamed from an in-order walk through a reusable direct
+	 * buffer, so unlike writing toString() no String of the whole document is
+	 * built. The bytes go to a temporary file in the same directory, which is
+	 * then atomically moved over path, so a failed save leaves any previous file
+	 * untouched.
+	 * 
+	 * @param path    the file to write
+	 * @param charset the encoding to use. Unmappable characters are replaced, as
+	 *                in String.getBytes(Charset).
+	 * @throws IOException if the file cannot be written or moved into place
+	 */
+	public void saveTo(Path path, Charset charset) throws IOException {
+		Path dir = path.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				this.writeEncoded(channel, charset);
+				channel.force(true);
+			}
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Encodes the characters of this tree in order and writes them to channel.
+	 * Characters are gathered into a small CharBuffer and encoded into the save
+	 * buffer, which is written out whenever it fills up.
+	 */
+	private void writeEncoded(FileChannel channel, Charset charset) throws IOException {
+		if (this.saveBuffer == null) {
+			this.saveBuffer = ByteBuffer.allocateDirect(SAVE_BUFFER_SIZE);
+		}
+		ByteBuffer bytes = this.saveBuffer;
+		bytes.clear();
+		CharBuffer chars = CharBuffer.allocate(SAVE_BUFFER_SIZE / 4);
+		this.settle();
+		CharsetEncoder encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		Stack<Node> inOrder = new Stack<Node>();
+		Node n = this.root;
+		while (n != Node.NULL_NODE) {
+			inOrder.push(n);
+			n = n.left;
+		}
+		while (!inOrder.isEmpty()) {
+			Node curr = inOrder.pop();
+			chars.put(curr.data);
+			if (!chars.hasRemaining()) {
+				chars.flip();
+				encodeInto(encoder, chars, bytes, channel, false);
+				// A trailing high surrogate stays behind until its pair arrives.
+				chars.compact();
+			}
+			n = curr.right;
+			while (n != Node.NULL_NODE) {
+				inOrder.push(n);
+				n = n.left;
+			}
+		}
+		chars.flip();
+		encodeInto(encoder, chars, bytes, channel, true);
+		while (encoder.flush(bytes).isOverflow()) {
+			drain(bytes, channel);
+		}
+		drain(bytes, channel);
+	}
+
+	private static void encodeInto(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes,
+			FileChannel channel, boolean endOfInput) throws IOException {
+		CoderResult result = encoder.encode(chars, bytes, endOfInput);
+		while (result.isOverflow()) {
+			drain(bytes, channel);
+			result = encoder.encode(chars, bytes, endOfInput);
+		}
+	}
+
+	private static void drain(ByteBuffer bytes, FileChannel channel) throws IOException {
+		bytes.flip();
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+		bytes.clear();
+	}
+
+	/**
+	 * Writes a binary snapshot of this tree to out. Unlike the text written by
+	 * saveTo(), a snapshot records the exact shape of the tree, its balance codes
+	 * and its rotation count, so readSnapshot() restores a tree with the same
+	 * toDebugString() and totalRotationCount() without any rebalancing. The
+	 * stream is flushed but not closed.
+	 * 
+	 * @param out stream to write the snapshot to
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeSnapshot(OutputStream out) throws IOException {
+		this.settle();
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, SAVE_BUFFER_SIZE));
+		TreeSnapshot.write(this.root, this.size, this.rotationCount, data);
+		data.flush();
+	}
+
+	/**
+	 * Restores a tree written by writeSnapshot(). This is a single linear pass
+	 * that links the nodes up with their stored ranks and balance codes,
+	 * followed by a check that the codes match the restored shape. The stream
+	 * is buffered internally, so it may be read past the end of the snapshot.
+	 * It is not closed.
+	 * 
+	 * @param in stream positioned at the start of a snapshot
+	 * @return the restored tree
+	 * @throws IOException if the stream cannot be read or does not hold a valid
+	 *                     snapshot
+	 */
+	public static EditTree readSnapshot(InputStream in) throws IOException {
+		return TreeSnapshot.read(new DataInputStream(new BufferedInputStream(in, SAVE_BUFFER_SIZE)));
+	}
+
+	/**
+	 * Restores a tree written by writeSnapshot() from a buffer, such as a
+	 * MappedByteBuffer of a snapshot file, without going through a stream.
+	 * 
+	 * @param buffer big-endian buffer positioned at the start of a snapshot;
+	 *               it is left positioned after it
+	 * @return the restored tree
+	 * @throws IOException if the buffer does not hold a valid snapshot
+	 */
+	public static EditTree readSnapshot(ByteBuffer buffer) throws IOException {
+		return TreeSnapshot.read(buffer);
+	}
+
+	/**
+	 * Saves this tree to the chunked sidecar store whose index is at index (see
+	 * ChunkStore). Subtrees that have not changed since the previous save to
+	 * the same store are not written again, so the cost of a save is
+	 * proportional to the edits made since then rather than to the size of the
+	 * document. The first save to a store writes everything, unless the tree
+	 * was loaded from it with loadIncremental(). Compacting the
+	 * store's garbage is done in the background between saves. The store stays
+	 * open until closeIncremental(), or a save to some other store.
+	 * 
+	 * @param index path of the store's index file. Its data files are kept next
+	 *              to it.
+	 * @return the number of characters written to the store's data file
+	 * @throws IOException if the store cannot be written
+	 */
+	public long saveIncremental(Path index) throws IOException {
+		if (this.chunkStore != null && !this.chunkStore.isFor(index)) {
+			this.closeIncremental();
+		}
+		if (this.chunkStore == null) {
+			this.chunkStore = new ChunkStore(index);
+		}
+		this.settle();
+		return this.chunkStore.save(this.root, this.size);
+	}
+
+	/**
+	 * Loads a tree saved with saveIncremental(). Later incremental saves of the
+	 * returned tree go to the same store, and only write the chunks of subtrees changed since the load.
+	 * 
+	 * @param index path of the store's index file
+	 * @return the restored tree
+	 * @throws IOException if the store cannot be read
+	 */
+	public static EditTree loadIncremental(Path index) throws IOException {
+		ChunkStore store = new ChunkStore(index);
+		EditTree t = store.load();
+		t.chunkStore = store;
+		return t;
+	}
+
+	/**
+	 * Releases the store that saveIncremental() keeps open between saves: its
+	 * data file, and a compaction still running in the background, whose work
+	 * is discarded. Call it once done saving. The next saveIncremental() opens
+	 * the store again and writes everything.
+	 * 
+	 * @throws IOException if the data file cannot be closed
+	 */
+	public void closeIncremental() throws IOException {
+		if (this.chunkStore != null) {
+			try {
+				this.chunkStore.close();
+			} finally {
+				this.chunkStore = null;
+			}
+		}
+	}
+
 }
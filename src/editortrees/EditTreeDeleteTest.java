@@ -0,0 +1,62 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EditTreeDeleteTest {
+
+	@Test
+	public void testDeleteNulCharacters() {
+		EditTree t = new EditTree("a\0b\0c\0d");
+		assertEquals('\0', t.delete(3));
+		assertEquals("a\0bc\0d", t.toString());
+		assertEquals('\0', t.delete(1));
+		assertEquals('\0', t.delete(3));
+		assertEquals("abcd", t.toString());
+		t.add('\0', 2);
+		assertEquals('\0', t.delete(2));
+		assertEquals('d', t.delete(3));
+		assertTrue(t.balanceCodesAreCorrect());
+	}
+
+	@Test
+	public void testDeleteNulWithTwoChildren() {
+		// The root of a tree built from a String has two children.
+		EditTree t = new EditTree("xyz\0uvw");
+		assertEquals('\0', t.delete(3));
+		assertEquals("xyzuvw", t.toString());
+		assertEquals("[u3=, y1=, x0=, z0=, v0\\, w0=]", t.toDebugString());
+	}
+
+	@Test
+	public void testDeleteMatchesCompactTree() {
+		// CompactEditTree deletes by splicing in the successor node, so it
+		// checks the shapes and rotation counts of the single-pass delete.
+		EditTree t = new EditTree();
+		CompactEditTree compact = new CompactEditTree();
+		StringBuilder model = new StringBuilder();
+		Random random = new Random(38);
+		for (int i = 0; i < 5000; i++) {
+			char c = (char) random.nextInt(4);
+			t.add(c);
+			compact.add(c);
+			model.append(c);
+		}
+		for (int i = 0; i < 4000; i++) {
+			int pos = random.nextInt(model.length());
+			char expected = model.charAt(pos);
+			model.deleteCharAt(pos);
+			assertEquals(expected, t.delete(pos));
+			assertEquals(expected, compact.delete(pos));
+		}
+		assertEquals(model.toString(), t.toString());
+		assertEquals(compact.toDebugString(), t.toDebugString());
+		assertEquals(compact.totalRotationCount(), t.totalRotationCount());
+		assertTrue(t.ranksMatchLeftSubtreeSize());
+		assertTrue(t.balanceCodesAreCorrect());
+	}
+}
@@ -0,0 +1,316 @@
+package editortrees;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Process-wide counters, latency histograms and JDK Flight Recorder events for
+ * the operations of every EditTree. Everything is off by default; while it is
+ * off, an edit pays for one read of a static flag. Turn it on with
+ * setEnabled(true) or through the MBean registered by register().
+ *
+ * While enabled, each add, delete and bulk operation updates the counters and
+ * histograms here and emits an EditTreeEdit event, and each kind of rotation
+ * an add or delete caused emits an EditTreeRotation event. The bulk
+ * operations are building a tree from a String (the constructor and
+ * setText()), copying a tree, append(), move(), duplicate(), reverse(),
+ * mapRange() and setAttribute(); calls that change nothing, such as a move
+ * of no chars, are not recorded. Their rotations only show in
+ * EditTree.totalRotationCount(). The events only cost anything while a
+ * recording has them enabled.
+ */
+public class EditTreeMetrics implements EditTreeMetricsMBean {
+
+	static final String ADD = "add";
+	static final String DELETE = "delete";
+	static final String BUILD = "build";
+	static final String COPY = "copy";
+	static final String APPEND = "append";
+	static final String MOVE = "move";
+	static final String DUPLICATE = "duplicate";
+	static final String REVERSE = "reverse";
+	static final String MAP = "map";
+	static final String ATTRIBUTE = "attribute";
+
+	private static final String[] ROTATION_NAMES = { "single left", "single right", "double left",
+			"double right" };
+
+	private static volatile boolean enabled;
+
+	private static final EditTreeMetrics INSTANCE = new EditTreeMetrics();
+
+	private final LongAdder adds = new LongAdder();
+	private final LongAdder deletes = new LongAdder();
+	private final LongAdder bulks = new LongAdder();
+	private final LongAdder[] rotations = { new LongAdder(), new LongAdder(), new LongAdder(),
+			new LongAdder() };
+	private final LongAdder depthSum = new LongAdder();
+	private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+	private final LatencyHistogram addLatency = new LatencyHistogram();
+	private final LatencyHistogram deleteLatency = new LatencyHistogram();
+	private final LatencyHistogram bulkLatency = new LatencyHistogram();
+
+	private EditTreeMetrics() {
+	}
+
+	/**
+	 * @return the single instance, which is also the registered MBean
+	 */
+	public static EditTreeMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return true iff operations are currently being measured
+	 */
+	static boolean on() {
+		return enabled;
+	}
+
+	/**
+	 * Registers the MBean as editortrees:type=EditTreeMetrics with the platform
+	 * MBean server, if it is not registered yet.
+	 */
+	public static void register() throws JMException {
+		ObjectName name = new ObjectName("editortrees:type=EditTreeMetrics");
+		if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+		}
+	}
+
+	/**
+	 * Records a finished add or delete.
+	 *
+	 * @param operation ADD or DELETE
+	 * @param pos       position passed to the operation
+	 * @param info      the AdjustionInfo the operation filled in
+	 * @param start     System.nanoTime() when the operation started
+	 */
+	static void edited(String operation, int pos, AdjustionInfo info, long start) {
+		long latency = System.nanoTime() - start;
+		INSTANCE.record(operation, latency);
+		INSTANCE.depthSum.add(info.depth);
+		INSTANCE.maxDepth.accumulate(info.depth);
+		for (int type = 0; type < info.rotations.length; type++) {
+			if (info.rotations[type] > 0) {
+				INSTANCE.rotations[type].add(info.rotations[type]);
+				RotationEvent rotation = new RotationEvent();
+				if (rotation.shouldCommit()) {
+					rotation.type = ROTATION_NAMES[type];
+					rotation.count = info.rotations[type];
+					rotation.depth = info.depth;
+					rotation.position = pos;
+					rotation.commit();
+				}
+			}
+		}
+		EditEvent event = new EditEvent();
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.position = pos;
+			event.depth = info.depth;
+			event.rotations = info.rCount;
+			event.latency = latency;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Records a finished bulk operation.
+	 *
+	 * @param operation one of the operation names other than ADD and DELETE
+	 * @param pos       position of the range involved, or 0 for the whole text
+	 * @param length    number of characters involved
+	 * @param start     System.nanoTime() when the operation started
+	 */
+	static void bulk(String operation, int pos, int length, long start) {
+		long latency = System.nanoTime() - start;
+		INSTANCE.record(operation, latency);
+		EditEvent event = new EditEvent();
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.position = pos;
+			event.length = length;
+			event.latency = latency;
+			event.commit();
+		}
+	}
+
+	private void record(String operation, long latency) {
+		if (ADD.equals(operation)) {
+			this.adds.increment();
+			this.addLatency.record(latency);
+		} else if (DELETE.equals(operation)) {
+			this.deletes.increment();
+			this.deleteLatency.record(latency);
+		} else {
+			this.bulks.increment();
+			this.bulkLatency.record(latency);
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	@Override
+	public long getAddCount() {
+		return this.adds.sum();
+	}
+
+	@Override
+	public long getDeleteCount() {
+		return this.deletes.sum();
+	}
+
+	@Override
+	public long getBulkCount() {
+		return this.bulks.sum();
+	}
+
+	@Override
+	public long getSingleLeftRotations() {
+		return this.rotations[AdjustionInfo.SINGLE_LEFT].sum();
+	}
+
+	@Override
+	public long getSingleRightRotations() {
+		return this.rotations[AdjustionInfo.SINGLE_RIGHT].sum();
+	}
+
+	@Override
+	public long getDoubleLeftRotations() {
+		return this.rotations[AdjustionInfo.DOUBLE_LEFT].sum();
+	}
+
+	@Override
+	public long getDoubleRightRotations() {
+		return this.rotations[AdjustionInfo.DOUBLE_RIGHT].sum();
+	}
+
+	@Override
+	public long getMaxDepth() {
+		return this.maxDepth.get();
+	}
+
+	@Override
+	public double getMeanDepth() {
+		long edits = this.adds.sum() + this.deletes.sum();
+		return edits == 0 ? 0 : (double) this.depthSum.sum() / edits;
+	}
+
+	@Override
+	public long getAddLatencyP50() {
+		return this.addLatency.percentile(50);
+	}
+
+	@Override
+	public long getAddLatencyP99() {
+		return this.addLatency.percentile(99);
+	}
+
+	@Override
+	public long getAddLatencyP999() {
+		return this.addLatency.percentile(99.9);
+	}
+
+	@Override
+	public long getDeleteLatencyP50() {
+		return this.deleteLatency.percentile(50);
+	}
+
+	@Override
+	public long getDeleteLatencyP99() {
+		return this.deleteLatency.percentile(99);
+	}
+
+	@Override
+	public long getDeleteLatencyP999() {
+		return this.deleteLatency.percentile(99.9);
+	}
+
+	@Override
+	public long getBulkLatencyP50() {
+		return this.bulkLatency.percentile(50);
+	}
+
+	@Override
+	public long getBulkLatencyP99() {
+		return this.bulkLatency.percentile(99);
+	}
+
+	@Override
+	public void reset() {
+		this.adds.reset();
+		this.deletes.reset();
+		this.bulks.reset();
+		for (LongAdder rotation : this.rotations) {
+			rotation.reset();
+		}
+		this.depthSum.reset();
+		this.maxDepth.reset();
+		this.addLatency.reset();
+		this.deleteLatency.reset();
+		this.bulkLatency.reset();
+	}
+
+	@Name("editortrees.EditTreeEdit")
+	@Label("EditTree Edit")
+	@Category("EditTree")
+	@Description("An add, delete or bulk operation on an EditTree")
+	static final class EditEvent extends Event {
+		@Label("Operation")
+		String operation;
+
+		@Label("Position")
+		int position;
+
+		@Label("Length")
+		int length;
+
+		@Label("Path Depth")
+		int depth;
+
+		@Label("Rotations")
+		int rotations;
+
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+	}
+
+	@Name("editortrees.EditTreeRotation")
+	@Label("EditTree Rotation")
+	@Category("EditTree")
+	@Description("Rotations of one kind done by a single EditTree edit")
+	static final class RotationEvent extends Event {
+		@Label("Type")
+		String type;
+
+		@Label("Count")
+		int count;
+
+		@Label("Path Depth")
+		int depth;
+
+		@Label("Position")
+		int position;
+	}
+}
@@ -0,0 +1,49 @@
+package editortrees;
+
+/**
+ * The JMX view of EditTreeMetrics. Latencies are in nanoseconds. The bulk
+ * count and latencies cover every operation other than add and delete that
+ * EditTreeMetrics lists.
+ */
+public interface EditTreeMetricsMBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	long getAddCount();
+
+	long getDeleteCount();
+
+	long getBulkCount();
+
+	long getSingleLeftRotations();
+
+	long getSingleRightRotations();
+
+	long getDoubleLeftRotations();
+
+	long getDoubleRightRotations();
+
+	long getMaxDepth();
+
+	double getMeanDepth();
+
+	long getAddLatencyP50();
+
+	long getAddLatencyP99();
+
+	long getAddLatencyP999();
+
+	long getDeleteLatencyP50();
+
+	long getDeleteLatencyP99();
+
+	long getDeleteLatencyP999();
+
+	long getBulkLatencyP50();
+
+	long getBulkLatencyP99();
+
+	void reset();
+}
@@ -0,0 +1,105 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Tests for EditTreeMetrics and LatencyHistogram.
+ */
+public class EditTreeMetricsTest {
+
+	@Test
+	public void testHistogramBucketsAreTight() {
+		for (long v = 0; v < 100000; v += 7) {
+			int bucket = LatencyHistogram.bucketOf(v);
+			assertTrue(LatencyHistogram.lowestValueIn(bucket) <= v);
+			assertTrue(LatencyHistogram.highestValueIn(bucket) >= v);
+			assertTrue(LatencyHistogram.highestValueIn(bucket) - v <= v / 8);
+		}
+		int last = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueIn(last));
+	}
+
+	@Test
+	public void testHistogramPercentiles() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.percentile(50));
+		for (int i = 1; i <= 1000; i++) {
+			h.record(i);
+		}
+		assertEquals(1000, h.count());
+		long p50 = h.percentile(50);
+		assertTrue(p50 >= 500 && p50 <= 500 + 500 / 8);
+		long p99 = h.percentile(99);
+		assertTrue(p99 >= 990 && p99 <= 990 + 990 / 8);
+		h.reset();
+		assertEquals(0, h.count());
+	}
+
+	@Test
+	public void testCountsOnlyWhileEnabled() throws JMException {
+		EditTreeMetrics metrics = EditTreeMetrics.get();
+		metrics.setEnabled(false);
+		metrics.reset();
+		EditTree t = new EditTree();
+		t.add('a');
+		assertEquals(0, metrics.getAddCount());
+
+		metrics.setEnabled(true);
+		try {
+			for (char c = 'b'; c <= 'z'; c++) {
+				t.add(c);
+			}
+			t.delete(0);
+			new EditTree(t);
+			assertEquals(25, metrics.getAddCount());
+			assertEquals(1, metrics.getDeleteCount());
+			assertEquals(1, metrics.getBulkCount());
+			// Appending in order only ever rotates left.
+			assertEquals(t.totalRotationCount(), metrics.getSingleLeftRotations());
+			assertTrue(metrics.getMaxDepth() >= t.slowHeight());
+			assertTrue(metrics.getAddLatencyP50() > 0);
+
+			EditTreeMetrics.register();
+			ObjectName name = new ObjectName("editortrees:type=EditTreeMetrics");
+			assertEquals(25L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "AddCount"));
+		} finally {
+			metrics.setEnabled(false);
+			metrics.reset();
+		}
+	}
+
+	@Test
+	public void testCountsEveryBulkOperation() {
+		EditTreeMetrics metrics = EditTreeMetrics.get();
+		metrics.setEnabled(false);
+		metrics.reset();
+		EditTree t = new EditTree("abcdef");
+		metrics.setEnabled(true);
+		try {
+			t.append("ghij");
+			t.move(0, 2, 4);
+			t.duplicate(1, 3, 0);
+			t.reverse(2, 5);
+			t.mapRange(0, 4, CaseMap.UPPER);
+			t.setAttribute(1, 2, "bold");
+			assertEquals(6, metrics.getBulkCount());
+			t.move(3, 0, 1);
+			t.reverse(2, 1);
+			t.setAttribute(0, 0, "bold");
+			assertEquals(6, metrics.getBulkCount());
+			assertEquals(0, metrics.getAddCount());
+			assertTrue(metrics.getBulkLatencyP50() > 0);
+		} finally {
+			metrics.setEnabled(false);
+			metrics.reset();
+		}
+	}
+}
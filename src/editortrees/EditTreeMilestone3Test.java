@@ -1585,14 +1585,18 @@ public class EditTreeMilestone3Test {
 		EditTree t2 = new EditTree(t2s);
 		EditTree t3 = new EditTree(t3s);
 
-		// Test to see that nodes are clones of nodes from the original tree,
-		// and not just aliases to the same nodes.
-		// We make use of the getRoot() method and its left and right children.
+		// The copy shares its nodes with the original until either tree
+		// changes them, so editing a copy must leave the original untouched.
 		Node t3root = t3.root;
 		Node t3originalRoot = t3s.root;
-		assertFalse(t3root == t3originalRoot);
-		assertFalse(t3root.left == t3originalRoot.left);
-		assertFalse(t3root.right.left == t3originalRoot.right.left);
+		assertTrue(t3root == t3originalRoot);
+		String t3original = t3s.toDebugString();
+		EditTree t3edited = new EditTree(t3s);
+		t3edited.add('q', 0);
+		t3edited.delete(4);
+		assertFalse(t3edited.root == t3originalRoot);
+		assertFalse(t3edited.root.left == t3originalRoot.left);
+		assertEquals(t3original, t3s.toDebugString());
 
 		// Test using sizes and heights.
 		assertEquals(t1s.toString(), t1.toString());
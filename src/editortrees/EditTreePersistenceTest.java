@@ -0,0 +1,585 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for saving and restoring an EditTree.
+ */
+public class EditTreePersistenceTest {
+
+	private static String randomText(int length, long seed) {
+		Random gen = new Random(seed);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('a' + gen.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	// toString() is quadratic, so large trees are compared through get(pos, len).
+	private static String contents(EditTree t) {
+		return t.get(0, t.size());
+	}
+
+	@Test
+	public void testSaveToEmptyTree() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path file = dir.resolve("empty.txt");
+		new EditTree().saveTo(file, StandardCharsets.UTF_8);
+		assertEquals(0, Files.size(file));
+	}
+
+	@Test
+	public void testSaveToMatchesToString() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path file = dir.resolve("doc.txt");
+		String s = randomText(200000, 1);
+		EditTree t = new EditTree(s);
+		t.add('\u00e9', 5);
+		t.add('\u4e2d', 70000);
+		t.saveTo(file, StandardCharsets.UTF_8);
+		assertEquals(t.toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+
+		t.saveTo(file, StandardCharsets.UTF_16LE);
+		assertEquals(t.toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_16LE));
+	}
+
+	@Test
+	public void testSaveToKeepsSurrogatePairsAcrossBuffers() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path file = dir.resolve("emoji.txt");
+		// The leading x puts every pair boundary at an odd index.
+		StringBuilder sb = new StringBuilder("x");
+		for (int i = 0; i < 50000; i++) {
+			sb.append("\ud83d\ude00");
+		}
+		EditTree t = new EditTree(sb.toString());
+		t.saveTo(file, StandardCharsets.UTF_8);
+		assertEquals(sb.toString(), new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testSaveToReplacesExistingFileAndLeavesNoTempFiles() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path file = dir.resolve("doc.txt");
+		Files.write(file, "old contents".getBytes(StandardCharsets.UTF_8));
+		new EditTree("new").saveTo(file, StandardCharsets.UTF_8);
+		assertEquals("new", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+		assertEquals(1, Files.list(dir).count());
+		assertFalse(Files.exists(dir.resolve("doc.txt.tmp")));
+		assertTrue(Files.exists(file));
+	}
+
+	private static EditTree roundTrip(EditTree t) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		t.writeSnapshot(out);
+		return EditTree.readSnapshot(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	@Test
+	public void testSnapshotEmptyAndSingleNode() throws IOException {
+		EditTree empty = roundTrip(new EditTree());
+		assertEquals("", empty.toString());
+		assertEquals(0, empty.size());
+
+		EditTree one = roundTrip(new EditTree('q'));
+		assertEquals("[q0=]", one.toDebugString());
+		assertEquals(1, one.size());
+	}
+
+	@Test
+	public void testSnapshotRestoresShapeAndRotationCount() throws IOException {
+		Random gen = new Random(27);
+		EditTree t = new EditTree();
+		for (int i = 0; i < 3000; i++) {
+			t.add((char) ('a' + gen.nextInt(26)), gen.nextInt(t.size() + 1));
+		}
+		for (int i = 0; i < 1000; i++) {
+			t.delete(gen.nextInt(t.size()));
+		}
+		EditTree restored = roundTrip(t);
+		assertEquals(t.toDebugString(), restored.toDebugString());
+		assertEquals(t.totalRotationCount(), restored.totalRotationCount());
+		assertEquals(t.size(), restored.size());
+		assertTrue(restored.ranksMatchLeftSubtreeSize());
+		assertTrue(restored.balanceCodesAreCorrect());
+
+		// The restored tree keeps working like the original.
+		t.add('z', 17);
+		restored.add('z', 17);
+		assertEquals(t.toDebugString(), restored.toDebugString());
+	}
+
+	@Test
+	public void testSnapshotWideChars() throws IOException {
+		EditTree t = new EditTree("abc\u4e2d\u00ffdef");
+		EditTree restored = roundTrip(t);
+		assertEquals(t.toDebugString(), restored.toDebugString());
+	}
+
+	@Test
+	public void testSnapshotRejectsGarbage() {
+		try {
+			EditTree.readSnapshot(new ByteArrayInputStream("not a snapshot".getBytes()));
+			fail("Did not reject a stream that is not a snapshot");
+		} catch (IOException e) {
+			// Success
+		}
+	}
+
+	@Test
+	public void testSnapshotRejectsBalanceCodesThatDoNotMatchTheShape() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new EditTree(randomText(1000, 29)).writeSnapshot(out);
+		byte[] bytes = out.toByteArray();
+		// The root's flags byte follows the 13-byte header; give the root some
+		// other balance code.
+		int ordinal = (bytes[13] >>> 2) % 3;
+		bytes[13] = (byte) (bytes[13] & 3 | (ordinal + 1) % 3 << 2);
+		try {
+			EditTree.readSnapshot(new ByteArrayInputStream(bytes));
+			fail("Restored a tree with wrong balance codes");
+		} catch (IOException e) {
+			// Success
+		}
+	}
+
+	@Test
+	public void testSnapshotRejectsDegenerateShapeWithoutDeepRecursion() throws IOException {
+		// A list of a million right children, each marked balanced.
+		int size = 1000000;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(TreeSnapshot.MAGIC);
+		data.writeByte(TreeSnapshot.VERSION);
+		data.writeInt(size);
+		data.writeInt(0);
+		for (int i = 0; i < size; i++) {
+			data.writeByte(i < size - 1 ? 2 | Node.Code.SAME.ordinal() << 2 : Node.Code.SAME.ordinal() << 2);
+		}
+		data.writeByte(1);
+		for (int i = 0; i < size; i++) {
+			data.writeByte('a');
+		}
+		try {
+			EditTree.readSnapshot(new ByteArrayInputStream(out.toByteArray()));
+			fail("Restored a tree that is not height-balanced");
+		} catch (IOException e) {
+			// Success
+		}
+	}
+
+	@Test
+	public void testSnapshotRejectsTruncatedStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new EditTree(randomText(1000, 30)).writeSnapshot(out);
+		byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() - 10);
+		try {
+			EditTree.readSnapshot(new ByteArrayInputStream(bytes));
+			fail("Restored a truncated snapshot");
+		} catch (IOException e) {
+			// Success
+		}
+	}
+
+	@Test
+	public void testSnapshotReadsVersionOne() throws IOException {
+		// "abc" with 'b' at the root, flags and chars interleaved.
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(TreeSnapshot.MAGIC);
+		data.writeByte(1);
+		data.writeByte(2);
+		data.writeInt(3);
+		data.writeInt(5);
+		data.writeByte(3 | Node.Code.SAME.ordinal() << 2);
+		data.writeChar('b');
+		data.writeByte(Node.Code.SAME.ordinal() << 2);
+		data.writeChar('a');
+		data.writeByte(Node.Code.SAME.ordinal() << 2);
+		data.writeChar('c');
+		EditTree t = EditTree.readSnapshot(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("abc", t.toString());
+		assertEquals(5, t.totalRotationCount());
+		t = EditTree.readSnapshot(ByteBuffer.wrap(out.toByteArray()));
+		assertEquals("abc", t.toString());
+	}
+
+	@Test
+	public void testSnapshotFromBuffer() throws IOException {
+		EditTree t = new EditTree();
+		Random gen = new Random(27);
+		for (int i = 0; i < 100000; i++) {
+			t.add((char) (i == 5000 ? '\u2603' : 'a' + gen.nextInt(26)), gen.nextInt(t.size() + 1));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(7);
+		t.writeSnapshot(out);
+		out.write(9);
+		ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+		buffer.get();
+		EditTree restored = EditTree.readSnapshot(buffer);
+		assertEquals(contents(t), contents(restored));
+		assertEquals(t.totalRotationCount(), restored.totalRotationCount());
+		assertEquals(9, buffer.get());
+
+		buffer = ByteBuffer.wrap(out.toByteArray(), 1, out.size() - 100);
+		try {
+			EditTree.readSnapshot(buffer.slice());
+			fail("Restored a truncated snapshot");
+		} catch (IOException e) {
+			// Success
+		}
+	}
+
+	@Test
+	public void testMaxHeightMatchesSparsestAvlTrees() {
+		assertEquals(1, TreeSnapshot.maxHeight(1));
+		assertEquals(2, TreeSnapshot.maxHeight(2));
+		assertEquals(2, TreeSnapshot.maxHeight(3));
+		assertEquals(3, TreeSnapshot.maxHeight(4));
+		assertEquals(4, TreeSnapshot.maxHeight(7));
+		assertEquals(5, TreeSnapshot.maxHeight(12));
+		assertEquals(4, TreeSnapshot.maxHeight(11));
+	}
+
+	@Test
+	public void testDurableTreeReplaysCommittedEditsAfterCrash() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		DurableEditTree d = new DurableEditTree(dir, 1000, 60000, 100000);
+		StringBuilder expected = new StringBuilder();
+		Random gen = new Random(28);
+		for (int i = 0; i < 500; i++) {
+			char c = (char) ('a' + gen.nextInt(26));
+			int pos = gen.nextInt(expected.length() + 1);
+			d.add(c, pos);
+			expected.insert(pos, c);
+		}
+		for (int i = 0; i < 100; i++) {
+			int pos = gen.nextInt(expected.length());
+			assertEquals(expected.charAt(pos), d.delete(pos));
+			expected.deleteCharAt(pos);
+		}
+		d.sync();
+		// Edits after the last commit are lost in a crash; d is never closed.
+		d.add('!', 0);
+
+		DurableEditTree recovered = new DurableEditTree(dir, 1000, 60000, 100000);
+		assertEquals(expected.toString(), recovered.tree().toString());
+		recovered.close();
+	}
+
+	@Test
+	public void testDurableTreeIgnoresTornTail() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		DurableEditTree d = new DurableEditTree(dir, 1, 0, 100000);
+		for (char c = 'a'; c <= 'j'; c++) {
+			d.add(c);
+		}
+		d.close();
+		// Simulate a frame that was only partly written when the process died.
+		Files.write(dir.resolve(DurableEditTree.LOG_FILE), new byte[] { 0, 0, 0, 7, 1, 2 },
+				java.nio.file.StandardOpenOption.APPEND);
+
+		DurableEditTree recovered = new DurableEditTree(dir, 1, 0, 100000);
+		assertEquals("abcdefghij", recovered.tree().toString());
+		recovered.add('k');
+		recovered.close();
+		DurableEditTree again = new DurableEditTree(dir);
+		assertEquals("abcdefghijk", again.tree().toString());
+		again.close();
+	}
+
+	@Test
+	public void testDurableTreeCheckpointsAndTruncatesLog() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		DurableEditTree d = new DurableEditTree(dir, 4, 60000, 50);
+		for (int i = 0; i < 230; i++) {
+			d.add((char) ('a' + i % 26));
+		}
+		String expected = d.tree().toString();
+		String debug = d.tree().toDebugString();
+		d.close();
+		assertTrue(Files.exists(dir.resolve(DurableEditTree.CHECKPOINT_FILE)));
+		// The last checkpoint started at the 200th edit, and emptied the log of
+		// the one before once it was written.
+		long logged = Files.size(dir.resolve(DurableEditTree.LOG_FILE))
+				+ Files.size(dir.resolve(DurableEditTree.ODD_LOG_FILE));
+		assertTrue("logs hold " + logged + " bytes", logged < 30 * 7 + 100);
+
+		DurableEditTree recovered = new DurableEditTree(dir);
+		assertEquals(expected, recovered.tree().toString());
+		assertEquals(debug, recovered.tree().toDebugString());
+		recovered.close();
+	}
+
+	@Test
+	public void testDurableTreeLogsBulkEdits() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		DurableEditTree d = new DurableEditTree(dir, 1000, 60000, 100000);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 50000; i++) {
+			text.append((char) ('a' + i % 26));
+		}
+		// Longer than a frame, so it is logged as several records.
+		d.append(text);
+		d.add('!', 7);
+		d.move(100, 300, 20000);
+		d.duplicate(5, 40, 49000);
+		d.reverse(10, 1000);
+		d.mapRange(30000, 500, CaseMap.UPPER);
+		d.delete(3);
+		String expected = contents(d.tree());
+		d.sync();
+
+		DurableEditTree recovered = new DurableEditTree(dir, 1000, 60000, 100000);
+		assertEquals(expected, contents(recovered.tree()));
+		recovered.close();
+	}
+
+	@Test
+	public void testDurableTreeLeavesTreeUnchangedIfEditCannotBeLogged() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		DurableEditTree d = new DurableEditTree(dir, 1, 0, 100000);
+		d.add('a');
+		try {
+			d.delete(1);
+			fail("delete past the end should throw");
+		} catch (IndexOutOfBoundsException e) {
+			// nothing logged
+		}
+		d.close();
+		// The log is closed, so this cannot be committed.
+		try {
+			d.add('b');
+			fail("add should fail once the log is closed");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals("a", d.tree().toString());
+		try {
+			d.delete(0);
+			fail("edits should be refused after a logging failure");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals("a", d.tree().toString());
+
+		DurableEditTree recovered = new DurableEditTree(dir);
+		assertEquals("a", recovered.tree().toString());
+		recovered.close();
+	}
+
+	@Test
+	public void testDurableTreeSurfacesBackgroundCheckpointFailure() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		DurableEditTree d = new DurableEditTree(dir, 1000, 60000, 10);
+		// A non-empty directory in its place makes every checkpoint fail.
+		Files.createDirectories(dir.resolve(DurableEditTree.CHECKPOINT_FILE).resolve("blocker"));
+		IOException failure = null;
+		for (int i = 0; i < 30 && failure == null; i++) {
+			try {
+				d.add('x');
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		assertTrue("checkpoint failure was not reported", failure != null);
+		assertEquals(1, failure.getSuppressed().length);
+		// The edits are still in the log.
+		int size = d.tree().size();
+		d.sync();
+		Files.delete(dir.resolve(DurableEditTree.CHECKPOINT_FILE).resolve("blocker"));
+		Files.delete(dir.resolve(DurableEditTree.CHECKPOINT_FILE));
+		DurableEditTree recovered = new DurableEditTree(dir);
+		assertEquals(size, recovered.tree().size());
+		recovered.close();
+	}
+
+	@Test
+	public void testDurableTreeKeepsEditsMadeDuringBackgroundCheckpoints() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		DurableEditTree d = new DurableEditTree(dir, 1, 0, 1000);
+		Random gen = new Random(31);
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			char c = (char) ('a' + gen.nextInt(26));
+			int pos = gen.nextInt(expected.length() + 1);
+			d.add(c, pos);
+			expected.insert(pos, c);
+		}
+		// d is never closed, so a checkpoint may still be in progress.
+		DurableEditTree recovered = new DurableEditTree(dir, 1, 0, 1000);
+		assertEquals(expected.toString(), contents(recovered.tree()));
+		recovered.close();
+	}
+
+	@Test
+	public void testEditLogCommitsPendingRecordsOnItsInterval() throws Exception {
+		Path dir = Files.createTempDirectory("edittree");
+		Path file = dir.resolve("edits.log");
+		EditLog log = new EditLog(file, 1000000, 10);
+		log.replayInto(new EditTree(), 0);
+		log.logAdd('x', 0);
+		log.logAdd('y', 1);
+		long deadline = System.currentTimeMillis() + 5000;
+		while (Files.size(file) == 12 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		// The log is never closed; the records were committed in the background.
+		EditLog reopened = new EditLog(file, 1, 0);
+		EditTree t = new EditTree();
+		assertEquals(2, reopened.replayInto(t, 0));
+		assertEquals("xy", t.toString());
+		reopened.close();
+	}
+
+	@Test
+	public void testIncrementalSaveWritesOnlyChangedChunks() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path index = dir.resolve("doc.chunks");
+		String s = randomText(1000000, 29);
+		EditTree t = new EditTree(s);
+		// The first save writes everything but the few chars above the chunks.
+		assertTrue(t.saveIncremental(index) > 990000);
+		assertEquals(s, contents(EditTree.loadIncremental(index)));
+
+		t.add('!', 500000);
+		long written = t.saveIncremental(index);
+		assertTrue("wrote " + written + " chars for a one-char edit", written <= 2 * ChunkStore.CHUNK_SIZE);
+		assertEquals(0, t.saveIncremental(index));
+
+		t.delete(10);
+		t.delete(999000);
+		written = t.saveIncremental(index);
+		assertTrue("wrote " + written + " chars for two deletes", written <= 4 * ChunkStore.CHUNK_SIZE);
+		assertEquals(contents(t), contents(EditTree.loadIncremental(index)));
+	}
+
+	@Test
+	public void testIncrementalSaveAfterLoadWritesOnlyChangedChunks() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path index = dir.resolve("doc.chunks");
+		EditTree t = new EditTree(randomText(1000000, 293));
+		t.saveIncremental(index);
+		t.closeIncremental();
+
+		EditTree loaded = EditTree.loadIncremental(index);
+		assertTrue(loaded.isConsistent());
+		loaded.add('!', 500000);
+		long written = loaded.saveIncremental(index);
+		assertTrue("wrote " + written + " chars for a one-char edit", written <= ChunkStore.CHUNK_SIZE);
+		loaded.closeIncremental();
+		// Still the one data file, with the chunk appended.
+		assertEquals(2, Files.list(dir).count());
+		assertEquals(contents(loaded), contents(EditTree.loadIncremental(index)));
+	}
+
+	@Test
+	public void testIncrementalSaveCompactsAndReloads() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path index = dir.resolve("doc.chunks");
+		Random gen = new Random(290);
+		EditTree t = new EditTree(randomText(50000, 290));
+		for (int round = 0; round < 40; round++) {
+			for (int i = 0; i < 50; i++) {
+				t.add((char) ('A' + gen.nextInt(26)), gen.nextInt(t.size() + 1));
+				t.delete(gen.nextInt(t.size()));
+			}
+			t.saveIncremental(index);
+		}
+		// Compaction keeps a single data file next to the index, once a copy
+		// still running in the background is released.
+		t.closeIncremental();
+		assertEquals(2, Files.list(dir).count());
+		EditTree loaded = EditTree.loadIncremental(index);
+		assertEquals(t.toString(), loaded.toString());
+
+		loaded.add('#', 0);
+		loaded.saveIncremental(index);
+		assertEquals("#" + t.toString(), EditTree.loadIncremental(index).toString());
+	}
+
+	@Test
+	public void testIncrementalSaveOfEmptyTree() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path index = dir.resolve("doc.chunks");
+		EditTree t = new EditTree();
+		assertEquals(0, t.saveIncremental(index));
+		EditTree loaded = EditTree.loadIncremental(index);
+		assertEquals(0, loaded.size());
+		assertEquals("", loaded.toString());
+
+		loaded.add('a');
+		loaded.saveIncremental(index);
+		assertEquals("a", EditTree.loadIncremental(index).toString());
+		loaded.closeIncremental();
+		t.closeIncremental();
+	}
+
+	@Test
+	public void testIncrementalSaveSwitchesToCompactedFile() throws Exception {
+		Path dir = Files.createTempDirectory("edittree");
+		Path index = dir.resolve("doc.chunks");
+		Random gen = new Random(291);
+		EditTree t = new EditTree(randomText(200000, 291));
+		t.saveIncremental(index);
+		// Rewrite scattered chunks until the garbage triggers a compaction and a
+		// later save switches to its file.
+		Path first = dir.resolve("doc.chunks.1");
+		for (int round = 0; Files.exists(first); round++) {
+			assertTrue("no compaction after " + round + " saves", round < 1000);
+			for (int i = 0; i < 20; i++) {
+				t.add((char) ('A' + gen.nextInt(26)), gen.nextInt(t.size() + 1));
+			}
+			long written = t.saveIncremental(index);
+			assertTrue("wrote " + written + " chars", written < 100000);
+			assertEquals(contents(t), contents(EditTree.loadIncremental(index)));
+			Thread.sleep(1);
+		}
+		t.closeIncremental();
+		assertEquals(2, Files.list(dir).count());
+		assertEquals(contents(t), contents(EditTree.loadIncremental(index)));
+	}
+
+	@Test
+	public void testIncrementalSaveDeletesNewDataFileIfIndexCannotBeWritten() throws IOException {
+		Path dir = Files.createTempDirectory("edittree");
+		Path index = dir.resolve("doc.chunks");
+		EditTree t = new EditTree(randomText(20000, 292));
+		t.saveIncremental(index);
+		t.closeIncremental();
+		// A new store's first save writes a fresh data file, generation 2.
+		ChunkStore store = new ChunkStore(index);
+		// The index can't be replaced by a move while a non-empty directory is
+		// in its place.
+		Files.delete(index);
+		Files.createDirectory(index);
+		Files.createFile(index.resolve("blocker"));
+		try {
+			store.save(t.root, t.size());
+			fail("Saved although the index could not be written");
+		} catch (IOException e) {
+			// Success
+		}
+		assertFalse(Files.exists(dir.resolve("doc.chunks.2")));
+		assertTrue(Files.exists(dir.resolve("doc.chunks.1")));
+		store.close();
+	}
+}
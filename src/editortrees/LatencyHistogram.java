@@ -0,0 +1,91 @@
+package editortrees;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of non-negative longs (here, nanoseconds) with
+ * logarithmic buckets, in the style of HdrHistogram. Each power of two is split
+ * into SUB_BUCKETS linear sub-buckets, so a reported value is within 1 /
+ * SUB_BUCKETS of the recorded one, and recording is a couple of shifts and one
+ * atomic increment regardless of the range of values.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+	/**
+	 * Records one value. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		this.counts.incrementAndGet(bucketOf(Math.max(value, 0)));
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long count() {
+		long count = 0;
+		for (int i = 0; i < this.counts.length(); i++) {
+			count += this.counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the highest value in the bucket holding the given percentile of
+	 *         the recorded values, or 0 if nothing was recorded
+	 */
+	public long percentile(double percentile) {
+		long total = this.count();
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < this.counts.length(); i++) {
+			seen += this.counts.get(i);
+			if (seen >= target) {
+				return highestValueIn(i);
+			}
+		}
+		return highestValueIn(this.counts.length() - 1);
+	}
+
+	/**
+	 * Forgets all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < this.counts.length(); i++) {
+			this.counts.set(i, 0);
+		}
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long lowestValueIn(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	static long highestValueIn(int bucket) {
+		if (bucket == (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		return lowestValueIn(bucket + 1) - 1;
+	}
+}
@@ -0,0 +1,66 @@
+package editortrees;
+
+/**
+ * A position in an EditTree's text that moves with the text around it, for
+ * diagnostics, breakpoints, bookmarks or selection anchors. Create one with
+ * EditTree.addMarker(). A marker sits between two chars (or at either end of
+ * the text). Adding before it moves it right and deleting before it moves it
+ * left. Deleting the char right after it leaves it in place, so markers on
+ * either side of deleted text end up at the same offset. Text added exactly
+ * at its offset goes after a LEFT marker and before a RIGHT one.
+ *
+ * Markers are the nodes of their tree's MarkerTree, so an edit moves all of
+ * them in O(log m) time; offset() adds up the moves still pending on the way
+ * to the root.
+ */
+public final class Marker {
+
+	/**
+	 * Which side of text added at a marker's offset the marker ends up on.
+	 */
+	public enum Gravity {
+		LEFT, RIGHT
+	}
+
+	final Gravity gravity;
+	final int priority;
+	int offset; // plus the lazy of every ancestor
+	int lazy; // still to be added to every offset below this node
+	Marker left, right, parent;
+	MarkerTree owner; // null once removed
+
+	Marker(int offset, Gravity gravity, int priority, MarkerTree owner) {
+		this.offset = offset;
+		this.gravity = gravity;
+		this.priority = priority;
+		this.owner = owner;
+	}
+
+	/**
+	 * @return the marker's current offset in the text, or its last offset if
+	 *         it was removed. O(log m) time for m markers.
+	 */
+	public int offset() {
+		int offset = this.offset;
+		for (Marker m = this.parent; m != null; m = m.parent) {
+			offset += m.lazy;
+		}
+		return offset;
+	}
+
+	public Gravity gravity() {
+		return this.gravity;
+	}
+
+	/**
+	 * @return false once the marker has been removed from its tree
+	 */
+	public boolean isAttached() {
+		return this.owner != null;
+	}
+
+	@Override
+	public String toString() {
+		return this.offset() + (this.gravity == Gravity.LEFT ? "<" : ">");
+	}
+}
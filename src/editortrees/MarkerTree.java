@@ -0,0 +1,251 @@
+package editortrees;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The markers of one EditTree, in a treap ordered by offset, with LEFT
+ * markers before RIGHT ones at the same offset. Moving every marker from
+ * some point on is a split, a lazy shift of the part after it and a merge,
+ * so an edit costs O(log m) expected time whatever the number of markers m.
+ * The order by gravity is what keeps an add a single split: the markers that
+ * move are exactly those from the first RIGHT marker at its position on.
+ */
+class MarkerTree {
+
+	private Marker root;
+	private int count;
+	private long seed = 0x9E3779B97F4A7C15L;
+	// The two halves produced by the last split().
+	private Marker low, high;
+
+	int count() {
+		return this.count;
+	}
+
+	Marker add(int offset, Marker.Gravity gravity) {
+		this.seed ^= this.seed << 13;
+		this.seed ^= this.seed >>> 7;
+		this.seed ^= this.seed << 17;
+		Marker m = new Marker(offset, gravity, (int) this.seed, this);
+		this.insert(m);
+		this.count++;
+		return m;
+	}
+
+	void remove(Marker m) {
+		this.detach(m);
+		m.owner = null;
+		this.count--;
+	}
+
+	/**
+	 * Moves the markers for count chars added at pos.
+	 */
+	void added(int pos, int count) {
+		this.split(this.root, pos, Marker.Gravity.RIGHT);
+		Marker before = this.low;
+		shift(this.high, count);
+		this.root = root(merge(before, this.high));
+	}
+
+	/**
+	 * Moves the markers for the char at pos being deleted. The markers at pos
+	 * and those just after it meet, and are merged so LEFT ones stay first.
+	 */
+	void deleted(int pos) {
+		this.split(this.root, pos, Marker.Gravity.LEFT);
+		Marker before = this.low;
+		this.split(this.high, pos + 1, Marker.Gravity.LEFT);
+		Marker at = this.low;
+		this.split(this.high, pos + 2, Marker.Gravity.LEFT);
+		Marker next = this.low;
+		Marker after = this.high;
+		shift(next, -1);
+		shift(after, -1);
+		this.split(at, pos, Marker.Gravity.RIGHT);
+		Marker atLeft = this.low;
+		Marker atRight = this.high;
+		this.split(next, pos, Marker.Gravity.RIGHT);
+		Marker merged = merge(merge(merge(before, atLeft), this.low), atRight);
+		this.root = root(merge(merge(merged, this.high), after));
+	}
+
+	/**
+	 * Moves the markers for the text from pos to end, exclusive, being moved
+	 * so that it starts at to. The markers strictly inside the text move with
+	 * it. The others move as if the text were deleted and added back at to:
+	 * those at either end of it meet, LEFT ones first, and those at to end up
+	 * on the side of the added text their gravity says.
+	 */
+	void moved(int pos, int end, int to) {
+		this.split(this.root, pos, Marker.Gravity.LEFT);
+		Marker before = this.low;
+		this.split(this.high, pos + 1, Marker.Gravity.LEFT);
+		Marker atStart = this.low;
+		this.split(this.high, end, Marker.Gravity.LEFT);
+		Marker inside = this.low;
+		this.split(this.high, end + 1, Marker.Gravity.LEFT);
+		Marker atEnd = this.low;
+		Marker after = this.high;
+		shift(atEnd, pos - end);
+		shift(after, pos - end);
+		this.split(atStart, pos, Marker.Gravity.RIGHT);
+		Marker startLeft = this.low;
+		Marker startRight = this.high;
+		this.split(atEnd, pos, Marker.Gravity.RIGHT);
+		Marker merged = merge(merge(merge(before, startLeft), this.low), startRight);
+		this.root = root(merge(merge(merged, this.high), after));
+		this.added(to, end - pos);
+		shift(inside, to - pos);
+		this.split(this.root, to + 1, Marker.Gravity.LEFT);
+		this.root = root(merge(merge(this.low, root(inside)), this.high));
+	}
+
+	/**
+	 * Moves the markers after size, the end of a replaced text, to size.
+	 */
+	void clamp(int size) {
+		this.split(this.root, size + 1, Marker.Gravity.LEFT);
+		this.root = root(this.low);
+		List<Marker> past = new ArrayList<Marker>();
+		collect(root(this.high), Integer.MIN_VALUE, Integer.MAX_VALUE, past);
+		for (Marker m : past) {
+			m.left = m.right = m.parent = null;
+			m.lazy = 0;
+			m.offset = size;
+			this.insert(m);
+		}
+	}
+
+	/**
+	 * @return the markers with offsets from pos to pos + length, exclusive, in
+	 *         order of offset
+	 */
+	List<Marker> inRange(int pos, int length) {
+		List<Marker> found = new ArrayList<Marker>();
+		collect(this.root, pos, pos + length, found);
+		return found;
+	}
+
+	private void insert(Marker m) {
+		this.split(this.root, m.offset, m.gravity);
+		this.root = root(merge(merge(this.low, m), this.high));
+	}
+
+	/**
+	 * Unlinks m from the treap, after applying all the pending shifts above it,
+	 * so m keeps its last offset.
+	 */
+	private void detach(Marker m) {
+		List<Marker> path = new ArrayList<Marker>();
+		for (Marker p = m.parent; p != null; p = p.parent) {
+			path.add(p);
+		}
+		for (int i = path.size() - 1; i >= 0; i--) {
+			push(path.get(i));
+		}
+		push(m);
+		Marker replacement = merge(m.left, m.right);
+		Marker parent = m.parent;
+		if (replacement != null) {
+			replacement.parent = parent;
+		}
+		if (parent == null) {
+			this.root = replacement;
+		} else if (parent.left == m) {
+			parent.left = replacement;
+		} else {
+			parent.right = replacement;
+		}
+		m.left = m.right = m.parent = null;
+	}
+
+	/**
+	 * Splits the treap t into this.low, the markers before (offset, gravity),
+	 * and this.high, the rest.
+	 */
+	private void split(Marker t, int offset, Marker.Gravity gravity) {
+		if (t == null) {
+			this.low = this.high = null;
+			return;
+		}
+		push(t);
+		if (t.offset < offset || (t.offset == offset && t.gravity.compareTo(gravity) < 0)) {
+			this.split(t.right, offset, gravity);
+			t.right = this.low;
+			if (this.low != null) {
+				this.low.parent = t;
+			}
+			this.low = t;
+		} else {
+			this.split(t.left, offset, gravity);
+			t.left = this.high;
+			if (this.high != null) {
+				this.high.parent = t;
+			}
+			this.high = t;
+		}
+		t.parent = null;
+	}
+
+	/**
+	 * @return the treap holding a's markers and then b's
+	 */
+	private static Marker merge(Marker a, Marker b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			push(a);
+			a.right = merge(a.right, b);
+			a.right.parent = a;
+			return a;
+		}
+		push(b);
+		b.left = merge(a, b.left);
+		b.left.parent = b;
+		return b;
+	}
+
+	private static Marker root(Marker t) {
+		if (t != null) {
+			t.parent = null;
+		}
+		return t;
+	}
+
+	private static void shift(Marker t, int delta) {
+		if (t != null) {
+			t.offset += delta;
+			t.lazy += delta;
+		}
+	}
+
+	private static void push(Marker t) {
+		if (t.lazy != 0) {
+			shift(t.left, t.lazy);
+			shift(t.right, t.lazy);
+			t.lazy = 0;
+		}
+	}
+
+	private static void collect(Marker t, int from, int to, List<Marker> found) {
+		if (t == null) {
+			return;
+		}
+		push(t);
+		if (t.offset >= from) {
+			collect(t.left, from, to, found);
+		}
+		if (t.offset >= from && t.offset < to) {
+			found.add(t);
+		}
+		if (t.offset < to) {
+			collect(t.right, from, to, found);
+		}
+	}
+}
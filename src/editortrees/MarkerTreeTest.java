@@ -0,0 +1,121 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MarkerTreeTest {
+
+	@Test
+	public void testGravity() {
+		EditTree t = new EditTree("abcd");
+		Marker left = t.addMarker(2, Marker.Gravity.LEFT);
+		Marker right = t.addMarker(2, Marker.Gravity.RIGHT);
+		t.add('x', 2);
+		assertEquals(2, left.offset());
+		assertEquals(3, right.offset());
+		t.add('y', 0);
+		assertEquals(3, left.offset());
+		assertEquals(4, right.offset());
+		// Deleting the x between them brings them together, LEFT first.
+		t.delete(3);
+		assertEquals(3, left.offset());
+		assertEquals(3, right.offset());
+		t.add('z', 3);
+		assertEquals(3, left.offset());
+		assertEquals(4, right.offset());
+		t.delete(3);
+		t.delete(2);
+		assertEquals(2, left.offset());
+		assertEquals(2, right.offset());
+	}
+
+	@Test
+	public void testMarkersFollowEdits() {
+		Random random = new Random(45);
+		EditTree t = new EditTree();
+		StringBuilder model = new StringBuilder();
+		List<Marker> markers = new ArrayList<Marker>();
+		List<Integer> offsets = new ArrayList<Integer>();
+		for (int i = 0; i < 5000; i++) {
+			int op = random.nextInt(10);
+			if (op < 2) {
+				int pos = random.nextInt(model.length() + 1);
+				markers.add(t.addMarker(pos, random.nextBoolean() ? Marker.Gravity.LEFT : Marker.Gravity.RIGHT));
+				offsets.add(pos);
+			} else if (op == 2 && !markers.isEmpty()) {
+				int m = random.nextInt(markers.size());
+				Marker removed = markers.remove(m);
+				t.removeMarker(removed);
+				assertFalse(removed.isAttached());
+				assertEquals((int) offsets.remove(m), removed.offset());
+			} else if (op < 6 && model.length() > 0) {
+				int pos = random.nextInt(model.length());
+				model.deleteCharAt(pos);
+				t.delete(pos);
+				for (int m = 0; m < offsets.size(); m++) {
+					if (offsets.get(m) > pos) {
+						offsets.set(m, offsets.get(m) - 1);
+					}
+				}
+			} else {
+				int pos = random.nextInt(model.length() + 1);
+				model.insert(pos, 'x');
+				t.add('x', pos);
+				for (int m = 0; m < offsets.size(); m++) {
+					int offset = offsets.get(m);
+					if (offset > pos || (offset == pos && markers.get(m).gravity() == Marker.Gravity.RIGHT)) {
+						offsets.set(m, offset + 1);
+					}
+				}
+			}
+			if (i % 100 == 0) {
+				for (int m = 0; m < markers.size(); m++) {
+					assertEquals((int) offsets.get(m), markers.get(m).offset());
+				}
+				int pos = random.nextInt(model.length() + 1);
+				int length = random.nextInt(model.length() + 1 - pos);
+				List<Marker> found = t.markersInRange(pos, length);
+				int expected = 0;
+				for (int offset : offsets) {
+					if (offset >= pos && offset < pos + length) {
+						expected++;
+					}
+				}
+				assertEquals(expected, found.size());
+				for (int k = 1; k < found.size(); k++) {
+					assertTrue(found.get(k - 1).offset() <= found.get(k).offset());
+				}
+			}
+		}
+		assertEquals(markers.size(), t.markerCount());
+	}
+
+	@Test
+	public void testSetTextClampsMarkers() {
+		EditTree t = new EditTree("hello world");
+		Marker a = t.addMarker(3, Marker.Gravity.LEFT);
+		Marker b = t.addMarker(9, Marker.Gravity.RIGHT);
+		Marker c = t.addMarker(11, Marker.Gravity.LEFT);
+		t.setText("bye");
+		assertEquals(3, a.offset());
+		assertEquals(3, b.offset());
+		assertEquals(3, c.offset());
+		assertEquals(3, t.markersInRange(0, 4).size());
+		assertEquals(0, new EditTree(t).markerCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRemoveForeignMarker() {
+		EditTree t = new EditTree("abc");
+		Marker m = new EditTree("xyz").addMarker(1, Marker.Gravity.LEFT);
+		t.addMarker(0, Marker.Gravity.LEFT);
+		t.removeMarker(m);
+	}
+}
@@ -0,0 +1,184 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MoveDuplicateTest {
+
+	@Test
+	public void testMove() {
+		EditTree t = new EditTree("one two three");
+		t.move(4, 4, 0);
+		assertEquals("two one three", t.toString());
+		t.move(0, 4, 9);
+		assertEquals("one threetwo ", t.toString());
+		t.move(0, 13, 0);
+		assertEquals("one threetwo ", t.toString());
+		assertTrue(t.isConsistent());
+	}
+
+	@Test
+	public void testDuplicate() {
+		EditTree t = new EditTree("abc");
+		t.duplicate(0, 3, 3);
+		assertEquals("abcabc", t.toString());
+		t.duplicate(1, 4, 0);
+		assertEquals("bcabab" + "cabc", t.toString());
+		// The shared subtrees are copied before either place changes.
+		t.delete(1);
+		t.add('x', 7);
+		assertEquals(10, t.size());
+		assertEquals("bababca" + "xbc", t.toString());
+		assertTrue(t.isConsistent());
+	}
+
+	// Counts the nodes reachable from n, through either place of a shared
+	// subtree, that carry the given epoch.
+	private static int countEpoch(Node n, int epoch) {
+		if (n == Node.NULL_NODE) {
+			return 0;
+		}
+		return (n.epoch == epoch ? 1 : 0) + countEpoch(n.left, epoch) + countEpoch(n.right, epoch);
+	}
+
+	@Test
+	public void testDuplicateOnlySharesTheCopiedText() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		EditTree t = new EditTree(sb.toString());
+		t.duplicate(1000, 500, 50000);
+		sb.insert(50000, sb.substring(1000, 1500));
+		// The tree still owns everything but the two places of the block, so
+		// edits outside them do not copy nodes.
+		int epoch = t.root.epoch;
+		assertTrue(countEpoch(t.root, epoch) >= t.size() - 2 * 500);
+		t.add('!', 90000);
+		t.delete(20000);
+		sb.insert(90000, '!');
+		sb.deleteCharAt(20000);
+		assertEquals(epoch, t.root.epoch);
+		assertTrue(countEpoch(t.root, epoch) >= t.size() - 2 * 500);
+
+		// Editing one place leaves the other alone.
+		t.add('?', 1200);
+		t.delete(50300);
+		sb.insert(1200, '?');
+		sb.deleteCharAt(50300);
+		assertEquals(sb.toString(), t.get(0, t.size()));
+		assertTrue(t.isConsistent());
+	}
+
+	@Test
+	public void testMarkersAndAttributesFollow() {
+		EditTree t = new EditTree("0123456789");
+		Marker inside = t.addMarker(2, Marker.Gravity.LEFT);
+		Marker start = t.addMarker(1, Marker.Gravity.RIGHT);
+		Marker end = t.addMarker(4, Marker.Gravity.LEFT);
+		Marker target = t.addMarker(7, Marker.Gravity.RIGHT);
+		t.setAttribute(1, 3, "b");
+		// "123" goes to the end.
+		t.move(1, 3, 7);
+		assertEquals("0456789123", t.toString());
+		assertEquals(8, inside.offset());
+		assertEquals(1, start.offset());
+		assertEquals(1, end.offset());
+		assertEquals(4, target.offset());
+		assertEquals(new AttributeRun(7, 3, "b"), t.runs(0, 10).get(1));
+		t.duplicate(7, 3, 0);
+		assertEquals("1230456789123", t.toString());
+		assertEquals("b", t.attributeAt(0));
+		assertEquals(null, t.attributeAt(3));
+		assertEquals(4, start.offset());
+		assertEquals(11, inside.offset());
+		assertEquals(7, target.offset());
+	}
+
+	@Test
+	public void testRandomMovesAndCopies() {
+		Random random = new Random(48);
+		EditTree t = new EditTree("seed");
+		StringBuilder model = new StringBuilder("seed");
+		EditTree snapshot = new EditTree(t);
+		String snapshotText = model.toString();
+		for (int i = 0; i < 5000; i++) {
+			int op = random.nextInt(10);
+			int from = random.nextInt(model.length() + 1);
+			int length = random.nextInt(model.length() - from + 1);
+			if (op < 3) {
+				int to = random.nextInt(model.length() - length + 1);
+				t.move(from, length, to);
+				String block = model.substring(from, from + length);
+				model.delete(from, from + length).insert(to, block);
+			} else if (op < 5 && model.length() < 5000) {
+				int to = random.nextInt(model.length() + 1);
+				t.duplicate(from, length, to);
+				model.insert(to, model.substring(from, from + length));
+			} else if (op < 6) {
+				t.reverse(from, length);
+				model.replace(from, from + length, new StringBuilder(model.substring(from, from + length)).reverse()
+						.toString());
+			} else if (op < 8 || model.length() == 0) {
+				char c = (char) ('a' + random.nextInt(26));
+				t.add(c, from);
+				model.insert(from, c);
+			} else if (from < model.length()) {
+				assertEquals(model.charAt(from), t.delete(from));
+				model.deleteCharAt(from);
+			}
+			if (i % 500 == 0) {
+				assertEquals(model.toString(), t.toString());
+				assertEquals(snapshotText, snapshot.toString());
+				snapshot = new EditTree(t);
+				snapshotText = model.toString();
+			}
+		}
+		assertEquals(model.toString(), t.toString());
+		assertEquals(snapshotText, snapshot.toString());
+		assertTrue(t.isConsistent());
+	}
+
+	@Test
+	public void testSampledValidationChecksMovesAndCopies() {
+		Random random = new Random(39);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		EditTree t = new EditTree(sb.toString());
+		t.enableSampledValidation(1);
+		for (int i = 0; i < 200; i++) {
+			int from = random.nextInt(t.size());
+			int length = 1 + random.nextInt(t.size() - from);
+			if (i % 2 == 0) {
+				t.move(from, length, random.nextInt(t.size() - length + 1));
+			} else {
+				t.duplicate(from, Math.min(length, 50), random.nextInt(t.size() + 1));
+			}
+		}
+		assertEquals(200, t.sampler.checks);
+		assertTrue(t.isConsistent());
+	}
+
+	@Test
+	public void testLongMoveIsFast() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1 << 20; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		EditTree t = new EditTree(sb.toString());
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			t.move(1, 1 << 19, (1 << 19) - 1);
+		}
+		assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		t.move(1, 1 << 19, (1 << 19) - 1);
+		assertEquals('a', t.get(0));
+		assertTrue(t.isConsistent());
+	}
+}
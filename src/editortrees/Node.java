@@ -3,8 +3,12 @@ package editortrees;
 import java.util.Stack;
 
 /**
- * A node in a height-balanced binary tree with rank. Except for the NULL_NODE,
- * one node cannot belong to two different trees.
+ * A node in a height-balanced binary tree with rank. A node can be shared by
+ * several trees, but only changed by the tree whose epoch it carries; other
+ * trees copy it first (see own()). Copying an EditTree leaves all the nodes
+ * of both trees shared. A subtree can also be shared by two places in one
+ * tree (see EditTree.duplicate()); its root then carries SHARED, an epoch no
+ * tree has, and copying such a node passes the mark on to its children.
  * 
  * @author Qingyuan Jiao and Yao Xiong
  */
@@ -32,9 +36,75 @@ public class Node {
 	Node left, right; // subtrees
 	int rank; // inorder position of this node within its own subtree.
 	Code balance;
+	// EditTree epoch of the tree that may change this node in place.
+	int epoch;
+	static final int SHARED = -1;
+	// Tags still to be applied to this whole subtree, this node included: the
+	// REVERSED bit, and the ordinal + 1 of the CaseMap to apply to its chars,
+	// if any, in the MAP bits. The other fields describe the subtree before
+	// the tags, so the tree stays a valid AVL tree with or without them. See
+	// push(). PENDING is set on every node whose subtree may still hold tags,
+	// so the nodes left to push can be found without visiting the others. A
+	// byte fits in the space the object is padded with anyway.
+	byte tags;
+	static final int REVERSED = 1;
+	static final int MAP_SHIFT = 1;
+	static final int MAP = 3 << MAP_SHIFT;
+	static final int TAGS = REVERSED | MAP;
+	static final int PENDING = 8;
+	private static final CaseMap[] MAPS = CaseMap.values();
+	// What the features only some trees use keep about this subtree. Null
+	// until one of them is needed, so a tree without them pays one reference.
+	Summary summary;
+
+	/**
+	 * The optional per-subtree data of a node, allocated on first use.
+	 */
+	static final class Summary {
+		// Where ChunkStores saved this subtree as a chunk, or null if it has
+		// changed since its last save.
+		ChunkStore.Chunk chunk;
+		// RollingHash of this subtree's text, and BASE to the power of its
+		// size. Both are stale while power is 0, and recomputed by
+		// updateHash().
+		long hash, power;
+		// Occurrences of each tracked char in this subtree, then the id of the
+		// CharCounter they are for, or 0 if they are stale. Null until counted.
+		int[] counts;
+		// Bracket depths of this subtree, see BracketIndex. Null until needed.
+		int[] brackets;
+
+		void changed() {
+			this.chunk = null;
+			this.power = 0;
+			if (this.counts != null) {
+				this.counts[this.counts.length - 1] = 0;
+			}
+			if (this.brackets != null) {
+				this.brackets[BracketIndex.VALID] = 0;
+			}
+		}
+
+		/**
+		 * @return A summary for a copy of the node, which shares the saved
+		 *         chunks and the hash but counts and brackets its own way.
+		 */
+		Summary copy() {
+			Summary s = new Summary();
+			s.chunk = this.chunk;
+			s.hash = this.hash;
+			s.power = this.power;
+			return s;
+		}
+	}
 
 	static final Node NULL_NODE = new Node('\0', null, null, 0, Code.SAME);
 
+	static {
+		NULL_NODE.summary = new Summary();
+		NULL_NODE.summary.power = 1;
+	}
+
 
 
 	public Node(char data) {
@@ -54,6 +124,363 @@ public class Node {
 	}
 
 
+	/**
+	 * Marks this subtree as changed, for saving and for hashing.
+	 */
+	void changed() {
+		if (this.summary != null) {
+			this.summary.changed();
+		}
+	}
+
+	/**
+	 * @return This node's summary, allocated if it has none yet.
+	 */
+	Summary summary() {
+		if (this.summary == null) {
+			this.summary = new Summary();
+		}
+		return this.summary;
+	}
+
+	/**
+	 * @return Where ChunkStores saved this subtree, or null.
+	 */
+	ChunkStore.Chunk chunk() {
+		return this.summary == null ? null : this.summary.chunk;
+	}
+
+	/**
+	 * @return Whether this subtree is tagged to be reversed.
+	 */
+	boolean reversed() {
+		return (this.tags & REVERSED) != 0;
+	}
+
+	/**
+	 * @return The map this subtree is tagged with, or null.
+	 */
+	CaseMap map() {
+		return map(this.tags);
+	}
+
+	/**
+	 * @param tags Tags as kept in Node.tags.
+	 * @return The map they apply, or null.
+	 */
+	static CaseMap map(int tags) {
+		int m = (tags & MAP) >> MAP_SHIFT;
+		return m == 0 ? null : MAPS[m - 1];
+	}
+
+	/**
+	 * Combines the tags of a node with those of its ancestors, for walks that
+	 * read through tags without pushing them: a reversal undoes another, and
+	 * the map nearest the root wins, since it was applied last.
+	 * @param outer The tags that apply to the node's parent.
+	 * @param tags The node's own tags.
+	 * @return The tags that apply to the node.
+	 */
+	static int under(int outer, int tags) {
+		int t = outer ^ (tags & REVERSED);
+		return (outer & MAP) == 0 ? t | (tags & MAP) : t;
+	}
+
+	/**
+	 * Replaces this node's tags, keeping it PENDING.
+	 * @param reversed Whether the subtree is to be reversed.
+	 * @param map The map to apply to its chars, or null.
+	 */
+	void setTags(boolean reversed, CaseMap map) {
+		int t = PENDING | (reversed ? REVERSED : 0);
+		if (map != null) {
+			t |= (map.ordinal() + 1) << MAP_SHIFT;
+		}
+		this.tags = (byte) t;
+	}
+
+	/**
+	 * Sets PENDING on this node if and only if it has tags or one of its
+	 * children is PENDING. Called on every node given new children by a push,
+	 * a rotation or a join.
+	 */
+	void updatePending() {
+		int t = this.tags & TAGS;
+		if (t != 0 || (this.left.tags | this.right.tags) != 0) {
+			t |= PENDING;
+		}
+		this.tags = (byte) t;
+	}
+
+	/**
+	 * Gets the bracket depths of this subtree, recomputing them here and in the
+	 * subtrees below if they are stale.
+	 * @return The depths, laid out as described in BracketIndex.
+	 */
+	int[] brackets() {
+		if (this == NULL_NODE) {
+			return BracketIndex.EMPTY;
+		}
+		Summary s = this.summary();
+		int[] b = s.brackets;
+		if (b != null && b[BracketIndex.VALID] != 0) {
+			return b;
+		}
+		int[] left = this.left.brackets();
+		int[] right = this.right.brackets();
+		if (b == null) {
+			b = new int[BracketIndex.VALID + 1];
+		}
+		BracketIndex.combine(left, this.data, right, b);
+		s.brackets = b;
+		return b;
+	}
+
+	/**
+	 * Gets the counts of the chars counter tracks in this subtree, recomputing
+	 * them here and in the subtrees below if they are stale.
+	 * @param counter The chars to count.
+	 * @return The counts, in counter's order, followed by counter's id.
+	 */
+	int[] counts(CharCounter counter) {
+		if (this == NULL_NODE) {
+			return counter.zeros;
+		}
+		int k = counter.chars.length;
+		Summary s = this.summary();
+		int[] c = s.counts;
+		if (c != null && c.length == k + 1 && c[k] == counter.id) {
+			return c;
+		}
+		int[] left = this.left.counts(counter);
+		int[] right = this.right.counts(counter);
+		if (c == null || c.length != k + 1) {
+			c = new int[k + 1];
+		}
+		for (int i = 0; i < k; i++) {
+			c[i] = left[i] + right[i];
+		}
+		int own = counter.indexOf(this.data);
+		if (own >= 0) {
+			c[own]++;
+		}
+		c[k] = counter.id;
+		s.counts = c;
+		return c;
+	}
+
+	/**
+	 * Gets a version of this node that the tree doing the current edit may
+	 * change: this node if it carries the tree's epoch, or else a copy that
+	 * does. The subtrees stay shared; if this node is SHARED, its children are
+	 * marked SHARED, since the copy is another way to reach them.
+	 * @param info Carries the epoch of the tree doing the edit.
+	 * @return This node or its copy.
+	 */
+	Node own(AdjustionInfo info) {
+		if (this.epoch == info.epoch || this == NULL_NODE) {
+			return this;
+		}
+		if (this.epoch == SHARED) {
+			this.left.share();
+			this.right.share();
+		}
+		Node copy = new Node(this.data, this.left, this.right, this.rank, this.balance);
+		if (this.summary != null) {
+			copy.summary = this.summary.copy();
+		}
+		copy.tags = this.tags;
+		copy.epoch = info.epoch;
+		return copy;
+	}
+
+	/**
+	 * Marks this subtree as reachable from more than one place, so that no
+	 * tree changes its nodes in place. The mark is passed down lazily, by
+	 * own().
+	 */
+	void share() {
+		if (this != NULL_NODE) {
+			this.epoch = SHARED;
+		}
+	}
+
+	/**
+	 * Tags this subtree to be reversed and/or mapped, in O(1) time. A map
+	 * replaces any map already pending, since the last map wins (see CaseMap).
+	 * @param reverse Whether to reverse the subtree.
+	 * @param map The map to apply to its chars, or null.
+	 * @param info Carries the epoch of the tree doing the edit.
+	 * @return This node or its copy, carrying the tags.
+	 */
+	Node tag(boolean reverse, CaseMap map, AdjustionInfo info) {
+		if (this == NULL_NODE || (!reverse && map == null)) {
+			return this;
+		}
+		Node n = this.own(info);
+		n.changed();
+		n.setTags(n.reversed() ^ reverse, map != null ? map : n.map());
+		return n;
+	}
+
+	/**
+	 * Gets a version of this node that the current edit may change, with its
+	 * own tags applied and handed down to its children: its char mapped, and if
+	 * it was to be reversed, its children swapped, its rank counted from the
+	 * other end and its balance code mirrored.
+	 * @param size Size of this subtree.
+	 * @param info Carries the epoch of the tree doing the edit.
+	 * @return This node or its copy, without tags.
+	 */
+	Node push(int size, AdjustionInfo info) {
+		Node n = this.own(info);
+		if ((n.tags & TAGS) == 0) {
+			return n;
+		}
+		boolean reversed = n.reversed();
+		CaseMap map = n.map();
+		n.changed();
+		Node left = n.left.tag(reversed, map, info);
+		Node right = n.right.tag(reversed, map, info);
+		if (map != null) {
+			n.data = map.apply(n.data);
+		}
+		if (reversed) {
+			n.left = right;
+			n.right = left;
+			n.rank = size - n.rank - 1;
+			n.balance = n.balance == Code.LEFT ? Code.RIGHT : n.balance == Code.RIGHT ? Code.LEFT : Code.SAME;
+		} else {
+			n.left = left;
+			n.right = right;
+		}
+		n.tags = 0;
+		n.updatePending();
+		return n;
+	}
+
+	/**
+	 * Pushes every tag in this subtree down to the nodes, visiting only the
+	 * PENDING nodes: the tagged subtrees and the paths down to them. This
+	 * takes O(k + t log n) time for t tagged subtrees of k nodes in all.
+	 * @param size Size of this subtree.
+	 * @param info Carries the epoch of the tree doing the edit.
+	 * @return This node or its copy, with no PENDING node below it.
+	 */
+	Node pushPending(int size, AdjustionInfo info) {
+		if (this.tags == 0) {
+			return this;
+		}
+		Node n = this.push(size, info);
+		n.left = n.left.pushPending(n.rank, info);
+		n.right = n.right.pushPending(size - n.rank - 1, info);
+		n.tags = 0;
+		return n;
+	}
+
+	/**
+	 * Pushes the tags on the nodes an add or a deletion at index will look at:
+	 * the path down to it, with, for a deletion, the path on to the successor
+	 * of the deleted node, and the sibling of each node on the path along with
+	 * the sibling's child a double rotation would lift. Only PENDING nodes are
+	 * visited, so this takes O(log n) time, and no time at all on a tree
+	 * without tags.
+	 * @param index The position of the add or the deletion.
+	 * @param size Size of this subtree.
+	 * @param adding Whether to follow the path of an add, which goes left at
+	 *               the node at index, rather than of a deletion.
+	 * @param info Carries the epoch of the tree doing the edit.
+	 * @return This node or its copy.
+	 */
+	Node pushPath(int index, int size, boolean adding, AdjustionInfo info) {
+		if (this.tags == 0) {
+			return this;
+		}
+		Node n = this.push(size, info);
+		int rightSize = size - n.rank - 1;
+		if (index < n.rank || (adding && index == n.rank)) {
+			n.left = n.left.pushPath(index, n.rank, adding, info);
+			n.right = n.right.pushSibling(rightSize, true, info);
+		} else if (index > n.rank) {
+			n.right = n.right.pushPath(index - n.rank - 1, rightSize, adding, info);
+			n.left = n.left.pushSibling(n.rank, false, info);
+		} else { // n is deleted, by moving up the first node on its right
+			n.right = n.right.pushPath(0, rightSize, true, info);
+			n.left = n.left.pushSibling(n.rank, false, info);
+		}
+		n.updatePending();
+		return n;
+	}
+
+	/**
+	 * Pushes the tags of this node, and of its child on the side of its
+	 * sibling, for pushPath().
+	 * @param size Size of this subtree.
+	 * @param right Whether this node is a right child.
+	 * @param info Carries the epoch of the tree doing the edit.
+	 * @return This node or its copy.
+	 */
+	private Node pushSibling(int size, boolean right, AdjustionInfo info) {
+		if (this.tags == 0) {
+			return this;
+		}
+		Node n = this.push(size, info);
+		if (right && (n.left.tags & TAGS) != 0) {
+			n.left = n.left.push(n.rank, info);
+		} else if (!right && (n.right.tags & TAGS) != 0) {
+			n.right = n.right.push(size - n.rank - 1, info);
+		}
+		n.updatePending();
+		return n;
+	}
+
+	/**
+	 * Recomputes hash and power of every stale node in this subtree.
+	 */
+	void updateHash() {
+		Summary s = this.summary();
+		if (s.power != 0) {
+			return;
+		}
+		this.left.updateHash();
+		this.right.updateHash();
+		Summary left = this.left.summary;
+		Summary right = this.right.summary;
+		long h = RollingHash.append(left.hash, RollingHash.BASE, this.data + 1);
+		s.hash = RollingHash.append(h, right.power, right.hash);
+		s.power = RollingHash.multiply(RollingHash.multiply(left.power, RollingHash.BASE), right.power);
+	}
+
+	/**
+	 * Extends a hash by the text of a range of this subtree.
+	 * @param pos Start of the range within this subtree.
+	 * @param length Length of the range.
+	 * @param size Size of this subtree.
+	 * @param hash RollingHash of the text before the range.
+	 * @return RollingHash of that text followed by the range.
+	 */
+	long hashRange(int pos, int length, int size, long hash) {
+		if (length == 0) {
+			return hash;
+		}
+		if (pos == 0 && length == size) {
+			this.updateHash();
+			return RollingHash.append(hash, this.summary.power, this.summary.hash);
+		}
+		if (pos < this.rank) {
+			int inLeft = Math.min(length, this.rank - pos);
+			hash = this.left.hashRange(pos, inLeft, this.rank, hash);
+			pos += inLeft;
+			length -= inLeft;
+		}
+		if (length > 0 && pos == this.rank) {
+			hash = RollingHash.append(hash, RollingHash.BASE, this.data + 1);
+			pos++;
+			length--;
+		}
+		return this.right.hashRange(pos - this.rank - 1, length, size - this.rank - 1, hash);
+	}
+
 	/**
 	 * Adds an char to the designated position.
 	 * @param c The char to be added.
@@ -69,8 +496,14 @@ public class Node {
 	 */
 	public Node add(char c, int index, AdjustionInfo info) {
 		if (this == NULL_NODE) {
-			return new Node(c);
+			Node n = info.pool == null ? new Node(c) : info.pool.take(c);
+			n.epoch = info.epoch;
+			return n;
+		} else if (this.epoch != info.epoch) {
+			return this.own(info).add(c, index, info);
 		} else {
+			this.changed();
+			info.depth++;
 			if (index <= this.rank) { //Recurses to the left subtree
 				this.rank++;
 				this.left = this.left.add(c, index, info);
@@ -85,10 +518,10 @@ public class Node {
 						info.traceUp = false;
 
 						if (this.left.balance == Code.LEFT) {
-							info.rCount++;
+							info.rotated(AdjustionInfo.SINGLE_RIGHT);
 							return this.SRRotate();
 						} else if (this.left.balance == Code.RIGHT) {
-							 info.rCount += 2;
+							 info.rotated(AdjustionInfo.DOUBLE_RIGHT);
 							 return this.DRRotate();
 						}
 
@@ -109,10 +542,10 @@ public class Node {
 						info.traceUp = false;
 
 						if (this.right.balance == Code.RIGHT) {
-							info.rCount++;
+							info.rotated(AdjustionInfo.SINGLE_LEFT);
 							return this.SLRotate();
 						} else if (this.right.balance == Code.LEFT) {
-							 info.rCount += 2;
+							 info.rotated(AdjustionInfo.DOUBLE_LEFT);
 							 return this.DLRotate();
 						}
 
@@ -151,99 +584,139 @@ public class Node {
 	 * @return The updated node.
 	 */
 	public Node delete(int index, AdjustionInfo wrapper) {
-		
+		if (this.epoch != wrapper.epoch) {
+			return this.own(wrapper).delete(index, wrapper);
+		}
+		this.changed();
+		wrapper.depth++;
 		if (this.rank > index) { //Recurses to the left child
 			this.rank--;
 			this.left = this.left.delete(index, wrapper);
-
-			if (wrapper.traceUp) {
-				if (this.balance == Code.LEFT) {
-					this.balance = Code.SAME;
-					
-				} else if (this.balance == Code.RIGHT) {
-					if (this.right.balance == Code.RIGHT) {
-						wrapper.rCount++;
-						return this.SLRotate();
-					} else if (this.right.balance == Code.LEFT) {
-						wrapper.rCount += 2;
-						return this.DLRotate();
-					} else { //this.right.balance == Code.SAME
-						wrapper.rCount++;
-						Node n = this.SLRotate();
-						n.balance = Code.LEFT;
-						n.left.balance = Code.RIGHT;
-						// Height remains unchanged after this rotation
-						wrapper.traceUp = false;
-						return n;
-					}
-				} else { //this.balance == Code.SAME, height remains unchanged
-					this.balance = Code.RIGHT;
-					wrapper.traceUp = false;
-				}
-			}
-			
+			return this.leftShrunk(wrapper);
 		} else if (this.rank < index) { //Recurses to the right child
-			
 			this.right = this.right.delete(index - this.rank - 1, wrapper);
-
-			if (wrapper.traceUp) {
-				if (this.balance == Code.RIGHT) {
-					this.balance = Code.SAME;
-					
-				} else if (this.balance == Code.LEFT) {
-					if (this.left.balance == Code.LEFT) {
-						wrapper.rCount++;
-						return this.SRRotate();
-					} else if (this.left.balance == Code.RIGHT) {
-						wrapper.rCount += 2;
-						return this.DRRotate();
-					} else { //this.left.balance == Code.SAME
-						wrapper.rCount++;
-						Node n = this.SRRotate();
-						n.balance = Code.RIGHT;
-						n.right.balance = Code.LEFT;
-						// Height remains unchanged after this rotation
-						wrapper.traceUp = false; 
-						return n;
-					}
-				} else { //this.balance == Code.SAME
-					this.balance = Code.LEFT;
-					wrapper.traceUp = false;
-				}
-			}
+			return this.rightShrunk(wrapper);
 		} else { //The current node is the target
-			
-			if (wrapper.ch == '\0') { 
-				wrapper.ch = this.data;
-			}
+			wrapper.ch = this.data;
 			if (this.right == NULL_NODE && this.left == NULL_NODE) {
+				wrapper.removed = this;
 				return NULL_NODE;
 			} else if (this.left == NULL_NODE) { //Has only right child
+				wrapper.removed = this;
 				return this.right;
 			} else if (this.right == NULL_NODE) { //Has only left child
+				wrapper.removed = this;
 				return this.left;
 			} else { //Has both children
-				
 				return this.replaceWithSuccessor(wrapper);
 			}
 		}
-
-		return this;
 	}
 
 	/**
 	 * This method replaces the current node with its smallest in-order successor. This is used in deletion.
+	 * The successor is unlinked from the right subtree on the same descent that finds it.
 	 * @param wrapper A container class. Contains the infomation of a deletion.
 	 * @return The updated node.
 	 */
 	public Node replaceWithSuccessor(AdjustionInfo wrapper) {
-		Node n = this.right;
-		while (n.left != NULL_NODE) {
-			n = n.left;
+		this.right = this.right.removeFirst(wrapper);
+		this.data = wrapper.removed.data;
+		return this.rightShrunk(wrapper);
+	}
+
+	/**
+	 * Unlinks the first node of this subtree, which wrapper.removed is set to.
+	 * @param wrapper A container class. Contains the infomation of a deletion.
+	 * @return The updated node.
+	 */
+	private Node removeFirst(AdjustionInfo wrapper) {
+		if (this.epoch != wrapper.epoch) {
+			return this.own(wrapper).removeFirst(wrapper);
+		}
+		this.changed();
+		wrapper.depth++;
+		if (this.left == NULL_NODE) {
+			wrapper.removed = this;
+			return this.right;
 		}
-		this.data = n.data;
-		//delete the redundant successor before returning
-		return this.delete(this.rank + 1, wrapper);
+		this.rank--;
+		this.left = this.left.removeFirst(wrapper);
+		return this.leftShrunk(wrapper);
+	}
+
+	/**
+	 * Fixes the balance of this node after a deletion in its left subtree.
+	 * @param wrapper A container class. Contains the infomation of a deletion.
+	 * @return The updated node.
+	 */
+	private Node leftShrunk(AdjustionInfo wrapper) {
+		if (wrapper.traceUp) {
+			if (this.balance == Code.LEFT) {
+				this.balance = Code.SAME;
+				
+			} else if (this.balance == Code.RIGHT) {
+				// The sibling is not on the path, so it may still be shared.
+				this.right = this.right.own(wrapper);
+				if (this.right.balance == Code.RIGHT) {
+					wrapper.rotated(AdjustionInfo.SINGLE_LEFT);
+					return this.SLRotate();
+				} else if (this.right.balance == Code.LEFT) {
+					this.right.left = this.right.left.own(wrapper);
+					wrapper.rotated(AdjustionInfo.DOUBLE_LEFT);
+					return this.DLRotate();
+				} else { //this.right.balance == Code.SAME
+					wrapper.rotated(AdjustionInfo.SINGLE_LEFT);
+					Node n = this.SLRotate();
+					n.balance = Code.LEFT;
+					n.left.balance = Code.RIGHT;
+					// Height remains unchanged after this rotation
+					wrapper.traceUp = false;
+					return n;
+				}
+			} else { //this.balance == Code.SAME, height remains unchanged
+				this.balance = Code.RIGHT;
+				wrapper.traceUp = false;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Fixes the balance of this node after a deletion in its right subtree.
+	 * @param wrapper A container class. Contains the infomation of a deletion.
+	 * @return The updated node.
+	 */
+	private Node rightShrunk(AdjustionInfo wrapper) {
+		if (wrapper.traceUp) {
+			if (this.balance == Code.RIGHT) {
+				this.balance = Code.SAME;
+				
+			} else if (this.balance == Code.LEFT) {
+				// The sibling is not on the path, so it may still be shared.
+				this.left = this.left.own(wrapper);
+				if (this.left.balance == Code.LEFT) {
+					wrapper.rotated(AdjustionInfo.SINGLE_RIGHT);
+					return this.SRRotate();
+				} else if (this.left.balance == Code.RIGHT) {
+					this.left.right = this.left.right.own(wrapper);
+					wrapper.rotated(AdjustionInfo.DOUBLE_RIGHT);
+					return this.DRRotate();
+				} else { //this.left.balance == Code.SAME
+					wrapper.rotated(AdjustionInfo.SINGLE_RIGHT);
+					Node n = this.SRRotate();
+					n.balance = Code.RIGHT;
+					n.right.balance = Code.LEFT;
+					// Height remains unchanged after this rotation
+					wrapper.traceUp = false; 
+					return n;
+				}
+			} else { //this.balance == Code.SAME
+				this.balance = Code.LEFT;
+				wrapper.traceUp = false;
+			}
+		}
+		return this;
 	}
 
 	/**
@@ -317,12 +790,17 @@ public class Node {
 	 */
 	public Node SLRotate() {
 		Node newRoot = this.right;
+		newRoot.changed();
+		this.changed();
 		Node rightChildLeftSub = this.right.left;
 		newRoot.left = this;
 		newRoot.balance = Code.SAME;
 		newRoot.left.right = rightChildLeftSub;
 		newRoot.left.balance = Code.SAME;
 		newRoot.rank += newRoot.left.rank + 1;
+		newRoot.left.updatePending();
+		newRoot.right.updatePending();
+		newRoot.updatePending();
 		return newRoot;
 	}
 
@@ -332,12 +810,17 @@ public class Node {
 	 */
 	public Node SRRotate() {
 		Node newRoot = this.left;
+		newRoot.changed();
+		this.changed();
 		Node leftChildRightSub = this.left.right;
 		newRoot.right = this;
 		newRoot.right.left = leftChildRightSub;
 		newRoot.right.balance = Code.SAME;
 		newRoot.balance = Code.SAME;
 		newRoot.right.rank -= newRoot.rank + 1;
+		newRoot.left.updatePending();
+		newRoot.right.updatePending();
+		newRoot.updatePending();
 		return newRoot;
 	}
 
@@ -347,6 +830,9 @@ public class Node {
 	 */
 	public Node DLRotate() {
 		Node newRoot = this.right.left;
+		newRoot.changed();
+		this.right.changed();
+		this.changed();
 		Node leftSub = newRoot.left;
 		Node rightSub = newRoot.right;
 		newRoot.left = this;
@@ -368,6 +854,9 @@ public class Node {
 		}
 		newRoot.balance = Code.SAME;
 
+		newRoot.left.updatePending();
+		newRoot.right.updatePending();
+		newRoot.updatePending();
 		return newRoot;
 	}
 
@@ -377,6 +866,9 @@ public class Node {
 	 */
 	public Node DRRotate() {
 		Node newRoot = this.left.right;
+		newRoot.changed();
+		this.left.changed();
+		this.changed();
 		Node leftSub = newRoot.left;
 		Node rightSub = newRoot.right;
 		newRoot.left = this.left;
@@ -398,26 +890,222 @@ public class Node {
 		}
 		newRoot.balance = Code.SAME;
 
+		newRoot.left.updatePending();
+		newRoot.right.updatePending();
+		newRoot.updatePending();
 		return newRoot;
 	}
 
+	/**
+	 * Splits this subtree into info.low, holding its first pos chars, and
+	 * info.high, holding the rest, and sets info.lowHeight and info.highHeight
+	 * to their heights. The nodes on the path to pos are pushed and joined back
+	 * up on either side, which takes O(log n) time in all, since the heights
+	 * of the trees joined on each side grow along the way.
+	 * @param size Size of this subtree.
+	 * @param height Height of this subtree.
+	 * @param pos Number of chars to put in info.low.
+	 * @param info Carries the epoch of the tree doing the edit, and the results.
+	 */
+	void split(int size, int height, int pos, AdjustionInfo info) {
+		if (this == NULL_NODE) {
+			info.low = NULL_NODE;
+			info.high = NULL_NODE;
+			info.lowHeight = -1;
+			info.highHeight = -1;
+			return;
+		}
+		Node n = this.push(size, info);
+		int leftHeight = n.balance == Code.RIGHT ? height - 2 : height - 1;
+		int rightHeight = n.balance == Code.LEFT ? height - 2 : height - 1;
+		int rightSize = size - n.rank - 1;
+		Node left = n.left;
+		Node right = n.right;
+		if (pos <= n.rank) {
+			left.split(n.rank, leftHeight, pos, info);
+			info.high = join(info.high, n.rank - pos, info.highHeight, n, right, rightSize, rightHeight, info);
+			info.highHeight = info.height;
+		} else {
+			right.split(rightSize, rightHeight, pos - n.rank - 1, info);
+			info.low = join(left, n.rank, leftHeight, n, info.low, pos - n.rank - 1, info.lowHeight, info);
+			info.lowHeight = info.height;
+		}
+	}
+
+	/**
+	 * Joins two trees around a node: the chars of left, then k's, then those
+	 * of right. The shorter tree is hung from the spine of the taller one
+	 * where the heights meet, and the balance is fixed on the way back up as
+	 * in add(), so this takes O(|leftHeight - rightHeight| + 1) time. Sets
+	 * info.height to the height of the result.
+	 * @param left The first tree.
+	 * @param leftSize Size of left.
+	 * @param leftHeight Height of left.
+	 * @param k A node with no tags, whose subtrees are discarded.
+	 * @param right The last tree.
+	 * @param rightSize Size of right.
+	 * @param rightHeight Height of right.
+	 * @param info Carries the epoch of the tree doing the edit.
+	 * @return The root of the joined tree.
+	 */
+	static Node join(Node left, int leftSize, int leftHeight, Node k, Node right, int rightSize, int rightHeight,
+			AdjustionInfo info) {
+		k.changed();
+		if (leftHeight > rightHeight + 1) {
+			info.traceUp = false;
+			Node n = left.joinRight(leftSize, leftHeight, k, right, rightHeight, info);
+			info.height = info.traceUp ? leftHeight + 1 : leftHeight;
+			return n;
+		} else if (rightHeight > leftHeight + 1) {
+			info.traceUp = false;
+			Node n = right.joinLeft(rightSize, rightHeight, left, leftSize, leftHeight, k, info);
+			info.height = info.traceUp ? rightHeight + 1 : rightHeight;
+			return n;
+		}
+		k.left = left;
+		k.right = right;
+		k.rank = leftSize;
+		k.balance = leftHeight == rightHeight ? Code.SAME : leftHeight > rightHeight ? Code.LEFT : Code.RIGHT;
+		k.updatePending();
+		info.height = Math.max(leftHeight, rightHeight) + 1;
+		return k;
+	}
+
+	/**
+	 * Hangs k, with the old right subtree and right below it, on the right
+	 * spine of this subtree, which is taller than right by 2 or more.
+	 * @return The updated node.
+	 */
+	private Node joinRight(int size, int height, Node k, Node right, int rightHeight, AdjustionInfo info) {
+		Node n = this.push(size, info);
+		n.changed();
+		int h = n.balance == Code.LEFT ? height - 2 : height - 1;
+		if (h <= rightHeight + 1) {
+			k.left = n.right;
+			k.right = right;
+			k.rank = size - n.rank - 1;
+			k.balance = h == rightHeight ? Code.SAME : Code.LEFT;
+			k.updatePending();
+			n.right = k;
+			info.traceUp = true;
+		} else {
+			n.right = n.right.joinRight(size - n.rank - 1, h, k, right, rightHeight, info);
+		}
+		n.updatePending();
+		if (info.traceUp) {
+			if (n.balance == Code.LEFT) {
+				n.balance = Code.SAME;
+				info.traceUp = false;
+			} else if (n.balance == Code.SAME) {
+				n.balance = Code.RIGHT;
+			} else if (n.right.balance == Code.RIGHT) {
+				info.traceUp = false;
+				info.rotated(AdjustionInfo.SINGLE_LEFT);
+				return n.SLRotate();
+			} else if (n.right.balance == Code.LEFT) {
+				info.traceUp = false;
+				n.right.left = n.right.left.push(n.right.rank, info);
+				info.rotated(AdjustionInfo.DOUBLE_LEFT);
+				return n.DLRotate();
+			} else { // k grew a level without leaning; the height still grows
+				info.rotated(AdjustionInfo.SINGLE_LEFT);
+				Node r = n.SLRotate();
+				r.balance = Code.LEFT;
+				r.left.balance = Code.RIGHT;
+				return r;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Hangs k, with left and the old left subtree below it, on the left spine
+	 * of this subtree, which is taller than left by 2 or more.
+	 * @return The updated node.
+	 */
+	private Node joinLeft(int size, int height, Node left, int leftSize, int leftHeight, Node k,
+			AdjustionInfo info) {
+		Node n = this.push(size, info);
+		n.changed();
+		int h = n.balance == Code.RIGHT ? height - 2 : height - 1;
+		int oldRank = n.rank;
+		n.rank += leftSize + 1;
+		if (h <= leftHeight + 1) {
+			k.left = left;
+			k.right = n.left;
+			k.rank = leftSize;
+			k.balance = h == leftHeight ? Code.SAME : Code.RIGHT;
+			k.updatePending();
+			n.left = k;
+			info.traceUp = true;
+		} else {
+			n.left = n.left.joinLeft(oldRank, h, left, leftSize, leftHeight, k, info);
+		}
+		n.updatePending();
+		if (info.traceUp) {
+			if (n.balance == Code.RIGHT) {
+				n.balance = Code.SAME;
+				info.traceUp = false;
+			} else if (n.balance == Code.SAME) {
+				n.balance = Code.LEFT;
+			} else if (n.left.balance == Code.LEFT) {
+				info.traceUp = false;
+				info.rotated(AdjustionInfo.SINGLE_RIGHT);
+				return n.SRRotate();
+			} else if (n.left.balance == Code.RIGHT) {
+				info.traceUp = false;
+				n.left.right = n.left.right.push(n.rank - n.left.rank - 1, info);
+				info.rotated(AdjustionInfo.DOUBLE_RIGHT);
+				return n.DRRotate();
+			} else { // k grew a level without leaning; the height still grows
+				info.rotated(AdjustionInfo.SINGLE_RIGHT);
+				Node r = n.SRRotate();
+				r.balance = Code.RIGHT;
+				r.right.balance = Code.LEFT;
+				return r;
+			}
+		}
+		return n;
+	}
+
 	/**
 	 * Builds a tree from a string, which is the inorder traversal of the tree. This tree's root will be the current node.
 	 * @param str A tree will be built according to this string.
 	 * @return The root node of the tree created from the string.
 	 */
 	public Node buildFromString(String str) {
-		if (str.length() == 1) {
-			return new Node(str.charAt(0));
+		return this.buildFromString(str, new AdjustionInfo('\0', true, 0));
+	}
+
+	/**
+	 * Same as buildFromString(String), but for the tree info belongs to: the
+	 * nodes carry its epoch, and come from its pool if it has one.
+	 */
+	Node buildFromString(String str, AdjustionInfo info) {
+		return build(str, 0, str.length(), info);
+	}
+
+	/**
+	 * Builds the same tree as buildFromString() for the chars of str from
+	 * `from` to `to`, exclusive, indexing into str instead of copying it.
+	 */
+	static Node build(CharSequence str, int from, int to, AdjustionInfo info) {
+		int length = to - from;
+		if (length == 1) {
+			Node n = info.pool == null ? new Node(str.charAt(from)) : info.pool.take(str.charAt(from));
+			n.epoch = info.epoch;
+			return n;
 		} 
-		int mid = str.length() / 2;
-		Node n = new Node(str.charAt(mid), NULL_NODE, NULL_NODE, mid, Code.SAME);
-		n.left = n.left.buildFromString(str.substring(0, mid));
-		if (str.length() == 2) {
+		int mid = length / 2;
+		Node n = info.pool == null ? new Node(str.charAt(from + mid)) : info.pool.take(str.charAt(from + mid));
+		n.epoch = info.epoch;
+		n.rank = mid;
+		n.left = build(str, from, from + mid, info);
+		if (length == 2) {
 			n.balance = Code.LEFT;
 			return n;
 		} else {
-			n.right = n.right.buildFromString(str.substring(mid + 1, str.length()));
+			n.right = build(str, from + mid + 1, to, info);
 			if (n.left.balance == Code.LEFT && n.right.balance == Code.SAME) {
 				n.balance = Code.LEFT;
 			}
@@ -465,24 +1153,74 @@ public class Node {
 	 * @return A substring that starts at the given index with the given length. 
 	 */
 	public String subString(int index, int length) {
+		StringBuilder sb = new StringBuilder(Math.max(length, 0));
+		this.appendRange(sb, index, length);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends a range of the current tree to sb, the same way subString() would
+	 * return it, without building the intermediate strings.
+	 * @param sb The builder to append to.
+	 * @param index The start index of the range.
+	 * @param length The length of the range.
+	 */
+	void appendRange(StringBuilder sb, int index, int length) {
 
 		if (length <= 0) {
-			return "";
+			return;
 		}
 
 		if (index <= this.rank) {
 			if (index + length <= this.rank) {
-				return this.left.subString(index, length);
+				this.left.appendRange(sb, index, length);
 			} else {
-				return this.left.subString(index, this.rank - index) + this.data + 
-							this.right.subString(0, length - this.rank + index - 1);
+				this.left.appendRange(sb, index, this.rank - index);
+				sb.append(this.data);
+				this.right.appendRange(sb, 0, length - this.rank + index - 1);
 			}
 		} else {
-			return this.right.subString(index - this.rank - 1, length);
+			this.right.appendRange(sb, index - this.rank - 1, length);
 		}
 	}
 
 
+	/**
+	 * Same as appendRange(StringBuilder, int, int), but applying the tags of
+	 * this subtree and those passed down from above it, without pushing them.
+	 * @param sb The builder to append to.
+	 * @param index The start index of the range.
+	 * @param length The length of the range.
+	 * @param size Size of this subtree.
+	 * @param reversed Whether the subtree is reversed by the tags above it.
+	 * @param map The map the tags above it apply, or null.
+	 */
+	void appendRange(StringBuilder sb, int index, int length, int size, boolean reversed, CaseMap map) {
+		if (length <= 0) {
+			return;
+		}
+		reversed ^= this.reversed();
+		if (map == null) {
+			map = this.map();
+		}
+		int rank = reversed ? size - this.rank - 1 : this.rank;
+		if (index < rank) {
+			int inFirst = Math.min(length, rank - index);
+			(reversed ? this.right : this.left).appendRange(sb, index, inFirst, rank, reversed, map);
+			index += inFirst;
+			length -= inFirst;
+		}
+		if (length > 0 && index == rank) {
+			sb.append(map == null ? this.data : map.apply(this.data));
+			index++;
+			length--;
+		}
+		if (length > 0) {
+			(reversed ? this.left : this.right).appendRange(sb, index - rank - 1, length, size - rank - 1,
+					reversed, map);
+		}
+	}
+
 	/**
 	 * Outputs all chars stored in the current tree in-order. 
 	 * @return A string containing all chars in the current tree. 
@@ -0,0 +1,93 @@
+package editortrees;
+
+/**
+ * A bounded free list of Nodes, so that a tree that deletes and re-adds a lot
+ * can reuse its nodes instead of leaving them to the garbage collector. Each
+ * pool belongs to a single EditTree (see EditTree.enableNodePool()): the tree
+ * gives back a node once a delete has unlinked it, and add and setText take
+ * nodes from here before allocating new ones.
+ *
+ * A node may only be given back once nothing but the pool can reach it. That
+ * holds for the nodes a tree unlinks: a node shared with a copy of the tree is
+ * never unlinked in place, since the tree copies a shared node before
+ * changing it (see Node.own()), and it is the copy that gets unlinked.
+ * setText() only gives back the nodes the tree does not share, and
+ * writeSnapshot() only reads nodes. Given-back nodes are scrubbed, so the
+ * chunk offset of a saved subtree or a stale child link never outlives the
+ * node's first life.
+ */
+public class NodePool {
+
+	private final int capacity;
+	private Node free = Node.NULL_NODE; // chained through left
+	private int size;
+	private long reused;
+
+	/**
+	 * @param capacity most nodes the pool keeps; further nodes given back are
+	 *                 left to the garbage collector
+	 */
+	public NodePool(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return a leaf holding c, reused from the pool if it has one
+	 */
+	Node take(char c) {
+		if (this.free == Node.NULL_NODE) {
+			return new Node(c);
+		}
+		Node n = this.free;
+		this.free = n.left;
+		this.size--;
+		this.reused++;
+		n.data = c;
+		n.left = Node.NULL_NODE;
+		return n;
+	}
+
+	/**
+	 * Gives n back to the pool, unless the pool is full.
+	 *
+	 * @param n a node no tree can reach any more
+	 */
+	void give(Node n) {
+		if (this.size == this.capacity || n == Node.NULL_NODE) {
+			return;
+		}
+		n.data = '\0';
+		n.left = this.free;
+		n.right = Node.NULL_NODE;
+		n.rank = 0;
+		n.balance = Node.Code.SAME;
+		n.tags = 0;
+		n.changed();
+		this.free = n;
+		this.size++;
+	}
+
+	/**
+	 * @return the number of nodes waiting to be reused
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the most nodes this pool keeps
+	 */
+	public int capacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return the number of nodes handed out again instead of being allocated
+	 */
+	public long reusedCount() {
+		return this.reused;
+	}
+}
@@ -0,0 +1,91 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NodePoolTest {
+
+	@Test
+	public void testPooledTreeMatchesPlainTree() {
+		EditTree plain = new EditTree();
+		EditTree pooled = new EditTree();
+		pooled.enableNodePool(64);
+		StringBuilder model = new StringBuilder();
+		Random random = new Random(37);
+		for (int i = 0; i < 20000; i++) {
+			if (model.length() > 0 && random.nextInt(2) == 0) {
+				int pos = random.nextInt(model.length());
+				char expected = model.charAt(pos);
+				model.deleteCharAt(pos);
+				assertEquals(expected, plain.delete(pos));
+				assertEquals(expected, pooled.delete(pos));
+			} else {
+				int pos = random.nextInt(model.length() + 1);
+				char c = (char) ('a' + random.nextInt(26));
+				model.insert(pos, c);
+				plain.add(c, pos);
+				pooled.add(c, pos);
+			}
+		}
+		assertEquals(model.toString(), pooled.toString());
+		assertEquals(plain.toDebugString(), pooled.toDebugString());
+		assertEquals(plain.totalRotationCount(), pooled.totalRotationCount());
+		assertTrue(pooled.ranksMatchLeftSubtreeSize());
+		assertTrue(pooled.balanceCodesAreCorrect());
+		assertTrue(pooled.nodePool().reusedCount() > 0);
+		assertTrue(pooled.nodePool().size() <= 64);
+	}
+
+	@Test
+	public void testDeletedNodesAreReused() {
+		EditTree t = new EditTree();
+		t.enableNodePool(8);
+		for (int i = 0; i < 8; i++) {
+			t.add((char) ('a' + i));
+		}
+		for (int i = 0; i < 8; i++) {
+			t.delete(0);
+		}
+		assertEquals(8, t.nodePool().size());
+		for (int i = 0; i < 12; i++) {
+			t.add((char) ('a' + i));
+		}
+		assertEquals(0, t.nodePool().size());
+		assertEquals(8, t.nodePool().reusedCount());
+		assertEquals("abcdefghijkl", t.toString());
+		assertTrue(t.balanceCodesAreCorrect());
+	}
+
+	@Test
+	public void testCopyDoesNotShareNodesWithPool() {
+		EditTree t = new EditTree("abcdefgh");
+		t.enableNodePool(16);
+		EditTree copy = new EditTree(t);
+		for (int i = 0; i < 8; i++) {
+			t.delete(0);
+		}
+		t.setText("zyxwvuts");
+		assertEquals("abcdefgh", copy.toString());
+		assertEquals("zyxwvuts", t.toString());
+		assertNull(copy.nodePool());
+	}
+
+	@Test
+	public void testSetTextRecyclesOldNodes() {
+		EditTree t = new EditTree("the quick brown fox");
+		EditTree expected = new EditTree("jumps over the lazy dog");
+		t.enableNodePool(100);
+		t.setText("jumps over the lazy dog");
+		assertEquals(expected.toDebugString(), t.toDebugString());
+		assertEquals(19, t.nodePool().reusedCount());
+		assertEquals(23, t.size());
+		t.setText("");
+		assertEquals("", t.toString());
+		assertEquals(23, t.nodePool().size());
+	}
+}
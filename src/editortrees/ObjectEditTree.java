@@ -0,0 +1,114 @@
+package editortrees;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sequence of objects with the O(log n) positional adds, deletes and
+ * lookups of EditTree, sharing its AVL logic through AvlSequence. This is the
+ * generic counterpart of IntEditTree and friends; the name EditTree is taken
+ * by the char tree.
+ *
+ * @param <T> the type of the elements
+ */
+public class ObjectEditTree<T> extends AvlSequence {
+
+	private Object[] values;
+
+	/**
+	 * Constructs an empty sequence.
+	 */
+	public ObjectEditTree() {
+		this.values = new Object[this.left.length];
+	}
+
+	@Override
+	void growValues(int capacity) {
+		this.values = Arrays.copyOf(this.values, capacity);
+	}
+
+	/**
+	 * @param value element to add to the end of the sequence
+	 */
+	public void add(T value) {
+		this.add(value, this.size());
+	}
+
+	/**
+	 * @param value element to add
+	 * @param pos   position to add it at, from 0 to size() inclusive
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public void add(T value, int pos) throws IndexOutOfBoundsException {
+		int n = this.link(pos); // may grow values, so look the array up after
+		this.values[n] = value;
+	}
+
+	/**
+	 * @param pos position of the element to delete
+	 * @return the deleted element
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public T delete(int pos) throws IndexOutOfBoundsException {
+		int n = this.unlink(pos);
+		T deleted = this.value(n);
+		this.values[n] = null; // don't keep it reachable
+		return deleted;
+	}
+
+	/**
+	 * @param pos position in the sequence
+	 * @return the element at that position
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public T get(int pos) throws IndexOutOfBoundsException {
+		return this.value(this.locate(pos));
+	}
+
+	/**
+	 * @param pos   position of the element to replace
+	 * @param value its new value
+	 * @return the element that was there
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	public T set(int pos, T value) throws IndexOutOfBoundsException {
+		int n = this.locate(pos);
+		T old = this.value(n);
+		this.values[n] = value;
+		return old;
+	}
+
+	/**
+	 * @param pos    position of the first element to return
+	 * @param length number of elements to return
+	 * @return the length elements starting at pos
+	 * @throws IndexOutOfBoundsException unless the whole range is in the
+	 *                                   sequence
+	 */
+	public List<T> get(int pos, int length) throws IndexOutOfBoundsException {
+		this.seek(pos, length);
+		List<T> range = new ArrayList<T>(length);
+		for (int i = 0; i < length; i++) {
+			range.add(this.value(this.next()));
+		}
+		return range;
+	}
+
+	/**
+	 * @return all the elements, in order
+	 */
+	public List<T> toList() {
+		return this.get(0, this.size());
+	}
+
+	@Override
+	public String toString() {
+		return this.toList().toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private T value(int n) {
+		return (T) this.values[n];
+	}
+}
@@ -0,0 +1,154 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RangeTransformTest {
+
+	@Test
+	public void testReverseAndMap() {
+		EditTree t = new EditTree("Hello, World");
+		t.reverse(0, 5);
+		assertEquals("olleH, World", t.toString());
+		t.mapRange(3, 6, CaseMap.UPPER);
+		assertEquals("ollEH, WOrld", t.toString());
+		t.reverse(2, 8);
+		assertEquals("olrOW ,HElld", t.toString());
+		assertEquals('H', t.get(7));
+		assertEquals("OW ,", t.get(3, 4));
+		t.mapRange(0, 12, CaseMap.LOWER);
+		assertEquals("olrow ,helld", t.toString());
+		t.add('!', 12);
+		t.delete(0);
+		assertEquals("lrow ,helld!", t.toString());
+		assertTrue(t.isConsistent());
+	}
+
+	@Test
+	public void testLastMapWins() {
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			for (CaseMap first : CaseMap.values()) {
+				for (CaseMap second : CaseMap.values()) {
+					assertEquals(second.apply((char) c), second.apply(first.apply((char) c)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSummariesAfterTransforms() {
+		EditTree t = new EditTree("a(b[c]d)e");
+		t.trackCharacters("ab");
+		t.reverse(0, 9);
+		assertEquals("e)d]c[b(a", t.toString());
+		assertEquals(new EditTree("e)d]c[b(a").contentHash(), t.contentHash());
+		assertEquals(1, t.countBefore('b', 7));
+		assertEquals(-1, t.matchingBracket(1));
+		t.mapRange(0, 9, CaseMap.UPPER);
+		assertEquals(0, t.countBefore('b', 9));
+		assertEquals("E)D]C[B(A", t.toString());
+		assertTrue(t.ranksMatchLeftSubtreeSize() && t.balanceCodesAreCorrect());
+	}
+
+	@Test
+	public void testCopiesAreIsolated() {
+		EditTree t = new EditTree("abcdefgh");
+		EditTree copy = new EditTree(t);
+		t.reverse(2, 4);
+		EditTree second = new EditTree(t);
+		t.mapRange(0, 8, CaseMap.UPPER);
+		second.reverse(0, 8);
+		assertEquals("abcdefgh", copy.toString());
+		assertEquals("ABFEDCGH", t.toString());
+		assertEquals("hgcdefba", second.toString());
+		assertEquals("ABFEDCGH", t.get(0, 8));
+		assertTrue(t.isConsistent() && second.isConsistent() && copy.isConsistent());
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(47);
+		EditTree t = new EditTree();
+		t.enableSampledValidation(1);
+		StringBuilder model = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			int op = random.nextInt(12);
+			if (op < 4 || model.length() == 0) {
+				int pos = random.nextInt(model.length() + 1);
+				char c = (char) ('a' + random.nextInt(26));
+				t.add(c, pos);
+				model.insert(pos, c);
+			} else if (op < 7) {
+				int pos = random.nextInt(model.length());
+				assertEquals(model.charAt(pos), t.delete(pos));
+				model.deleteCharAt(pos);
+			} else {
+				int pos = random.nextInt(model.length() + 1);
+				int length = random.nextInt(model.length() - pos + 1);
+				String range = model.substring(pos, pos + length);
+				if (op < 9) {
+					t.reverse(pos, length);
+					range = new StringBuilder(range).reverse().toString();
+				} else if (op < 10) {
+					t.mapRange(pos, length, CaseMap.UPPER);
+					range = range.toUpperCase();
+				} else if (op < 11) {
+					t.mapRange(pos, length, CaseMap.LOWER);
+					range = range.toLowerCase();
+				} else {
+					assertEquals(model.toString().hashCode(), t.toString().hashCode());
+					assertEquals(new EditTree(model.toString()).contentHash(), t.contentHash());
+				}
+				model.replace(pos, pos + length, range);
+			}
+			if (model.length() > 0) {
+				int pos = random.nextInt(model.length());
+				assertEquals(model.charAt(pos), t.get(pos));
+			}
+		}
+		assertEquals(model.toString(), t.toString());
+		assertEquals(model.length(), t.size());
+		assertTrue(t.isConsistent());
+	}
+
+	@Test
+	public void testLongReverseIsFast() {
+		char[] chars = new char[1 << 20];
+		java.util.Arrays.fill(chars, 'x');
+		chars[0] = 'a';
+		EditTree t = new EditTree(new String(chars));
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			t.reverse(0, t.size());
+		}
+		assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		assertEquals('a', t.get(0));
+		t.reverse(0, t.size());
+		assertEquals('a', t.get(t.size() - 1));
+	}
+
+	@Test
+	public void testSmallTransformsOnlyPushTheirOwnTags() {
+		char[] chars = new char[1 << 20];
+		java.util.Arrays.fill(chars, 'x');
+		EditTree t = new EditTree(new String(chars));
+		StringBuilder expected = new StringBuilder(new String(chars));
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			int pos = i * 1000;
+			t.add('a', pos);
+			t.reverse(pos, 2);
+			t.mapRange(pos, 2, CaseMap.UPPER);
+			t.delete(pos + 2);
+			t.contentHash();
+			expected.replace(pos, pos + 2, "XA");
+		}
+		assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		assertEquals(expected.toString(), t.toString());
+		assertTrue(t.isConsistent());
+	}
+}
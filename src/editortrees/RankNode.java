@@ -0,0 +1,39 @@
+package editortrees;
+
+/**
+ * A node of the trees built on AbstractRankTree. Unlike Node, which stores the
+ * size of its left subtree, a RankNode stores the size of its whole subtree,
+ * which is the one number every engine can recompute locally after a
+ * rotation. The meaning of tag depends on the engine: the color of a red-black
+ * node, the rank of a WAVL node, the priority of a treap node.
+ */
+class RankNode {
+
+	static final RankNode NIL = new RankNode();
+
+	char data;
+	RankNode left, right;
+	int size;
+	int tag;
+
+	private RankNode() {
+		this.left = this;
+		this.right = this;
+		this.size = 0;
+	}
+
+	RankNode(char data, int tag) {
+		this.data = data;
+		this.left = NIL;
+		this.right = NIL;
+		this.size = 1;
+		this.tag = tag;
+	}
+
+	/**
+	 * Recomputes size from the children.
+	 */
+	void resize() {
+		this.size = this.left.size + this.right.size + 1;
+	}
+}
@@ -0,0 +1,67 @@
+package editortrees;
+
+/**
+ * The operations of a rank tree of chars, as offered by EditTree. Every
+ * BalancingEngine produces one of these, so workloads can be run against each
+ * balancing scheme through the same calls.
+ */
+public interface RankTree {
+
+	/**
+	 * @return the number of characters in the tree
+	 */
+	int size();
+
+	/**
+	 * @param ch character to add to the end of the tree
+	 */
+	void add(char ch);
+
+	/**
+	 * @param ch  character to add
+	 * @param pos in-order position to add it at, from 0 to size() inclusive
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	void add(char ch, int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * @param pos position of the character to delete
+	 * @return the deleted character
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	char delete(int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * @param pos position in the tree
+	 * @return the character at that position
+	 * @throws IndexOutOfBoundsException if pos is negative or too large
+	 */
+	char get(int pos) throws IndexOutOfBoundsException;
+
+	/**
+	 * @param pos    position of the first character to return
+	 * @param length number of characters to return
+	 * @return the string of length characters starting at pos
+	 * @throws IndexOutOfBoundsException unless both pos and pos+length-1 are
+	 *                                   positions in the tree
+	 */
+	String get(int pos, int length) throws IndexOutOfBoundsException;
+
+	/**
+	 * @return the total number of rotations done since the tree was created. A
+	 *         double rotation counts as two.
+	 */
+	int totalRotationCount();
+
+	/**
+	 * @return the height of the tree, computed without relying on any balance
+	 *         information
+	 */
+	int slowHeight();
+
+	/**
+	 * @return all the characters of the tree, in order
+	 */
+	@Override
+	String toString();
+}
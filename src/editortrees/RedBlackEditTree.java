@@ -0,0 +1,175 @@
+package editortrees;
+
+/**
+ * A RankTree balanced as a red-black tree. Its height can reach twice the
+ * minimum, against 1.44 times for AVL, but an add does at most two rotations
+ * and a delete at most three, where an AVL delete may rotate at every level.
+ *
+ * Nodes have no parent links: add and delete record the path they descend in
+ * an array and walk back up it while fixing colors.
+ */
+public class RedBlackEditTree extends AbstractRankTree {
+
+	static final int BLACK = 0; // also the tag of RankNode.NIL
+	static final int RED = 1;
+
+	// A red-black tree of 2^31 nodes is at most 62 high; one extra slot for the
+	// node pushed by a recoloring rotation during delete.
+	private final RankNode[] path = new RankNode[64];
+
+	/**
+	 * Constructs an empty tree.
+	 */
+	public RedBlackEditTree() {
+	}
+
+	@Override
+	void insert(char ch, int pos) {
+		RankNode x = new RankNode(ch, RED);
+		int depth = this.attach(x, pos, this.path);
+
+		// x is red; fix a red parent. A red parent is never the root, so the
+		// grandparent exists.
+		while (depth > 0 && this.path[depth - 1].tag == RED) {
+			RankNode p = this.path[depth - 1];
+			RankNode g = this.path[depth - 2];
+			RankNode uncle = g.left == p ? g.right : g.left;
+			if (uncle.tag == RED) {
+				p.tag = BLACK;
+				uncle.tag = BLACK;
+				g.tag = RED;
+				x = g;
+				depth -= 2;
+				continue;
+			}
+			RankNode top;
+			if (g.left == p) {
+				if (p.right == x) {
+					g.left = this.rotateLeft(p);
+				}
+				top = this.rotateRight(g);
+			} else {
+				if (p.left == x) {
+					g.right = this.rotateRight(p);
+				}
+				top = this.rotateLeft(g);
+			}
+			top.tag = BLACK;
+			g.tag = RED;
+			this.replaceChild(depth > 2 ? this.path[depth - 3] : null, g, top);
+			break;
+		}
+		this.root.tag = BLACK;
+	}
+
+	@Override
+	char remove(int pos) {
+		int depth = 0;
+		RankNode n = this.root;
+		while (pos != n.left.size) {
+			n.size--;
+			this.path[depth++] = n;
+			if (pos < n.left.size) {
+				n = n.left;
+			} else {
+				pos -= n.left.size + 1;
+				n = n.right;
+			}
+		}
+		char removed = n.data;
+		if (n.left != RankNode.NIL && n.right != RankNode.NIL) {
+			// Take over the successor's char and unlink the successor instead.
+			n.size--;
+			this.path[depth++] = n;
+			RankNode successor = n.right;
+			while (successor.left != RankNode.NIL) {
+				successor.size--;
+				this.path[depth++] = successor;
+				successor = successor.left;
+			}
+			n.data = successor.data;
+			n = successor;
+		}
+
+		RankNode child = n.left != RankNode.NIL ? n.left : n.right;
+		RankNode parent = depth > 0 ? this.path[depth - 1] : null;
+		boolean left = parent != null && parent.left == n;
+		this.replaceChild(parent, n, child);
+		if (n.tag == RED) {
+			return removed;
+		}
+		if (child.tag == RED) {
+			child.tag = BLACK;
+			return removed;
+		}
+
+		// The subtree on the left (or right) side of path[depth - 1] is one
+		// black node short. Push the shortage up until a red node absorbs it.
+		while (depth > 0) {
+			RankNode p = this.path[depth - 1];
+			RankNode sibling = left ? p.right : p.left;
+			if (sibling.tag == RED) {
+				sibling.tag = BLACK;
+				p.tag = RED;
+				this.replaceChild(depth > 1 ? this.path[depth - 2] : null, p,
+						left ? this.rotateLeft(p) : this.rotateRight(p));
+				this.path[depth - 1] = sibling;
+				this.path[depth++] = p;
+				sibling = left ? p.right : p.left;
+			}
+			RankNode near = left ? sibling.left : sibling.right;
+			RankNode far = left ? sibling.right : sibling.left;
+			if (near.tag == BLACK && far.tag == BLACK) {
+				sibling.tag = RED;
+				if (p.tag == RED) {
+					p.tag = BLACK;
+					break;
+				}
+				depth--;
+				left = depth > 0 && this.path[depth - 1].left == p;
+				continue;
+			}
+			if (far.tag == BLACK) {
+				near.tag = BLACK;
+				sibling.tag = RED;
+				if (left) {
+					p.right = this.rotateRight(sibling);
+				} else {
+					p.left = this.rotateLeft(sibling);
+				}
+				far = sibling;
+				sibling = near;
+			}
+			sibling.tag = p.tag;
+			p.tag = BLACK;
+			far.tag = BLACK;
+			this.replaceChild(depth > 1 ? this.path[depth - 2] : null, p,
+					left ? this.rotateLeft(p) : this.rotateRight(p));
+			break;
+		}
+		return removed;
+	}
+
+	/**
+	 * @return true iff the root is black, no red node has a red child, and
+	 *         every path from the root to NIL passes the same number of black
+	 *         nodes
+	 */
+	public boolean colorsAreCorrect() {
+		return this.root.tag == BLACK && blackHeight(this.root) >= 0;
+	}
+
+	private static int blackHeight(RankNode n) {
+		if (n == RankNode.NIL) {
+			return 0;
+		}
+		if (n.tag == RED && (n.left.tag == RED || n.right.tag == RED)) {
+			return -1;
+		}
+		int left = blackHeight(n.left);
+		if (left < 0 || left != blackHeight(n.right)) {
+			return -1;
+		}
+		return left + (n.tag == BLACK ? 1 : 0);
+	}
+}
@@ -0,0 +1,39 @@
+package editortrees;
+
+/**
+ * Polynomial hashing modulo the Mersenne prime 2^61 - 1. The hash of a text
+ * c_0 c_1 ... c_(n-1) is the sum of (c_i + 1) * BASE^(n-1-i), so the hash of
+ * the concatenation xy is hash(x) * BASE^|y| + hash(y), which is how Node
+ * combines the hashes of its subtrees. Adding one to each char keeps NUL from
+ * hashing like nothing at all.
+ */
+final class RollingHash {
+
+	static final long MOD = (1L << 61) - 1;
+	static final long BASE = 0x16A09E667F3BCC9L;
+
+	private RollingHash() {
+	}
+
+	/**
+	 * @return a * b mod MOD, for a and b in [0, MOD)
+	 */
+	static long multiply(long a, long b) {
+		long high = Math.multiplyHigh(a, b);
+		long low = a * b;
+		long r = (low & MOD) + (low >>> 61) + (high << 3);
+		r = (r & MOD) + (r >>> 61);
+		return r >= MOD ? r - MOD : r;
+	}
+
+	/**
+	 * @param hash  hash of a text x
+	 * @param power BASE^|y|
+	 * @param tail  hash of a text y
+	 * @return hash of xy
+	 */
+	static long append(long hash, long power, long tail) {
+		long r = multiply(hash, power) + tail;
+		return r >= MOD ? r - MOD : r;
+	}
+}
@@ -0,0 +1,461 @@
+package editortrees;
+
+/**
+ * A RankTree stored as a B+ tree rope instead of a binary tree of chars. Leaves
+ * hold runs of up to LEAF_CAPACITY chars in a char[], and inner nodes hold
+ * MIN_CHILDREN to MAX_CHILDREN children together with the cumulative sizes of
+ * their children, so finding a position means scanning a small int array per
+ * level. With leaves a few hundred chars long, a 100M char document is only
+ * four or five levels deep, against about 37 for an AVL tree, which saves a
+ * cache miss per level on every lookup.
+ *
+ * Leaves are linked in document order, so ranges and toString() are copied
+ * from leaf to leaf after a single descent. There are no rotations: nodes are
+ * split when they overflow and merged with or refilled from a neighbor when
+ * they underflow, so totalRotationCount() is always 0.
+ */
+public class RopeEditTree implements RankTree {
+
+	static final int MAX_CHILDREN = 64;
+	static final int MIN_CHILDREN = 16;
+	static final int LEAF_CAPACITY = 512;
+	static final int MIN_LEAF = 128;
+
+	// Fill of the nodes made by the bulk load, leaving room for adds.
+	private static final int BULK_CHILDREN = 48;
+	private static final int BULK_LEAF = 384;
+
+	/**
+	 * A leaf (chars != null) or an inner node (children != null). For a leaf,
+	 * count is the number of chars used; for an inner node, it is the number of
+	 * children, and ends[i] is the total size of children 0 to i.
+	 */
+	static final class RopeNode {
+		char[] chars;
+		RopeNode[] children;
+		int[] ends;
+		int count;
+		RopeNode next; // the following leaf
+
+		static RopeNode leaf() {
+			RopeNode n = new RopeNode();
+			n.chars = new char[LEAF_CAPACITY];
+			return n;
+		}
+
+		static RopeNode inner() {
+			RopeNode n = new RopeNode();
+			// One spare slot, filled just before a split.
+			n.children = new RopeNode[MAX_CHILDREN + 1];
+			n.ends = new int[MAX_CHILDREN + 1];
+			return n;
+		}
+
+		int size() {
+			return this.chars != null ? this.count : this.ends[this.count - 1];
+		}
+
+		boolean underflows() {
+			return this.count < (this.chars != null ? MIN_LEAF : MIN_CHILDREN);
+		}
+
+		/**
+		 * Recomputes ends from the children, starting at child from.
+		 */
+		void sumFrom(int from) {
+			int end = from == 0 ? 0 : this.ends[from - 1];
+			for (int i = from; i < this.count; i++) {
+				end += this.children[i].size();
+				this.ends[i] = end;
+			}
+		}
+	}
+
+	private RopeNode root;
+	private int size;
+
+	/**
+	 * Constructs an empty tree.
+	 */
+	public RopeEditTree() {
+		this.root = RopeNode.leaf();
+	}
+
+	/**
+	 * Constructs a tree holding s, in O(n) time. Nodes are filled to about
+	 * three quarters, so that adds do not split them right away.
+	 *
+	 * @param s the contents of the new tree
+	 */
+	public RopeEditTree(String s) {
+		int length = s.length();
+		int leaves = Math.max(1, (length + BULK_LEAF - 1) / BULK_LEAF);
+		RopeNode[] level = new RopeNode[leaves];
+		for (int i = 0; i < leaves; i++) {
+			int from = (int) ((long) length * i / leaves);
+			int to = (int) ((long) length * (i + 1) / leaves);
+			RopeNode leaf = RopeNode.leaf();
+			s.getChars(from, to, leaf.chars, 0);
+			leaf.count = to - from;
+			level[i] = leaf;
+			if (i > 0) {
+				level[i - 1].next = leaf;
+			}
+		}
+		while (level.length > 1) {
+			int parents = (level.length + BULK_CHILDREN - 1) / BULK_CHILDREN;
+			RopeNode[] above = new RopeNode[parents];
+			for (int i = 0; i < parents; i++) {
+				int from = (int) ((long) level.length * i / parents);
+				int to = (int) ((long) level.length * (i + 1) / parents);
+				RopeNode inner = RopeNode.inner();
+				System.arraycopy(level, from, inner.children, 0, to - from);
+				inner.count = to - from;
+				inner.sumFrom(0);
+				above[i] = inner;
+			}
+			level = above;
+		}
+		this.root = level[0];
+		this.size = length;
+	}
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public void add(char ch) {
+		this.add(ch, this.size);
+	}
+
+	@Override
+	public void add(char ch, int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		RopeNode split = insert(this.root, pos, ch);
+		if (split != null) {
+			RopeNode newRoot = RopeNode.inner();
+			newRoot.children[0] = this.root;
+			newRoot.children[1] = split;
+			newRoot.count = 2;
+			newRoot.sumFrom(0);
+			this.root = newRoot;
+		}
+		this.size++;
+	}
+
+	@Override
+	public char delete(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		char deleted = delete(this.root, pos);
+		while (this.root.children != null && this.root.count == 1) {
+			this.root = this.root.children[0];
+		}
+		this.size--;
+		return deleted;
+	}
+
+	@Override
+	public char get(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		RopeNode n = this.root;
+		while (n.children != null) {
+			int[] ends = n.ends;
+			int i = 0;
+			while (pos >= ends[i]) {
+				i++;
+			}
+			if (i > 0) {
+				pos -= ends[i - 1];
+			}
+			n = n.children[i];
+		}
+		return n.chars[pos];
+	}
+
+	@Override
+	public String get(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos + length > this.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (length == 0) {
+			return "";
+		}
+		char[] out = new char[length];
+		RopeNode n = this.root;
+		while (n.children != null) {
+			int i = 0;
+			while (pos >= n.ends[i]) {
+				i++;
+			}
+			if (i > 0) {
+				pos -= n.ends[i - 1];
+			}
+			n = n.children[i];
+		}
+		int copied = 0;
+		while (copied < length) {
+			int chunk = Math.min(n.count - pos, length - copied);
+			System.arraycopy(n.chars, pos, out, copied, chunk);
+			copied += chunk;
+			pos = 0;
+			n = n.next;
+		}
+		return new String(out);
+	}
+
+	@Override
+	public String toString() {
+		return this.get(0, this.size);
+	}
+
+	/**
+	 * @return 0, since a B+ tree balances by splitting and merging nodes
+	 */
+	@Override
+	public int totalRotationCount() {
+		return 0;
+	}
+
+	/**
+	 * @return the number of levels of inner nodes, which is the height of the
+	 *         tree of nodes rather than of chars
+	 */
+	@Override
+	public int slowHeight() {
+		return slowHeight(this.root);
+	}
+
+	/**
+	 * @return true iff all leaves are at the same depth and linked in order,
+	 *         every node but the root is within its occupancy bounds, and every
+	 *         cumulative size is correct
+	 */
+	public boolean structureIsCorrect() {
+		RopeNode first = this.root;
+		while (first.children != null) {
+			first = first.children[0];
+		}
+		RopeNode[] expectedLeaf = { first };
+		return checkedSize(this.root, true, slowHeight(this.root), expectedLeaf) == this.size
+				&& expectedLeaf[0] == null;
+	}
+
+	/**
+	 * Adds ch at pos in the subtree rooted at n.
+	 *
+	 * @return the new right sibling of n if n had to split, else null
+	 */
+	private static RopeNode insert(RopeNode n, int pos, char ch) {
+		if (n.chars != null) {
+			if (n.count < LEAF_CAPACITY) {
+				insertChar(n, pos, ch);
+				return null;
+			}
+			RopeNode right = RopeNode.leaf();
+			int half = LEAF_CAPACITY / 2;
+			System.arraycopy(n.chars, half, right.chars, 0, LEAF_CAPACITY - half);
+			right.count = LEAF_CAPACITY - half;
+			n.count = half;
+			right.next = n.next;
+			n.next = right;
+			if (pos <= half) {
+				insertChar(n, pos, ch);
+			} else {
+				insertChar(right, pos - half, ch);
+			}
+			return right;
+		}
+
+		// Prefer the end of a child to the start of the next one.
+		int i = 0;
+		while (i < n.count - 1 && pos > n.ends[i]) {
+			i++;
+		}
+		RopeNode split = insert(n.children[i], i == 0 ? pos : pos - n.ends[i - 1], ch);
+		if (split == null) {
+			for (int j = i; j < n.count; j++) {
+				n.ends[j]++;
+			}
+			return null;
+		}
+		System.arraycopy(n.children, i + 1, n.children, i + 2, n.count - i - 1);
+		n.children[i + 1] = split;
+		n.count++;
+		n.sumFrom(i);
+		if (n.count <= MAX_CHILDREN) {
+			return null;
+		}
+		RopeNode right = RopeNode.inner();
+		int half = n.count / 2;
+		System.arraycopy(n.children, half, right.children, 0, n.count - half);
+		right.count = n.count - half;
+		for (int j = half; j < n.count; j++) {
+			n.children[j] = null;
+		}
+		n.count = half;
+		right.sumFrom(0);
+		return right;
+	}
+
+	private static void insertChar(RopeNode leaf, int pos, char ch) {
+		System.arraycopy(leaf.chars, pos, leaf.chars, pos + 1, leaf.count - pos);
+		leaf.chars[pos] = ch;
+		leaf.count++;
+	}
+
+	/**
+	 * Deletes the char at pos in the subtree rooted at n, which may leave n
+	 * underflowing for its parent to fix.
+	 */
+	private static char delete(RopeNode n, int pos) {
+		if (n.chars != null) {
+			char deleted = n.chars[pos];
+			System.arraycopy(n.chars, pos + 1, n.chars, pos, n.count - pos - 1);
+			n.count--;
+			return deleted;
+		}
+		int i = 0;
+		while (pos >= n.ends[i]) {
+			i++;
+		}
+		char deleted = delete(n.children[i], i == 0 ? pos : pos - n.ends[i - 1]);
+		for (int j = i; j < n.count; j++) {
+			n.ends[j]--;
+		}
+		if (n.children[i].underflows() && n.count > 1) {
+			rebalance(n, i < n.count - 1 ? i : i - 1);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Merges children a and a + 1 of parent if they fit in one node, else
+	 * evens out their contents.
+	 */
+	private static void rebalance(RopeNode parent, int a) {
+		RopeNode left = parent.children[a];
+		RopeNode right = parent.children[a + 1];
+		int total = left.count + right.count;
+		boolean leaves = left.chars != null;
+		if (total <= (leaves ? LEAF_CAPACITY : MAX_CHILDREN)) {
+			if (leaves) {
+				System.arraycopy(right.chars, 0, left.chars, left.count, right.count);
+				left.next = right.next;
+			} else {
+				System.arraycopy(right.children, 0, left.children, left.count, right.count);
+			}
+			left.count = total;
+			if (!leaves) {
+				left.sumFrom(0);
+			}
+			System.arraycopy(parent.children, a + 2, parent.children, a + 1, parent.count - a - 2);
+			System.arraycopy(parent.ends, a + 1, parent.ends, a, parent.count - a - 1);
+			parent.count--;
+			parent.children[parent.count] = null;
+		} else {
+			int half = total / 2;
+			if (leaves) {
+				moveChars(left, right, half);
+			} else {
+				moveChildren(left, right, half);
+			}
+			parent.ends[a] = (a == 0 ? 0 : parent.ends[a - 1]) + left.size();
+		}
+	}
+
+	/**
+	 * Moves chars between adjacent leaves so that left ends up with half.
+	 */
+	private static void moveChars(RopeNode left, RopeNode right, int half) {
+		if (left.count > half) {
+			int moved = left.count - half;
+			System.arraycopy(right.chars, 0, right.chars, moved, right.count);
+			System.arraycopy(left.chars, half, right.chars, 0, moved);
+			right.count += moved;
+		} else {
+			int moved = half - left.count;
+			System.arraycopy(right.chars, 0, left.chars, left.count, moved);
+			System.arraycopy(right.chars, moved, right.chars, 0, right.count - moved);
+			right.count -= moved;
+		}
+		left.count = half;
+	}
+
+	/**
+	 * Moves children between adjacent inner nodes so that left ends up with
+	 * half.
+	 */
+	private static void moveChildren(RopeNode left, RopeNode right, int half) {
+		if (left.count > half) {
+			int moved = left.count - half;
+			System.arraycopy(right.children, 0, right.children, moved, right.count);
+			System.arraycopy(left.children, half, right.children, 0, moved);
+			for (int j = half; j < left.count; j++) {
+				left.children[j] = null;
+			}
+			right.count += moved;
+		} else {
+			int moved = half - left.count;
+			System.arraycopy(right.children, 0, left.children, left.count, moved);
+			System.arraycopy(right.children, moved, right.children, 0, right.count - moved);
+			for (int j = right.count - moved; j < right.count; j++) {
+				right.children[j] = null;
+			}
+			right.count -= moved;
+		}
+		left.count = half;
+		left.sumFrom(0);
+		right.sumFrom(0);
+	}
+
+	private static int slowHeight(RopeNode n) {
+		if (n.chars != null) {
+			return 0;
+		}
+		int height = 0;
+		for (int i = 0; i < n.count; i++) {
+			height = Math.max(height, slowHeight(n.children[i]));
+		}
+		return height + 1;
+	}
+
+	/**
+	 * @return the size of the subtree rooted at n, or -1 if it breaks one of
+	 *         the rules checked by structureIsCorrect()
+	 */
+	private static int checkedSize(RopeNode n, boolean isRoot, int height, RopeNode[] expectedLeaf) {
+		if (!isRoot && n.underflows()) {
+			return -1;
+		}
+		if (n.chars != null) {
+			if (height != 0 || n != expectedLeaf[0]) {
+				return -1;
+			}
+			expectedLeaf[0] = n.next;
+			return n.count;
+		}
+		if (height == 0 || n.count > MAX_CHILDREN || isRoot && n.count < 2) {
+			return -1;
+		}
+		int end = 0;
+		for (int i = 0; i < n.count; i++) {
+			int childSize = checkedSize(n.children[i], false, height - 1, expectedLeaf);
+			if (childSize < 0) {
+				return -1;
+			}
+			end += childSize;
+			if (n.ends[i] != end) {
+				return -1;
+			}
+		}
+		return end;
+	}
+}
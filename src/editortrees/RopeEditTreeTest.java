@@ -0,0 +1,65 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for RopeEditTree beyond the checks every engine gets in
+ * BalancingEngineTest.
+ */
+public class RopeEditTreeTest {
+
+	@Test
+	public void testBulkLoadIsShallow() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		String s = sb.toString();
+		RopeEditTree t = new RopeEditTree(s);
+		assertTrue(t.structureIsCorrect());
+		assertEquals(s.length(), t.size());
+		assertTrue(t.slowHeight() <= 3);
+		assertEquals(s, t.toString());
+		assertEquals(s.substring(123456, 123456 + 5000), t.get(123456, 5000));
+		for (int pos = 0; pos < s.length(); pos += 9973) {
+			assertEquals(s.charAt(pos), t.get(pos));
+		}
+
+		assertEquals("", new RopeEditTree("").toString());
+		assertEquals("abc", new RopeEditTree("abc").toString());
+	}
+
+	@Test
+	public void testSplitsAndMergesKeepStructure() {
+		Random random = new Random(34);
+		RopeEditTree t = new RopeEditTree();
+		StringBuilder expected = new StringBuilder();
+		// Grow through several levels of splits, then shrink back to empty
+		// through merges and redistributions.
+		for (int i = 0; i < 100000; i++) {
+			int pos = random.nextInt(expected.length() + 1);
+			char ch = (char) ('a' + random.nextInt(26));
+			t.add(ch, pos);
+			expected.insert(pos, ch);
+		}
+		assertTrue(t.structureIsCorrect());
+		assertTrue(t.slowHeight() >= 2);
+		assertEquals(expected.toString(), t.toString());
+		while (t.size() > 0) {
+			int pos = random.nextInt(t.size());
+			assertEquals(expected.charAt(pos), t.delete(pos));
+			expected.deleteCharAt(pos);
+			if (t.size() % 10000 == 0) {
+				assertTrue(t.structureIsCorrect());
+				assertEquals(expected.toString(), t.toString());
+			}
+		}
+		assertEquals(0, t.slowHeight());
+		assertEquals(0, t.totalRotationCount());
+	}
+}
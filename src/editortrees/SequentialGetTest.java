@@ -0,0 +1,107 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SequentialGetTest {
+
+	@Test
+	public void testForwardAndBackwardLoops() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		String s = sb.toString();
+		EditTree t = new EditTree(s);
+		for (int i = 0; i < s.length(); i++) {
+			assertEquals(s.charAt(i), t.get(i));
+		}
+		for (int i = s.length() - 1; i >= 0; i--) {
+			assertEquals(s.charAt(i), t.get(i));
+		}
+	}
+
+	@Test
+	public void testGetsBetweenEdits() {
+		Random random = new Random(50);
+		EditTree t = new EditTree("start");
+		StringBuilder model = new StringBuilder("start");
+		EditTree copy = new EditTree(t);
+		for (int i = 0; i < 20000; i++) {
+			int op = random.nextInt(8);
+			if (op == 0) {
+				int pos = random.nextInt(model.length() + 1);
+				char c = (char) ('a' + random.nextInt(26));
+				t.add(c, pos);
+				model.insert(pos, c);
+			} else if (op == 1 && model.length() > 1) {
+				int pos = random.nextInt(model.length());
+				t.delete(pos);
+				model.deleteCharAt(pos);
+			} else if (op == 2) {
+				t.add('z');
+				model.append('z');
+			} else if (op == 3) {
+				int pos = random.nextInt(model.length() + 1);
+				int length = random.nextInt(model.length() - pos + 1);
+				t.move(pos, length, 0);
+				String block = model.substring(pos, pos + length);
+				model.delete(pos, pos + length).insert(0, block);
+			} else if (op == 4) {
+				copy = new EditTree(t);
+				copy.add('!', 0);
+			} else {
+				int pos = random.nextInt(model.length());
+				for (int j = pos; j < Math.min(model.length(), pos + 20); j++) {
+					assertEquals(model.charAt(j), t.get(j));
+				}
+			}
+		}
+		assertEquals(model.toString(), t.toString());
+		assertEquals('!', copy.get(0));
+	}
+
+	@Test
+	public void testGetsThroughPendingTags() {
+		Random random = new Random(47);
+		StringBuilder model = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			model.append((char) ('a' + i % 26));
+		}
+		EditTree t = new EditTree(model.toString());
+		for (int i = 0; i < 5000; i++) {
+			int op = random.nextInt(6);
+			int pos = random.nextInt(model.length());
+			int length = random.nextInt(Math.min(100, model.length() - pos) + 1);
+			if (op == 0) {
+				t.reverse(pos, length);
+				String range = model.substring(pos, pos + length);
+				model.replace(pos, pos + length, new StringBuilder(range).reverse().toString());
+			} else if (op == 1) {
+				CaseMap map = random.nextBoolean() ? CaseMap.UPPER : CaseMap.LOWER;
+				t.mapRange(pos, length, map);
+				for (int j = pos; j < pos + length; j++) {
+					model.setCharAt(j, map.apply(model.charAt(j)));
+				}
+			} else if (op == 2) {
+				t.add('#', pos);
+				model.insert(pos, '#');
+			} else if (op == 3 && model.length() > 1) {
+				t.delete(pos);
+				model.deleteCharAt(pos);
+			} else if (op == 4) {
+				for (int j = pos + length - 1; j >= pos; j--) {
+					assertEquals(model.charAt(j), t.get(j));
+				}
+			} else {
+				for (int j = pos; j < pos + length; j++) {
+					assertEquals(model.charAt(j), t.get(j));
+				}
+			}
+		}
+		assertEquals(model.toString(), t.toString());
+	}
+}
@@ -0,0 +1,154 @@
+package editortrees;
+
+/**
+ * A RankTree balanced as a splay tree. Every access, reads included, moves
+ * the node it reaches to the root, so a run of edits and reads near a few
+ * cursors stays near the top of the tree and costs close to O(1) each,
+ * amortized. There are no worst-case bounds: a single access can take O(n)
+ * when the tree has degenerated, which is paid back by the accesses after it.
+ *
+ * Splaying is top-down (Sleator and Tarjan's variant that also maintains
+ * subtree sizes), so nothing recurses however deep the tree gets. Because
+ * reads restructure the tree, even get() must not run concurrently with
+ * anything else.
+ */
+public class SplayEditTree extends AbstractRankTree {
+
+	// Roots of the left and right trees assembled while splaying.
+	private final RankNode header = new RankNode('\0', 0);
+
+	/**
+	 * Constructs an empty tree.
+	 */
+	public SplayEditTree() {
+	}
+
+	@Override
+	public char get(int pos) throws IndexOutOfBoundsException {
+		if (pos < 0 || pos >= this.root.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		this.root = this.splay(this.root, pos);
+		return this.root.data;
+	}
+
+	@Override
+	public String get(int pos, int length) throws IndexOutOfBoundsException {
+		if (pos < 0 || length < 0 || pos + length > this.root.size) {
+			throw new IndexOutOfBoundsException();
+		}
+		StringBuilder sb = new StringBuilder(length);
+		if (length > 0) {
+			this.root = this.splay(this.root, pos);
+			appendRange(this.root, this.root.left.size, length, sb);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	void insert(char ch, int pos) {
+		RankNode x = new RankNode(ch, 0);
+		if (this.root == RankNode.NIL) {
+			this.root = x;
+			return;
+		}
+		if (pos == this.root.size) {
+			this.root = this.splay(this.root, pos - 1);
+			x.left = this.root;
+		} else {
+			this.root = this.splay(this.root, pos);
+			x.left = this.root.left;
+			x.right = this.root;
+			this.root.left = RankNode.NIL;
+			this.root.resize();
+		}
+		x.resize();
+		this.root = x;
+	}
+
+	@Override
+	char remove(int pos) {
+		RankNode n = this.splay(this.root, pos);
+		if (n.left == RankNode.NIL) {
+			this.root = n.right;
+		} else {
+			// The last node of the left subtree has no right child once it is
+			// splayed to the top, so n's right subtree can hang there.
+			RankNode last = this.splay(n.left, n.left.size - 1);
+			last.right = n.right;
+			last.resize();
+			this.root = last;
+		}
+		return n.data;
+	}
+
+	/**
+	 * Splays the node at in-order position pos of the subtree rooted at t to
+	 * the root of that subtree. Each rotation and each link to the left or
+	 * right tree counts as one rotation, which matches the rotations a
+	 * bottom-up splay would do.
+	 *
+	 * @return the new root
+	 */
+	private RankNode splay(RankNode t, int pos) {
+		RankNode n = this.header;
+		n.left = RankNode.NIL;
+		n.right = RankNode.NIL;
+		RankNode l = n;
+		RankNode r = n;
+		int leftSize = 0;
+		int rightSize = 0;
+		while (pos != t.left.size) {
+			if (pos < t.left.size) {
+				if (pos < t.left.left.size) {
+					RankNode y = t.left; // rotate right
+					t.left = y.right;
+					y.right = t;
+					t.resize();
+					t = y;
+					this.rotationCount++;
+				}
+				r.left = t; // link right
+				r = t;
+				t = t.left;
+				rightSize += 1 + r.right.size;
+			} else {
+				pos -= t.left.size + 1;
+				if (pos > t.right.left.size) {
+					pos -= t.right.left.size + 1;
+					RankNode y = t.right; // rotate left
+					t.right = y.left;
+					y.left = t;
+					t.resize();
+					t = y;
+					this.rotationCount++;
+				}
+				l.right = t; // link left
+				l = t;
+				t = t.right;
+				leftSize += 1 + l.left.size;
+			}
+			this.rotationCount++;
+		}
+		leftSize += t.left.size;
+		rightSize += t.right.size;
+		t.size = leftSize + rightSize + 1;
+		l.right = RankNode.NIL;
+		r.left = RankNode.NIL;
+		// The nodes linked into the left tree sit on its right spine, and each
+		// lost what followed it on the way down; fix their sizes from the top.
+		for (RankNode y = n.right; y != RankNode.NIL; y = y.right) {
+			y.size = leftSize;
+			leftSize -= 1 + y.left.size;
+		}
+		for (RankNode y = n.left; y != RankNode.NIL; y = y.left) {
+			y.size = rightSize;
+			rightSize -= 1 + y.right.size;
+		}
+		l.right = t.left;
+		r.left = t.right;
+		t.left = n.right;
+		t.right = n.left;
+		return t;
+	}
+}
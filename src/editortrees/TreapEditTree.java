@@ -0,0 +1,134 @@
+package editortrees;
+
+/**
+ * A RankTree balanced as a treap: every node gets a random priority, and the
+ * tree is kept in heap order by priority, which makes its shape that of a
+ * tree built by inserting in random order. There is no balance information to
+ * maintain, and an add or delete does two rotations on average, but the
+ * height is only logarithmic in expectation.
+ */
+public class TreapEditTree extends AbstractRankTree {
+
+	private long seed;
+	private char removed;
+
+	/**
+	 * Constructs an empty tree whose priorities come from a fixed seed, so runs
+	 * are repeatable.
+	 */
+	public TreapEditTree() {
+		this(0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * Constructs an empty tree whose priorities come from the given seed.
+	 *
+	 * @param seed any value but 0
+	 */
+	public TreapEditTree(long seed) {
+		if (seed == 0) {
+			throw new IllegalArgumentException();
+		}
+		this.seed = seed;
+	}
+
+	@Override
+	void insert(char ch, int pos) {
+		this.root = this.insert(this.root, ch, pos);
+	}
+
+	private RankNode insert(RankNode n, char ch, int pos) {
+		if (n == RankNode.NIL) {
+			return new RankNode(ch, this.nextPriority());
+		}
+		n.size++;
+		if (pos <= n.left.size) {
+			n.left = this.insert(n.left, ch, pos);
+			if (n.left.tag > n.tag) {
+				return this.rotateRight(n);
+			}
+		} else {
+			n.right = this.insert(n.right, ch, pos - n.left.size - 1);
+			if (n.right.tag > n.tag) {
+				return this.rotateLeft(n);
+			}
+		}
+		return n;
+	}
+
+	@Override
+	char remove(int pos) {
+		this.root = this.remove(this.root, pos);
+		return this.removed;
+	}
+
+	private RankNode remove(RankNode n, int pos) {
+		if (pos == n.left.size) {
+			this.removed = n.data;
+			return this.removeRoot(n);
+		}
+		n.size--;
+		if (pos < n.left.size) {
+			n.left = this.remove(n.left, pos);
+		} else {
+			n.right = this.remove(n.right, pos - n.left.size - 1);
+		}
+		return n;
+	}
+
+	/**
+	 * Rotates n down, always lifting the child with the higher priority, until
+	 * it has at most one child, and then unlinks it.
+	 *
+	 * @return the new root of the subtree n was the root of
+	 */
+	private RankNode removeRoot(RankNode n) {
+		if (n.left == RankNode.NIL) {
+			return n.right;
+		}
+		if (n.right == RankNode.NIL) {
+			return n.left;
+		}
+		RankNode top;
+		if (n.left.tag > n.right.tag) {
+			top = this.rotateRight(n);
+			top.size--;
+			top.right = this.removeRoot(n);
+		} else {
+			top = this.rotateLeft(n);
+			top.size--;
+			top.left = this.removeRoot(n);
+		}
+		return top;
+	}
+
+	/**
+	 * @return true iff no node has a higher priority than its parent
+	 */
+	public boolean prioritiesAreHeapOrdered() {
+		return heapOrdered(this.root);
+	}
+
+	private static boolean heapOrdered(RankNode n) {
+		if (n == RankNode.NIL) {
+			return true;
+		}
+		if (n.left != RankNode.NIL && n.left.tag > n.tag || n.right != RankNode.NIL && n.right.tag > n.tag) {
+			return false;
+		}
+		return heapOrdered(n.left) && heapOrdered(n.right);
+	}
+
+	/**
+	 * @return the next value of a xorshift generator, which is plenty random
+	 *         for priorities and cheaper than java.util.Random
+	 */
+	private int nextPriority() {
+		long x = this.seed;
+		x ^= x << 13;
+		x ^= x >>> 7;
+		x ^= x << 17;
+		this.seed = x;
+		return (int) (x >>> 32);
+	}
+}
@@ -0,0 +1,266 @@
+package editortrees;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes EditTree.diff(). Ranges the two trees have in common are found by
+ * comparing range hashes (see EditTree.rangeHash()), which takes O(log n)
+ * time per comparison however long the ranges are:
+ *
+ * 1. The common prefix and suffix of a region are trimmed off by galloping
+ * and binary search on range hashes.
+ *
+ * 2. What remains is diffed with Myers' algorithm if it is short. Otherwise it
+ * is split at an anchor: a window of the old text found in the new text at
+ * about the same offset as the start or the end of the region, within
+ * SEARCH characters. Each side of the anchor is then a region of its own.
+ *
+ * 3. A long region with no anchor gets a Myers diff bounded to MAX_D edits,
+ * or failing that is replaced as a whole.
+ *
+ * After a few edits, the regions are the few places that changed, so the diff
+ * takes O(d log^2 n) time once both trees have their subtree hashes. A tree
+ * and its copy share their unchanged subtrees, hashes included, so only the
+ * nodes edited since the copy need hashing. Like any
+ * hash comparison, it trusts equal hashes, which differ for different texts
+ * except with probability about n / 2^61.
+ */
+class TreeDiff {
+
+	// Regions at most this long on both sides together go straight to Myers.
+	private static final int MYERS_LIMIT = 1 << 12;
+	// Regions at most this long get a bounded Myers diff if they have no anchor.
+	private static final int FALLBACK_LIMIT = 1 << 16;
+	private static final int MAX_D = 1 << 10;
+	private static final int ANCHOR = 32;
+	private static final int SEARCH = 1 << 10;
+
+	private final EditTree a, b;
+	private final List<DiffEdit> edits = new ArrayList<DiffEdit>();
+
+	private TreeDiff(EditTree a, EditTree b) {
+		this.a = a;
+		this.b = b;
+	}
+
+	/**
+	 * @return the edit script turning a's text into b's
+	 */
+	static List<DiffEdit> diff(EditTree a, EditTree b) {
+		TreeDiff diff = new TreeDiff(a, b);
+		if (a.root != b.root && !(a.size() == b.size() && a.contentHash() == b.contentHash())) {
+			diff.region(0, a.size(), 0, b.size());
+		}
+		return diff.edits;
+	}
+
+	private void region(int a0, int a1, int b0, int b1) {
+		int prefix = this.commonPrefix(a0, b0, Math.min(a1 - a0, b1 - b0));
+		a0 += prefix;
+		b0 += prefix;
+		int suffix = this.commonSuffix(a1, b1, Math.min(a1 - a0, b1 - b0));
+		a1 -= suffix;
+		b1 -= suffix;
+		int n = a1 - a0;
+		int m = b1 - b0;
+		if (n == 0 || m == 0) {
+			if (n + m > 0) {
+				this.emit(a0, n, this.b.get(b0, m));
+			}
+			return;
+		}
+		if (n + m <= MYERS_LIMIT) {
+			this.myers(a0, b0, this.a.get(a0, n), this.b.get(b0, m), Integer.MAX_VALUE);
+			return;
+		}
+		// Try anchors at the middle and the quarters of the old region, near
+		// the offsets the new region has at either end.
+		for (int quarter : new int[] { 2, 1, 3 }) {
+			int i = a0 + (int) ((long) n * quarter / 4);
+			if (i == a0 || i + ANCHOR > a1) {
+				continue;
+			}
+			long window = this.a.rangeHash(i, ANCHOR);
+			for (int j : new int[] { i - a0 + b0, i - a1 + b1 }) {
+				j = this.find(window, j, b0 + 1, b1 - ANCHOR);
+				if (j >= 0) {
+					this.region(a0, i, b0, j);
+					this.region(i, a1, j, b1);
+					return;
+				}
+			}
+		}
+		if (n + m > FALLBACK_LIMIT
+				|| !this.myers(a0, b0, this.a.get(a0, n), this.b.get(b0, m), MAX_D)) {
+			this.emit(a0, n, this.b.get(b0, m));
+		}
+	}
+
+	/**
+	 * Looks for a window of the new text whose hash is window, starting at
+	 * center and then within SEARCH characters of it.
+	 *
+	 * @return the start of the window closest to center, or -1 if none
+	 *         starts within [low, high]
+	 */
+	private int find(long window, int center, int low, int high) {
+		if (center >= low && center <= high && this.b.rangeHash(center, ANCHOR) == window) {
+			return center;
+		}
+		int from = Math.max(low, center - SEARCH);
+		int to = Math.min(high, center + SEARCH);
+		if (from > to) {
+			return -1;
+		}
+		String text = this.b.get(from, to - from + ANCHOR);
+		long power = 1; // BASE^ANCHOR
+		long hash = 0;
+		for (int k = 0; k < ANCHOR; k++) {
+			power = RollingHash.multiply(power, RollingHash.BASE);
+			hash = RollingHash.append(hash, RollingHash.BASE, text.charAt(k) + 1);
+		}
+		int best = -1;
+		for (int j = from;; j++) {
+			if (hash == window && (best < 0 || Math.abs(j - center) < Math.abs(best - center))) {
+				best = j;
+			}
+			if (j == to) {
+				return best;
+			}
+			hash = RollingHash.append(hash, RollingHash.BASE, text.charAt(j - from + ANCHOR) + 1);
+			hash = RollingHash.append(hash, 1,
+					RollingHash.MOD - RollingHash.multiply(power, text.charAt(j - from) + 1));
+		}
+	}
+
+	/**
+	 * @return the length of the longest common prefix of a[a0, a0 + max) and
+	 *         b[b0, b0 + max)
+	 */
+	private int commonPrefix(int a0, int b0, int max) {
+		int low = 0; // known to match
+		int high = 1;
+		while (high <= max && this.a.rangeHash(a0, high) == this.b.rangeHash(b0, high)) {
+			low = high;
+			high *= 2;
+		}
+		high = Math.min(high, max + 1); // known not to match, or past max
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+			if (this.a.rangeHash(a0, mid) == this.b.rangeHash(b0, mid)) {
+				low = mid;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return the length of the longest common suffix of a[a1 - max, a1) and
+	 *         b[b1 - max, b1)
+	 */
+	private int commonSuffix(int a1, int b1, int max) {
+		int low = 0;
+		int high = 1;
+		while (high <= max && this.a.rangeHash(a1 - high, high) == this.b.rangeHash(b1 - high, high)) {
+			low = high;
+			high *= 2;
+		}
+		high = Math.min(high, max + 1);
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+			if (this.a.rangeHash(a1 - mid, mid) == this.b.rangeHash(b1 - mid, mid)) {
+				low = mid;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Emits a shortest edit script from x, which starts at a0 in the old text,
+	 * to y, which starts at b0 in the new text, unless it takes more than maxD
+	 * insertions and deletions.
+	 *
+	 * @return false if the script would be too long, in which case nothing is
+	 *         emitted
+	 */
+	private boolean myers(int a0, int b0, String x, String y, int maxD) {
+		int n = x.length();
+		int m = y.length();
+		int limit = Math.min(n + m, maxD);
+		int offset = limit + 1;
+		int[] v = new int[2 * limit + 3];
+		List<int[]> trace = new ArrayList<int[]>();
+		int found = -1;
+		for (int d = 0; d <= limit && found < 0; d++) {
+			trace.add(v.clone());
+			for (int k = -d; k <= d; k += 2) {
+				int i = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ? v[offset + k + 1]
+						: v[offset + k - 1] + 1;
+				int j = i - k;
+				while (i < n && j < m && x.charAt(i) == y.charAt(j)) {
+					i++;
+					j++;
+				}
+				v[offset + k] = i;
+				if (i >= n && j >= m) {
+					found = d;
+					break;
+				}
+			}
+		}
+		if (found < 0) {
+			return false;
+		}
+		// Walk back from (n, m), collecting one op per step, last op first.
+		List<int[]> ops = new ArrayList<int[]>(); // {position in x, char of y or -1}
+		int i = n;
+		int j = m;
+		for (int d = found; d > 0; d--) {
+			int[] prev = trace.get(d);
+			int k = i - j;
+			int prevK = k == -d || (k != d && prev[offset + k - 1] < prev[offset + k + 1]) ? k + 1 : k - 1;
+			int prevI = prev[offset + prevK];
+			int prevJ = prevI - prevK;
+			while (i > prevI && j > prevJ) {
+				i--;
+				j--;
+			}
+			if (prevK == k + 1) {
+				ops.add(new int[] { prevI, y.charAt(prevJ) });
+			} else {
+				ops.add(new int[] { prevI, -1 });
+			}
+			i = prevI;
+			j = prevJ;
+		}
+		for (int op = ops.size() - 1; op >= 0; op--) {
+			int[] step = ops.get(op);
+			if (step[1] < 0) {
+				this.emit(a0 + step[0], 1, "");
+			} else {
+				this.emit(a0 + step[0], 0, String.valueOf((char) step[1]));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Appends an edit, merging it into the previous one if they touch.
+	 */
+	private void emit(int pos, int deleted, String inserted) {
+		int last = this.edits.size() - 1;
+		if (last >= 0) {
+			DiffEdit prev = this.edits.get(last);
+			if (prev.pos + prev.deleted == pos) {
+				this.edits.set(last, new DiffEdit(prev.pos, prev.deleted + deleted, prev.inserted + inserted));
+				return;
+			}
+		}
+		this.edits.add(new DiffEdit(pos, deleted, inserted));
+	}
+}
@@ -0,0 +1,103 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TreeDiffTest {
+
+	private static String apply(String text, List<DiffEdit> script) {
+		StringBuilder sb = new StringBuilder(text);
+		int end = Integer.MAX_VALUE;
+		for (int i = script.size() - 1; i >= 0; i--) {
+			DiffEdit e = script.get(i);
+			assertTrue(e.pos + e.deleted < end);
+			sb.replace(e.pos, e.pos + e.deleted, e.inserted);
+			end = e.pos;
+		}
+		return sb.toString();
+	}
+
+	private static EditTree tree(String s) {
+		return s.isEmpty() ? new EditTree() : new EditTree(s);
+	}
+
+	private static String text(int length, long seed) {
+		Random random = new Random(seed);
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(chars);
+	}
+
+	@Test
+	public void testSmallDiffs() {
+		EditTree a = new EditTree("the quick brown fox");
+		assertEquals(Arrays.asList(), a.diff(a));
+		assertEquals(Arrays.asList(), a.diff(new EditTree("the quick brown fox")));
+		assertEquals(Arrays.asList(new DiffEdit(4, 6, "")), a.diff(new EditTree("the brown fox")));
+		assertEquals(Arrays.asList(new DiffEdit(4, 5, "slow")), a.diff(new EditTree("the slow brown fox")));
+		// Myers keeps the r that "brown" and "red" have in common.
+		assertEquals(Arrays.asList(new DiffEdit(10, 1, ""), new DiffEdit(12, 3, "ed")),
+				a.diff(new EditTree("the quick red fox")));
+		assertEquals(Arrays.asList(new DiffEdit(0, 19, "")), a.diff(new EditTree()));
+		assertEquals(Arrays.asList(new DiffEdit(0, 0, "abc")), new EditTree().diff(new EditTree("abc")));
+	}
+
+	@Test
+	public void testMyersRegions() {
+		Random random = new Random(41);
+		for (int round = 0; round < 200; round++) {
+			String x = text(random.nextInt(40), round);
+			String y = text(random.nextInt(40), round + 1000);
+			String[] alphabet = { x, y, x + y, y + x.substring(0, x.length() / 2) };
+			String from = alphabet[random.nextInt(4)];
+			String to = alphabet[random.nextInt(4)];
+			List<DiffEdit> script = tree(from).diff(tree(to));
+			assertEquals(to, apply(from, script));
+		}
+	}
+
+	@Test
+	public void testFewEditsInLargeText() {
+		String original = text(1 << 20, 41);
+		EditTree saved = new EditTree(original);
+		EditTree current = new EditTree(saved);
+		StringBuilder model = new StringBuilder(original);
+		Random random = new Random(41);
+		for (int i = 0; i < 10; i++) {
+			int pos = random.nextInt(model.length());
+			if (i % 3 == 0) {
+				model.deleteCharAt(pos);
+				current.delete(pos);
+			} else {
+				model.insert(pos, 'X');
+				current.add('X', pos);
+			}
+		}
+		List<DiffEdit> script = saved.diff(current);
+		assertTrue(script.size() <= 10);
+		assertEquals(model.toString(), apply(original, script));
+		assertEquals(original, apply(model.toString(), current.diff(saved)));
+	}
+
+	@Test
+	public void testLargeInsertion() {
+		String original = text(100000, 7);
+		String inserted = text(50000, 8);
+		EditTree saved = new EditTree(original);
+		EditTree current = new EditTree(original.substring(0, 30000) + inserted + original.substring(30000, 60000)
+				+ original.substring(60100));
+		List<DiffEdit> script = saved.diff(current);
+		assertEquals(current.toString(), apply(original, script));
+		assertEquals(2, script.size());
+		assertEquals(new DiffEdit(30000, 0, inserted), script.get(0));
+		assertEquals(new DiffEdit(60000, 100, ""), script.get(1));
+	}
+}
@@ -0,0 +1,403 @@
+package editortrees;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import editortrees.Node.Code;
+
+/**
+ * Reads and writes the binary snapshot format used by
+ * EditTree.writeSnapshot() and EditTree.readSnapshot(). A snapshot stores the
+ * exact shape of the tree, so restoring one needs no rebalancing:
+ *
+ * <pre>
+ * int   MAGIC
+ * byte  VERSION
+ * int   size
+ * int   rotation count
+ * size bytes: the flags of each node, in pre-order
+ * byte  char width, 1 if every char fits in a byte, else 2
+ * size chars, in (width) bytes each, in the same order
+ * </pre>
+ *
+ * The flags byte holds the shape bits (HAS_LEFT, HAS_RIGHT) and the ordinal
+ * of the balance code in bits 2 and 3. Ranks are not stored, since a node's
+ * rank is just the number of nodes read for its left subtree.
+ *
+ * Keeping the flags apart from the chars lets both be copied in bulk, and
+ * putting the width after the flags lets write() find it during its walk.
+ * Version 1 snapshots, which have the width in the header and interleave
+ * flags and chars node by node, can still be read.
+ */
+class TreeSnapshot {
+
+	static final int MAGIC = 0x45445452; // "EDTR"
+	static final byte VERSION = 2;
+	private static final byte INTERLEAVED = 1; // the version before
+
+	private static final int HAS_LEFT = 1;
+	private static final int HAS_RIGHT = 2;
+	private static final int BALANCE_SHIFT = 2;
+	// Not stored: marks a node on readTree()'s stack whose rank is not set yet.
+	private static final int NEEDS_RANK = 4;
+	private static final Code[] CODES = Code.values();
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private final byte[] flags;
+	private final char[] chars;
+	private final int size;
+	private int nodesRead;
+	private int shape; // HAS_LEFT and HAS_RIGHT of the node read last
+
+	private TreeSnapshot(byte[] flags, char[] chars, int size) {
+		this.flags = flags;
+		this.chars = chars;
+		this.size = size;
+	}
+
+	/**
+	 * Writes the tree rooted at root in snapshot format, in one walk: the flags
+	 * go out as the walk reaches each node, and the chars are kept as bytes
+	 * until one does not fit in a byte.
+	 *
+	 * @param root          root of the tree to write
+	 * @param size          number of nodes in the tree
+	 * @param rotationCount rotation count to record with the tree
+	 * @param out           stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	static void write(Node root, int size, int rotationCount, DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeInt(size);
+		out.writeInt(rotationCount);
+
+		byte[] block = new byte[Math.min(size, BLOCK_SIZE)];
+		byte[] narrow = new byte[size];
+		char[] wide = null;
+		int count = 0;
+		Node[] preOrder = new Node[maxHeight(size) + 1];
+		int top = 0;
+		if (root != Node.NULL_NODE) {
+			preOrder[top++] = root;
+		}
+		while (top > 0) {
+			Node n = preOrder[--top];
+			int flags = n.balance.ordinal() << BALANCE_SHIFT;
+			if (n.left != Node.NULL_NODE) flags |= HAS_LEFT;
+			if (n.right != Node.NULL_NODE) flags |= HAS_RIGHT;
+			if (count % BLOCK_SIZE == 0 && count > 0) {
+				out.write(block, 0, BLOCK_SIZE);
+			}
+			block[count % BLOCK_SIZE] = (byte) flags;
+			if (wide != null) {
+				wide[count] = n.data;
+			} else if (n.data <= 0xFF) {
+				narrow[count] = (byte) n.data;
+			} else {
+				wide = new char[size];
+				for (int i = 0; i < count; i++) {
+					wide[i] = (char) (narrow[i] & 0xFF);
+				}
+				narrow = null;
+				wide[count] = n.data;
+			}
+			count++;
+			if (top + 2 > preOrder.length) {
+				preOrder = Arrays.copyOf(preOrder, 2 * preOrder.length);
+			}
+			if (n.right != Node.NULL_NODE) preOrder[top++] = n.right;
+			if (n.left != Node.NULL_NODE) preOrder[top++] = n.left;
+		}
+		if (count > 0) {
+			out.write(block, 0, (count - 1) % BLOCK_SIZE + 1);
+		}
+
+		if (wide == null) {
+			out.writeByte(1);
+			out.write(narrow, 0, count);
+			return;
+		}
+		out.writeByte(2);
+		block = new byte[(int) Math.min(2L * count, BLOCK_SIZE)];
+		ByteBuffer bytes = ByteBuffer.wrap(block);
+		for (int from = 0; from < count; from += BLOCK_SIZE / 2) {
+			int length = Math.min(BLOCK_SIZE / 2, count - from);
+			bytes.clear();
+			bytes.asCharBuffer().put(wide, from, length);
+			out.write(block, 0, 2 * length);
+		}
+	}
+
+	/**
+	 * Reads a tree written by write(). The flags and chars are copied out of
+	 * the stream in bulk, then the nodes are linked up in a single pass with
+	 * their stored balance codes, so the result has exactly the shape of the
+	 * tree that was written. The shape is then checked with
+	 * TreeValidator.isConsistent(), so a snapshot whose balance codes do not
+	 * match its shape is rejected rather than restored as a broken tree.
+	 *
+	 * @param in stream positioned at the start of a snapshot
+	 * @return the restored tree
+	 * @throws IOException if the stream cannot be read or is not a valid
+	 *                     snapshot
+	 */
+	static EditTree read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not an EditTree snapshot");
+		}
+		byte version = in.readByte();
+		checkVersion(version);
+		int width = version == INTERLEAVED ? checkWidth(in.readByte()) : 0;
+		int size = checkSize(in.readInt());
+		int rotationCount = checkRotationCount(in.readInt());
+
+		byte[] flags;
+		char[] chars;
+		if (version == INTERLEAVED) {
+			flags = new byte[Math.min(size, BLOCK_SIZE)];
+			chars = new char[flags.length];
+			for (int i = 0; i < size; i++) {
+				if (i == flags.length) {
+					// Grown as the nodes turn up, so a corrupt size cannot make
+					// it allocate more than the stream holds.
+					flags = Arrays.copyOf(flags, (int) Math.min(size, 2L * i));
+					chars = Arrays.copyOf(chars, flags.length);
+				}
+				flags[i] = in.readByte();
+				chars[i] = width == 2 ? in.readChar() : (char) in.readUnsignedByte();
+			}
+		} else {
+			flags = new byte[Math.min(size, BLOCK_SIZE)];
+			int read = 0;
+			while (read < size) {
+				if (read == flags.length) {
+					// As above: grown as the bytes turn up.
+					flags = Arrays.copyOf(flags, (int) Math.min(size, 2L * read));
+				}
+				int n = in.read(flags, read, flags.length - read);
+				if (n < 0) {
+					throw new EOFException();
+				}
+				read += n;
+			}
+			width = checkWidth(in.readByte());
+			chars = new char[size];
+			byte[] block = new byte[(int) Math.min((long) width * size, BLOCK_SIZE)];
+			ByteBuffer bytes = ByteBuffer.wrap(block);
+			for (int from = 0; from < size; from += BLOCK_SIZE / width) {
+				int length = Math.min(BLOCK_SIZE / width, size - from);
+				in.readFully(block, 0, width * length);
+				if (width == 2) {
+					bytes.clear();
+					bytes.asCharBuffer().get(chars, from, length);
+				} else {
+					widen(block, length, chars, from);
+				}
+			}
+		}
+		return restore(flags, chars, size, rotationCount);
+	}
+
+	/**
+	 * Reads a tree written by write() from buffer, starting at its position,
+	 * like read(DataInputStream). The flags and chars are copied out of the
+	 * buffer in bulk, which for a MappedByteBuffer means straight from the
+	 * page cache. The buffer is left positioned after the snapshot.
+	 *
+	 * @param buffer big-endian buffer holding a snapshot at its position
+	 * @return the restored tree
+	 * @throws IOException if the buffer does not hold a valid snapshot
+	 */
+	static EditTree read(ByteBuffer buffer) throws IOException {
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not an EditTree snapshot");
+			}
+			byte version = buffer.get();
+			checkVersion(version);
+			int width = version == INTERLEAVED ? checkWidth(buffer.get()) : 0;
+			int size = checkSize(buffer.getInt());
+			int rotationCount = checkRotationCount(buffer.getInt());
+			if (buffer.remaining() < size + (version == INTERLEAVED ? (long) width * size : 1L + size)) {
+				throw new IOException("Corrupt EditTree snapshot: truncated");
+			}
+
+			byte[] flags = new byte[size];
+			char[] chars = new char[size];
+			if (version == INTERLEAVED) {
+				for (int i = 0; i < size; i++) {
+					flags[i] = buffer.get();
+					chars[i] = width == 2 ? buffer.getChar() : (char) (buffer.get() & 0xFF);
+				}
+			} else {
+				buffer.get(flags);
+				width = checkWidth(buffer.get());
+				if (buffer.remaining() < (long) width * size) {
+					throw new IOException("Corrupt EditTree snapshot: truncated");
+				}
+				if (width == 2) {
+					buffer.asCharBuffer().get(chars);
+					buffer.position(buffer.position() + 2 * size);
+				} else {
+					byte[] block = new byte[Math.min(size, BLOCK_SIZE)];
+					for (int from = 0; from < size; from += BLOCK_SIZE) {
+						int length = Math.min(BLOCK_SIZE, size - from);
+						buffer.get(block, 0, length);
+						widen(block, length, chars, from);
+					}
+				}
+			}
+			return restore(flags, chars, size, rotationCount);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Corrupt EditTree snapshot: truncated", e);
+		}
+	}
+
+	private static void checkVersion(byte version) throws IOException {
+		if (version != VERSION && version != INTERLEAVED) {
+			throw new IOException("Unsupported EditTree snapshot version");
+		}
+	}
+
+	private static int checkWidth(int width) throws IOException {
+		if (width != 1 && width != 2) {
+			throw new IOException("Corrupt EditTree snapshot: bad char width " + width);
+		}
+		return width;
+	}
+
+	private static int checkSize(int size) throws IOException {
+		if (size < 0) {
+			throw new IOException("Corrupt EditTree snapshot: negative size");
+		}
+		return size;
+	}
+
+	private static int checkRotationCount(int rotationCount) throws IOException {
+		if (rotationCount < 0) {
+			throw new IOException("Corrupt EditTree snapshot: negative rotation count");
+		}
+		return rotationCount;
+	}
+
+	private static void widen(byte[] block, int length, char[] chars, int from) {
+		for (int i = 0; i < length; i++) {
+			chars[from + i] = (char) (block[i] & 0xFF);
+		}
+	}
+
+	/**
+	 * Links up the nodes whose flags and chars were read, in pre-order, and
+	 * checks the result.
+	 */
+	private static EditTree restore(byte[] flags, char[] chars, int size, int rotationCount) throws IOException {
+		Node root = Node.NULL_NODE;
+		if (size > 0) {
+			TreeSnapshot reader = new TreeSnapshot(flags, chars, size);
+			root = reader.readTree();
+			if (reader.nodesRead != size) {
+				throw new IOException("Corrupt EditTree snapshot: expected " + size + " nodes but read "
+						+ reader.nodesRead);
+			}
+			if (!TreeValidator.isConsistent(root, size)) {
+				throw new IOException("Corrupt EditTree snapshot: balance codes do not match its shape");
+			}
+		}
+		return new EditTree(root, size, rotationCount);
+	}
+
+	/**
+	 * Reads the nodes of the tree in pre-order. Instead of recursing, it keeps
+	 * the path from the root to the node being read on an explicit stack, along
+	 * with what is left to do at each node on it: read its left subtree, then
+	 * set its rank and read its right subtree. The stack is only as deep as the
+	 * tallest AVL tree of the snapshot's size, so a corrupt shape fails as soon
+	 * as it gets taller than that.
+	 */
+	private Node readTree() throws IOException {
+		int maxHeight = maxHeight(this.size);
+		Node[] path = new Node[maxHeight];
+		int[] start = new int[maxHeight]; // nodesRead before each node on the path
+		int[] todo = new int[maxHeight];
+		int depth = 0;
+		Node root = this.readNode();
+		path[0] = root;
+		todo[0] = this.shape | NEEDS_RANK;
+		while (depth >= 0) {
+			Node n = path[depth];
+			boolean left;
+			if ((todo[depth] & HAS_LEFT) != 0) {
+				todo[depth] &= ~HAS_LEFT;
+				left = true;
+			} else if ((todo[depth] & NEEDS_RANK) != 0) {
+				todo[depth] &= ~NEEDS_RANK;
+				n.rank = this.nodesRead - start[depth] - 1;
+				if ((todo[depth] & HAS_RIGHT) == 0) {
+					continue;
+				}
+				todo[depth] &= ~HAS_RIGHT;
+				left = false;
+			} else {
+				depth--;
+				continue;
+			}
+			if (depth + 1 == maxHeight) {
+				throw new IOException("Corrupt EditTree snapshot: taller than any AVL tree of its size");
+			}
+			start[depth + 1] = this.nodesRead;
+			Node child = this.readNode();
+			if (left) {
+				n.left = child;
+			} else {
+				n.right = child;
+			}
+			depth++;
+			path[depth] = child;
+			todo[depth] = this.shape | NEEDS_RANK;
+		}
+		return root;
+	}
+
+	/**
+	 * Reads one node, without its subtrees, and leaves its HAS_LEFT and
+	 * HAS_RIGHT bits in shape.
+	 */
+	private Node readNode() throws IOException {
+		if (this.nodesRead == this.size) {
+			throw new IOException("Corrupt EditTree snapshot: more nodes than its size");
+		}
+		int flags = this.flags[this.nodesRead] & 0xFF;
+		int ordinal = flags >>> BALANCE_SHIFT;
+		if (ordinal >= CODES.length) {
+			throw new IOException("Corrupt EditTree snapshot: bad balance code");
+		}
+		char data = this.chars[this.nodesRead];
+		this.nodesRead++;
+		this.shape = flags & (HAS_LEFT | HAS_RIGHT);
+		return new Node(data, Node.NULL_NODE, Node.NULL_NODE, 0, CODES[ordinal]);
+	}
+
+	/**
+	 * @return the number of nodes on the longest path of an AVL tree with size
+	 *         nodes, found by growing the sparsest AVL trees (the Fibonacci
+	 *         trees) until they get too big
+	 */
+	static int maxHeight(int size) {
+		long sparsest = 1; // nodes in the sparsest tree of height
+		long shorter = 0; // and of height - 1
+		int height = 1;
+		while (sparsest + shorter + 1 <= size) {
+			long next = sparsest + shorter + 1;
+			shorter = sparsest;
+			sparsest = next;
+			height++;
+		}
+		return height;
+	}
+}
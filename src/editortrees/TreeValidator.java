@@ -0,0 +1,170 @@
+package editortrees;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Checks the invariants of an EditTree: every rank is the size of the left
+ * subtree, every balance code matches the heights of the subtrees, and the
+ * tree's cached size is the number of nodes.
+ *
+ * isConsistent() does all of it in a single walk, split into fork/join tasks
+ * over the top levels of the tree. A TreeValidator instance is the cheap
+ * sampling mode: after every interval-th edit, it checks one root-to-leaf
+ * path in O(log n) time, deriving the size and the height each subtree on the
+ * path should have from the cached size, the ranks and the balance codes.
+ * Corruption anywhere on the path shows up as a subtree whose expected size or
+ * height does not reach 0 and -1 exactly at the bottom.
+ */
+class TreeValidator {
+
+	// Subtrees below this depth are checked sequentially, which bounds the
+	// number of tasks by 2^SPLIT_DEPTH.
+	private static final int SPLIT_DEPTH = 10;
+	private static final long INVALID = -1;
+	// Size in the low 32 bits, height + 1 above them.
+	private static final long EMPTY = 0;
+
+	private final int interval;
+	private int untilNext;
+	private long seed = 0x9E3779B97F4A7C15L;
+	int checks; // number of paths checked so far
+
+	/**
+	 * @param interval number of edits between two sampled paths
+	 */
+	TreeValidator(int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.interval = interval;
+		this.untilNext = interval;
+	}
+
+	/**
+	 * Checks the whole tree, in parallel.
+	 *
+	 * @return true iff the tree rooted at root is consistent and has size nodes
+	 */
+	static boolean isConsistent(Node root, int size) {
+		long checked = ForkJoinPool.commonPool().invoke(new Check(root, 0));
+		return checked != INVALID && (int) checked == size;
+	}
+
+	/**
+	 * Counts an edit, and checks a random path if this is the interval-th one.
+	 *
+	 * @throws IllegalStateException if the path is inconsistent
+	 */
+	void edited(Node root, int size) {
+		if (--this.untilNext > 0) {
+			return;
+		}
+		this.untilNext = this.interval;
+		this.checks++;
+		this.seed ^= this.seed << 13;
+		this.seed ^= this.seed >>> 7;
+		this.seed ^= this.seed << 17;
+		String problem = checkPath(root, size, (int) Long.remainderUnsigned(this.seed, size + 1L));
+		if (problem != null) {
+			throw new IllegalStateException("EditTree is corrupt: " + problem);
+		}
+	}
+
+	/**
+	 * Walks from root to the empty subtree at the given gap (the place where
+	 * add(ch, gap) would hang a new node).
+	 *
+	 * @return a description of the first inconsistency, or null if there is none
+	 */
+	static String checkPath(Node root, int size, int gap) {
+		int height = root.fastHeight();
+		int depth = 0;
+		Node n = root;
+		while (n != Node.NULL_NODE) {
+			if (n.rank < 0 || n.rank >= size) {
+				return "rank " + n.rank + " at depth " + depth + " in a subtree of size " + size;
+			}
+			if (height < 0) {
+				return "balance codes below depth " + depth + " do not match the height";
+			}
+			int leftHeight = n.balance == Node.Code.RIGHT ? height - 2 : height - 1;
+			int rightHeight = n.balance == Node.Code.LEFT ? height - 2 : height - 1;
+			if (gap <= n.rank) {
+				size = n.rank;
+				height = leftHeight;
+				n = n.left;
+			} else {
+				gap -= n.rank + 1;
+				size -= n.rank + 1;
+				height = rightHeight;
+				n = n.right;
+			}
+			depth++;
+		}
+		if (size != 0) {
+			return size + " nodes missing at depth " + depth;
+		}
+		if (height != -1) {
+			return "balance codes above depth " + depth + " do not match the height";
+		}
+		return null;
+	}
+
+	private static final class Check extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		private final Node node;
+		private final int depth;
+
+		Check(Node node, int depth) {
+			this.node = node;
+			this.depth = depth;
+		}
+
+		@Override
+		protected Long compute() {
+			if (this.depth >= SPLIT_DEPTH || this.node == Node.NULL_NODE) {
+				return checked(this.node);
+			}
+			Check left = new Check(this.node.left, this.depth + 1);
+			left.fork();
+			long right = new Check(this.node.right, this.depth + 1).compute();
+			return combine(this.node, left.join(), right);
+		}
+	}
+
+	private static long checked(Node n) {
+		if (n == Node.NULL_NODE) {
+			return EMPTY;
+		}
+		long left = checked(n.left);
+		if (left == INVALID) {
+			return INVALID;
+		}
+		return combine(n, left, checked(n.right));
+	}
+
+	/**
+	 * @return the packed size and height of n's subtree, given those of its
+	 *         children, or INVALID
+	 */
+	private static long combine(Node n, long left, long right) {
+		if (left == INVALID || right == INVALID || n.rank != (int) left) {
+			return INVALID;
+		}
+		long leftHeight = left >>> 32;
+		long rightHeight = right >>> 32;
+		Node.Code expected = leftHeight == rightHeight ? Node.Code.SAME
+				: leftHeight == rightHeight + 1 ? Node.Code.LEFT
+						: rightHeight == leftHeight + 1 ? Node.Code.RIGHT : null;
+		if (n.balance != expected) {
+			return INVALID;
+		}
+		long size = (int) left + (long) (int) right + 1;
+		if (size > Integer.MAX_VALUE) {
+			return INVALID;
+		}
+		return (Math.max(leftHeight, rightHeight) + 1) << 32 | size;
+	}
+}
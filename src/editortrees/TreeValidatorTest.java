@@ -0,0 +1,103 @@
+package editortrees;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TreeValidatorTest {
+
+	private static String text(int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) ('a' + i % 26);
+		}
+		return new String(chars);
+	}
+
+	@Test
+	public void testConsistentTrees() {
+		assertTrue(new EditTree().isConsistent());
+		assertTrue(new EditTree('a').isConsistent());
+		assertTrue(new EditTree(text(100000)).isConsistent());
+		EditTree t = new EditTree();
+		Random random = new Random(39);
+		for (int i = 0; i < 50000; i++) {
+			t.add('x', random.nextInt(t.size() + 1));
+		}
+		for (int i = 0; i < 20000; i++) {
+			t.delete(random.nextInt(t.size()));
+		}
+		assertTrue(t.isConsistent());
+	}
+
+	@Test
+	public void testFindsWrongRank() {
+		EditTree t = new EditTree(text(100000));
+		Node n = t.root;
+		for (int i = 0; i < 12; i++) {
+			n = n.right;
+		}
+		n.left.rank++;
+		assertFalse(t.isConsistent());
+		assertFalse(t.ranksMatchLeftSubtreeSize());
+	}
+
+	@Test
+	public void testFindsWrongBalanceCode() {
+		EditTree t = new EditTree(text(100000));
+		Node n = t.root;
+		while (n.left.left != Node.NULL_NODE) {
+			n = n.left;
+		}
+		n.balance = Node.Code.RIGHT;
+		assertFalse(t.isConsistent());
+		assertFalse(t.balanceCodesAreCorrect());
+	}
+
+	@Test
+	public void testPathCheck() {
+		EditTree t = new EditTree(text(1000));
+		for (int gap = 0; gap <= 1000; gap++) {
+			assertNull(TreeValidator.checkPath(t.root, 1000, gap));
+		}
+		assertNotNull(TreeValidator.checkPath(t.root, 999, 1000));
+		t.root.right.rank--;
+		assertNotNull(TreeValidator.checkPath(t.root, 1000, 1000));
+		assertNull(TreeValidator.checkPath(t.root, 1000, 0));
+	}
+
+	@Test
+	public void testSampledValidationCatchesCorruption() {
+		EditTree t = new EditTree(text(1000));
+		t.enableSampledValidation(1);
+		for (int i = 0; i < 1000; i++) {
+			t.add('x', i);
+		}
+		t.root.balance = t.root.balance == Node.Code.LEFT ? Node.Code.RIGHT : Node.Code.LEFT;
+		try {
+			t.add('y', 0);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		t.enableSampledValidation(0);
+		t.add('z', 0);
+		assertEquals(2002, t.size());
+	}
+
+	@Test
+	public void testSampledValidationChecksRangeTransforms() {
+		EditTree t = new EditTree(text(1000));
+		t.enableSampledValidation(1);
+		t.reverse(10, 500);
+		t.mapRange(200, 300, CaseMap.UPPER);
+		assertEquals(2, t.sampler.checks);
+	}
+}
@@ -0,0 +1,186 @@
+package editortrees;
+
+/**
+ * A RankTree balanced as a weak AVL (WAVL) tree. Every node has an integer
+ * rank, NIL has rank -1, and the rank difference between a node and each of
+ * its children is 1 or 2, with leaves at rank 0. Built by adds alone, a WAVL
+ * tree is exactly an AVL tree; deletes only loosen it, so a delete does at most
+ * two rotations where an AVL delete may rotate at every level, and the height
+ * stays within 2 log n.
+ *
+ * Like RedBlackEditTree, add and delete record their path in an array instead
+ * of following parent links.
+ */
+public class WavlEditTree extends AbstractRankTree {
+
+	// Ranks are at most twice log n, so paths are at most 64 long.
+	private final RankNode[] path = new RankNode[64];
+
+	/**
+	 * Constructs an empty tree.
+	 */
+	public WavlEditTree() {
+	}
+
+	@Override
+	void insert(char ch, int pos) {
+		RankNode x = new RankNode(ch, 0);
+		int depth = this.attach(x, pos, this.path);
+
+		// Fix a rank difference of 0 between x and its parent.
+		while (depth > 0) {
+			RankNode p = this.path[depth - 1];
+			if (p.tag != x.tag) {
+				break;
+			}
+			boolean left = p.left == x;
+			RankNode sibling = left ? p.right : p.left;
+			if (p.tag - rank(sibling) == 1) {
+				p.tag++;
+				x = p;
+				depth--;
+				continue;
+			}
+			RankNode inner = left ? x.right : x.left;
+			RankNode top;
+			if (x.tag - rank(inner) == 2) {
+				top = left ? this.rotateRight(p) : this.rotateLeft(p);
+				p.tag--;
+			} else {
+				if (left) {
+					p.left = this.rotateLeft(x);
+					top = this.rotateRight(p);
+				} else {
+					p.right = this.rotateRight(x);
+					top = this.rotateLeft(p);
+				}
+				top.tag++;
+				x.tag--;
+				p.tag--;
+			}
+			this.replaceChild(depth > 1 ? this.path[depth - 2] : null, p, top);
+			break;
+		}
+	}
+
+	@Override
+	char remove(int pos) {
+		int depth = 0;
+		RankNode n = this.root;
+		while (pos != n.left.size) {
+			n.size--;
+			this.path[depth++] = n;
+			if (pos < n.left.size) {
+				n = n.left;
+			} else {
+				pos -= n.left.size + 1;
+				n = n.right;
+			}
+		}
+		char removed = n.data;
+		if (n.left != RankNode.NIL && n.right != RankNode.NIL) {
+			// Take over the successor's char and unlink the successor instead.
+			n.size--;
+			this.path[depth++] = n;
+			RankNode successor = n.right;
+			while (successor.left != RankNode.NIL) {
+				successor.size--;
+				this.path[depth++] = successor;
+				successor = successor.left;
+			}
+			n.data = successor.data;
+			n = successor;
+		}
+
+		RankNode x = n.left != RankNode.NIL ? n.left : n.right;
+		if (depth == 0) {
+			this.root = x;
+			return removed;
+		}
+		RankNode p = this.path[depth - 1];
+		this.replaceChild(p, n, x);
+		if (p.left == RankNode.NIL && p.right == RankNode.NIL && p.tag == 1) {
+			// p became a leaf with rank differences 2 and 2.
+			p.tag = 0;
+			x = p;
+			depth--;
+		}
+
+		// Fix a rank difference of 3 between x and its parent. The sibling of
+		// such an x always exists, which tells which side x is on even when x
+		// is NIL.
+		while (depth > 0) {
+			p = this.path[depth - 1];
+			if (p.tag - rank(x) != 3) {
+				break;
+			}
+			boolean left = p.left == x;
+			RankNode sibling = left ? p.right : p.left;
+			if (p.tag - sibling.tag == 2) {
+				p.tag--;
+				x = p;
+				depth--;
+				continue;
+			}
+			RankNode inner = left ? sibling.left : sibling.right;
+			RankNode outer = left ? sibling.right : sibling.left;
+			if (sibling.tag - rank(inner) == 2 && sibling.tag - rank(outer) == 2) {
+				sibling.tag--;
+				p.tag--;
+				x = p;
+				depth--;
+				continue;
+			}
+			RankNode top;
+			if (sibling.tag - rank(outer) == 1) {
+				top = left ? this.rotateLeft(p) : this.rotateRight(p);
+				top.tag++;
+				p.tag--;
+				if (p.left == RankNode.NIL && p.right == RankNode.NIL) {
+					p.tag--;
+				}
+			} else {
+				if (left) {
+					p.right = this.rotateRight(sibling);
+					top = this.rotateLeft(p);
+				} else {
+					p.left = this.rotateLeft(sibling);
+					top = this.rotateRight(p);
+				}
+				top.tag += 2;
+				sibling.tag--;
+				p.tag -= 2;
+			}
+			this.replaceChild(depth > 1 ? this.path[depth - 2] : null, p, top);
+			break;
+		}
+		return removed;
+	}
+
+	/**
+	 * @return true iff every rank difference is 1 or 2 and every leaf has rank
+	 *         0
+	 */
+	public boolean ranksAreCorrect() {
+		return ranksAreCorrect(this.root);
+	}
+
+	private static boolean ranksAreCorrect(RankNode n) {
+		if (n == RankNode.NIL) {
+			return true;
+		}
+		int left = n.tag - rank(n.left);
+		int right = n.tag - rank(n.right);
+		if (left < 1 || left > 2 || right < 1 || right > 2) {
+			return false;
+		}
+		if (n.left == RankNode.NIL && n.right == RankNode.NIL && n.tag != 0) {
+			return false;
+		}
+		return ranksAreCorrect(n.left) && ranksAreCorrect(n.right);
+	}
+
+	private static int rank(RankNode n) {
+		return n == RankNode.NIL ? -1 : n.tag;
+	}
+}